@@ -0,0 +1,67 @@
+package com.flowfree.service.solver;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a full solution count through the generated board kernels with
+ * the same search through {@link GenericKernel}.
+ *
+ * Boards are tiled from a 4x4 block of three flows that has two solutions,
+ * so the search has to explore every combination of tiles and the node
+ * count is the same for both kernels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+  // One tile: startRow, startCol, endRow, endCol per flow
+  private static final int[][] TILE = { { 2, 1, 0, 0 }, { 1, 2, 2, 2 }, { 3, 0, 1, 1 } };
+
+  @Param({ "8", "12" })
+  public int size;
+
+  @Param({ "specialized", "generic" })
+  public String kernel;
+
+  private FlowSolver solver;
+
+  @Setup
+  public void setUp() {
+    int tiles = size / 4;
+    int[] endpoints = new int[tiles * tiles * TILE.length * 4];
+    int i = 0;
+    for (int tr = 0; tr < tiles; tr++) {
+      for (int tc = 0; tc < tiles; tc++) {
+        for (int[] flow : TILE) {
+          endpoints[i++] = flow[0] + 4 * tr;
+          endpoints[i++] = flow[1] + 4 * tc;
+          endpoints[i++] = flow[2] + 4 * tr;
+          endpoints[i++] = flow[3] + 4 * tc;
+        }
+      }
+    }
+    BoardKernel chosen = "generic".equals(kernel)
+        ? new GenericKernel(size) : BoardKernels.forSize(size, size);
+    solver = new FlowSolver(new FlowBoard(size, size, endpoints, chosen));
+  }
+
+  @Benchmark
+  public long countSolutions() {
+    return solver.countSolutions(Long.MAX_VALUE);
+  }
+}
@@ -0,0 +1,266 @@
+package com.flowfree.build;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates the solver's board kernels at build time.
+ *
+ * For every size n in the range of a {@link SpecializedKernels} annotation
+ * the processor writes a class {@code <Kernel>nxn} implementing the
+ * annotated interface, and one factory {@code <Kernel>s} whose
+ * {@code forSize(rows, cols)} returns the specialized kernel for square
+ * boards in range and the fallback kernel for everything else. The emitted
+ * code works on the solver's flat cell layout, where a cell's neighbours
+ * are 64 cells up or down and one cell sideways: every direction loop is
+ * written out with its offset as a literal, and every loop over the rows
+ * of a bit mask is unrolled into straight-line code over constant word
+ * indices. Bounds guards that the board size proves unnecessary are left
+ * out.
+ *
+ * The maven build compiles this package on its own first and then runs the
+ * processor over the rest of the sources; see the compiler executions in
+ * the pom.
+ */
+@SupportedAnnotationTypes("com.flowfree.build.SpecializedKernels")
+public class KernelProcessor extends AbstractProcessor {
+  private static final int STRIDE = 64;
+  // Orthogonal neighbours in the order N, E, S, W, as in FlowBoard.offset
+  private static final int[] OFFSETS = { -STRIDE, 1, STRIDE, -1 };
+  // All eight neighbours in LocalPatterns order, N first and clockwise
+  private static final int[] STEPS = {
+      -STRIDE, -STRIDE + 1, 1, STRIDE + 1, STRIDE, STRIDE - 1, -1, -STRIDE - 1 };
+  private static final String GENERATED =
+      "@javax.annotation.processing.Generated(\"" + KernelProcessor.class.getName() + "\")";
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+    for (Element element : round.getElementsAnnotatedWith(SpecializedKernels.class)) {
+      SpecializedKernels spec = element.getAnnotation(SpecializedKernels.class);
+      if (element.getKind() != ElementKind.INTERFACE) {
+        error(element, "@SpecializedKernels only applies to interfaces");
+        continue;
+      }
+      if (spec.minSize() < 1 || spec.maxSize() > STRIDE - 1 || spec.minSize() > spec.maxSize()) {
+        error(element, "Kernel sizes must lie between 1 and " + (STRIDE - 1));
+        continue;
+      }
+      TypeElement type = (TypeElement) element;
+      String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+      String name = type.getSimpleName().toString();
+      try {
+        for (int n = spec.minSize(); n <= spec.maxSize(); n++) {
+          String kernel = name + n + "x" + n;
+          write(pkg, kernel, kernelSource(pkg, name, kernel, n), type);
+        }
+        write(pkg, name + "s", factorySource(pkg, name, spec), type);
+      } catch (IOException e) {
+        error(element, "Could not write kernels: " + e.getMessage());
+      }
+    }
+    return true;
+  }
+
+  private void write(String pkg, String simpleName, String source, Element origin) throws IOException {
+    String qualified = pkg.isEmpty() ? simpleName : pkg + "." + simpleName;
+    try (Writer out = processingEnv.getFiler().createSourceFile(qualified, origin).openWriter()) {
+      out.write(source);
+    }
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+  private static String factorySource(String pkg, String name, SpecializedKernels spec) {
+    StringBuilder out = header(pkg);
+    out.append("/**\n")
+        .append(" * Picks the board kernel for a board size.\n")
+        .append(" */\n")
+        .append(GENERATED).append('\n')
+        .append("final class ").append(name).append("s {\n")
+        .append("  private static final ").append(name).append("[] SPECIALIZED = {\n");
+    for (int n = spec.minSize(); n <= spec.maxSize(); n++) {
+      out.append("      new ").append(name).append(n).append('x').append(n).append("(),\n");
+    }
+    out.append("  };\n\n")
+        .append("  private ").append(name).append("s() {\n")
+        .append("  }\n\n")
+        .append("  /**\n")
+        .append("   * Gets the kernel generated for a square board of this size, or the\n")
+        .append("   * generic one if there is none.\n")
+        .append("   */\n")
+        .append("  static ").append(name).append(" forSize(int rows, int cols) {\n")
+        .append("    if (rows == cols && rows >= ").append(spec.minSize())
+        .append(" && rows <= ").append(spec.maxSize()).append(") {\n")
+        .append("      return SPECIALIZED[rows - ").append(spec.minSize()).append("];\n")
+        .append("    }\n")
+        .append("    return new ").append(spec.fallback()).append("(rows);\n")
+        .append("  }\n")
+        .append("}\n");
+    return out.toString();
+  }
+
+  private static String kernelSource(String pkg, String name, String kernel, int n) {
+    StringBuilder out = header(pkg);
+    out.append("/**\n")
+        .append(" * Board kernel for ").append(n).append('x').append(n).append(" boards.\n")
+        .append(" */\n")
+        .append(GENERATED).append('\n')
+        .append("final class ").append(kernel).append(" implements ").append(name).append(" {\n");
+    collectMoves(out);
+    squeezedNeighbor(out);
+    otherOpenNeighbor(out);
+    hasDeadEndAround(out);
+    reclassify(out, n);
+    hasDeadCell(out, n);
+    out.append("}\n");
+    return out.toString();
+  }
+
+  private static StringBuilder header(String pkg) {
+    StringBuilder out = new StringBuilder();
+    if (!pkg.isEmpty()) {
+      out.append("package ").append(pkg).append(";\n\n");
+    }
+    return out;
+  }
+
+  private static void collectMoves(StringBuilder out) {
+    out.append("  @Override\n")
+        .append("  public int collectMoves(int[] cells, int flow, int from, int other, int[] out, int pos) {\n")
+        .append("    int count = 0;\n");
+    for (int d = 0; d < 4; d++) {
+      String n = "from" + plus(OFFSETS[d]);
+      out.append("    if (cells[").append(n).append("] == FlowBoard.EMPTY");
+      for (int e = 0; e < 4; e++) {
+        // The move may touch its own flow only at the end it grows from and the other end
+        if (OFFSETS[d] + OFFSETS[e] == 0) {
+          continue;
+        }
+        String m = "from" + plus(OFFSETS[d] + OFFSETS[e]);
+        out.append("\n        && (cells[").append(m).append("] != flow || ")
+            .append(m).append(" == other)");
+      }
+      out.append(") {\n")
+          .append("      out[pos + count++] = ").append(n).append(";\n")
+          .append("    }\n");
+    }
+    out.append("    return count;\n")
+        .append("  }\n\n");
+  }
+
+  private static void squeezedNeighbor(StringBuilder out) {
+    out.append("  @Override\n")
+        .append("  public int squeezedNeighbor(int[] cells, int[] patterns, int cell) {\n");
+    for (int d = 0; d < 4; d++) {
+      String n = "cell" + plus(OFFSETS[d]);
+      out.append("    if (cells[").append(n).append("] == FlowBoard.EMPTY && LocalPatterns.countOpen(patterns[")
+          .append(n).append("]) == 2) {\n")
+          .append("      return ").append(n).append(";\n")
+          .append("    }\n");
+    }
+    out.append("    return -1;\n")
+        .append("  }\n\n");
+  }
+
+  private static void otherOpenNeighbor(StringBuilder out) {
+    out.append("  @Override\n")
+        .append("  public int otherOpenNeighbor(int[] patterns, int cell, int exclude) {\n")
+        .append("    int code = patterns[cell];\n");
+    for (int d = 0; d < 4; d++) {
+      String n = "cell" + plus(OFFSETS[d]);
+      out.append("    if (").append(n).append(" != exclude && LocalPatterns.isOpen(LocalPatterns.classOf(code, ")
+          .append(2 * d).append("))) {\n")
+          .append("      return ").append(n).append(";\n")
+          .append("    }\n");
+    }
+    out.append("    return exclude;\n")
+        .append("  }\n\n");
+  }
+
+  private static void hasDeadEndAround(StringBuilder out) {
+    out.append("  @Override\n")
+        .append("  public boolean hasDeadEndAround(int[] cells, int[] patterns, int cell) {\n")
+        .append("    return ");
+    for (int d = 0; d < 4; d++) {
+      String n = "cell" + plus(OFFSETS[d]);
+      if (d > 0) {
+        out.append("\n        || ");
+      }
+      out.append("cells[").append(n).append("] == FlowBoard.EMPTY && LocalPatterns.isWalledIn(patterns[")
+          .append(n).append("])");
+    }
+    out.append(";\n")
+        .append("  }\n\n");
+  }
+
+  private static void reclassify(StringBuilder out, int n) {
+    // Only cells on the board change class; their neighbourhoods fall inside the array
+    // except where the size cannot rule it out
+    int first = STRIDE;
+    int last = n * STRIDE + n - 1;
+    int size = (n + 2) * STRIDE;
+    out.append("  @Override\n")
+        .append("  public void reclassify(int[] patterns, int cell, int diff) {\n");
+    for (int d = 0; d < 8; d++) {
+      String center = "cell" + plus(-STEPS[d]);
+      String update = "patterns[" + center + "] ^= diff" + (d == 0 ? "" : " << " + 2 * d) + ";\n";
+      boolean low = first - STEPS[d] < 0;
+      boolean high = last - STEPS[d] >= size;
+      if (low || high) {
+        out.append("    if (");
+        if (low) {
+          out.append(center).append(" >= 0");
+        }
+        if (low && high) {
+          out.append(" && ");
+        }
+        if (high) {
+          out.append(center).append(" < ").append(size);
+        }
+        out.append(") {\n      ").append(update).append("    }\n");
+      } else {
+        out.append("    ").append(update);
+      }
+    }
+    out.append("  }\n\n");
+  }
+
+  private static void hasDeadCell(StringBuilder out, int n) {
+    out.append("  @Override\n")
+        .append("  public boolean hasDeadCell(long[] free, long[] open) {\n");
+    for (int w = 0; w <= n + 1; w++) {
+      out.append("    long o").append(w).append(" = open[").append(w).append("];\n");
+    }
+    out.append("    return (");
+    for (int w = 1; w <= n; w++) {
+      if (w > 1) {
+        out.append("\n        | ");
+      }
+      out.append("free[").append(w).append("] & ~BitBoard.twoOrMore(o").append(w - 1)
+          .append(", o").append(w).append(", o").append(w + 1).append(')');
+    }
+    out.append(") != 0;\n")
+        .append("  }\n");
+  }
+
+  private static String plus(int offset) {
+    return offset < 0 ? " - " + -offset : " + " + offset;
+  }
+}
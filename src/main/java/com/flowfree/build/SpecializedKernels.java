@@ -0,0 +1,24 @@
+package com.flowfree.build;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Asks {@link KernelProcessor} to generate implementations of the annotated
+ * kernel interface specialized for every square board size in a range, plus
+ * a factory that picks one by size.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface SpecializedKernels {
+  /** Smallest board side to specialize for. */
+  int minSize();
+
+  /** Largest board side to specialize for. */
+  int maxSize();
+
+  /** Simple name of the hand-written kernel used for every other size. */
+  String fallback();
+}
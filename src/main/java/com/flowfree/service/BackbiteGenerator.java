@@ -0,0 +1,394 @@
+package com.flowfree.service;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Builds fully covered boards from a random Hamiltonian path cut into
+ * flows.
+ *
+ * The path starts as a row-by-row serpentine and is randomized with
+ * backbite moves: one end of the path links to a grid neighbour that is
+ * already on the path, and the link from that neighbour towards the biting
+ * end is dropped, so the stretch between them reverses and the cell that
+ * was next to the neighbour becomes the new end. The path order is kept in
+ * a splay tree over flat arrays with a lazy reversal flag per node, which
+ * turns finding the neighbour's place and reversing the stretch into one
+ * splay and one flag flip, so a move costs amortized logarithmic time
+ * however far along the path the neighbour lies. No move copies or
+ * reverses cells one by one.
+ *
+ * A board is valid when every flow touches itself only between
+ * consecutive cells, so the path cannot be cut anywhere: each grid edge
+ * that is not on the path joins two cells that must end up in different
+ * flows. {@link #cut(int)} places the fewest cuts that separate all such
+ * pairs, then splits the longest flows until the requested count is met,
+ * which keeps flow lengths as even as the path allows. Cells are numbered
+ * row-major, {@code row * cols + col}.
+ */
+public final class BackbiteGenerator {
+  // Walks to the new end longer than this splay it up so the tree stays balanced
+  private static final int SHALLOW = 16;
+
+  private final int rows;
+  private final int cols;
+  private final int cells;
+  private final SplittableRandom random;
+  // Splay tree over the cells in path order, -1 for no node
+  private final int[] left;
+  private final int[] right;
+  private final int[] parent;
+  private final int[] size;
+  private final boolean[] flipped;
+  private final int[] stack;
+  private int root;
+  private int head;
+  private int tail;
+
+  /**
+   * Creates a generator whose path starts as a serpentine.
+   */
+  public BackbiteGenerator(int rows, int cols, SplittableRandom random) {
+    if (rows <= 0 || cols <= 0 || rows * cols < 2) {
+      throw new IllegalArgumentException("Board must have at least two cells");
+    }
+    this.rows = rows;
+    this.cols = cols;
+    this.cells = rows * cols;
+    this.random = random;
+    left = new int[cells];
+    right = new int[cells];
+    parent = new int[cells];
+    size = new int[cells];
+    flipped = new boolean[cells];
+    stack = new int[cells];
+
+    int[] order = new int[cells];
+    for (int r = 0; r < rows; r++) {
+      for (int i = 0; i < cols; i++) {
+        order[r * cols + i] = r * cols + (r % 2 == 0 ? i : cols - 1 - i);
+      }
+    }
+    head = order[0];
+    tail = order[cells - 1];
+    root = build(order, 0, cells - 1, -1);
+  }
+
+  /**
+   * Creates a generator and randomizes its path with the default number of
+   * moves.
+   */
+  public static BackbiteGenerator random(int rows, int cols, SplittableRandom random) {
+    BackbiteGenerator generator = new BackbiteGenerator(rows, cols, random);
+    generator.shuffle(defaultMoves(rows, cols));
+    return generator;
+  }
+
+  /**
+   * Gets a number of moves that leaves no trace of the starting serpentine
+   * on a board of this size. The ends have to wander over the whole board,
+   * which takes a few times the cell count per doubling of the board.
+   */
+  public static long defaultMoves(int rows, int cols) {
+    long cells = (long) rows * cols;
+    return 3 * cells * (64 - Long.numberOfLeadingZeros(cells));
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  public int getCols() {
+    return cols;
+  }
+
+  /**
+   * Applies backbite moves. Moves that would bite off the board or into the
+   * cell already linked to the biting end leave the path as it is but still
+   * count.
+   */
+  public void shuffle(long moves) {
+    for (long i = 0; i < moves; i++) {
+      boolean fromHead = random.nextBoolean();
+      int bitten = neighbor(fromHead ? head : tail, random.nextInt(4));
+      if (bitten < 0) {
+        continue;
+      }
+      splay(bitten);
+      int index = sizeOf(left[bitten]);
+      if (fromHead) {
+        if (index < 2) {
+          continue;
+        }
+        // Everything before the bitten cell reverses; the cell just before it leads
+        int last = left[bitten];
+        int depth = 0;
+        while (right(last) >= 0) {
+          last = right[last];
+          depth++;
+        }
+        flipped[left[bitten]] ^= true;
+        head = last;
+        if (depth > SHALLOW) {
+          splay(last);
+        }
+      } else {
+        if (index > cells - 3) {
+          continue;
+        }
+        int first = right[bitten];
+        int depth = 0;
+        while (left(first) >= 0) {
+          first = left[first];
+          depth++;
+        }
+        flipped[right[bitten]] ^= true;
+        tail = first;
+        if (depth > SHALLOW) {
+          splay(first);
+        }
+      }
+    }
+  }
+
+  /**
+   * Lists the cells of the path from one end to the other.
+   */
+  public int[] path() {
+    int[] order = new int[cells];
+    int count = 0;
+    int depth = 0;
+    int node = root;
+    while (node >= 0 || depth > 0) {
+      while (node >= 0) {
+        push(node);
+        stack[depth++] = node;
+        node = left[node];
+      }
+      node = stack[--depth];
+      order[count++] = node;
+      node = right[node];
+    }
+    return order;
+  }
+
+  /**
+   * Cuts the path into flows and lays them out as a board.
+   *
+   * @param flows Number of flows wanted, as for {@link #cut(int)}
+   * @return The flow of every cell, indexed by row and then column
+   */
+  public int[][] board(int flows) {
+    int[] flowOf = cut(flows);
+    int[][] board = new int[rows][cols];
+    for (int r = 0; r < rows; r++) {
+      System.arraycopy(flowOf, r * cols, board[r], 0, cols);
+    }
+    return board;
+  }
+
+  /**
+   * Cuts the path into flows.
+   *
+   * @param flows Number of flows wanted; the result has more if the path
+   *              needs more cuts to be valid, and fewer if every flow is
+   *              already too short to split
+   * @return The flow of every cell, numbered from 0 along the path
+   */
+  public int[] cut(int flows) {
+    int[] order = path();
+    int[] position = new int[cells];
+    for (int i = 0; i < cells; i++) {
+      position[order[i]] = i;
+    }
+
+    // Every off-path grid edge (i, j) with i < j needs a cut after one of i .. j - 1. Cutting
+    // as late as possible gives the fewest cuts; keep the latest start per required end
+    int[] latestStart = new int[cells];
+    Arrays.fill(latestStart, -1);
+    for (int cell = 0; cell < cells; cell++) {
+      for (int d = 1; d <= 2; d++) {
+        int other = neighbor(cell, d);
+        if (other >= 0 && Math.abs(position[cell] - position[other]) > 1) {
+          int i = Math.min(position[cell], position[other]);
+          int j = Math.max(position[cell], position[other]);
+          latestStart[j - 1] = Math.max(latestStart[j - 1], i);
+        }
+      }
+    }
+    // Grid neighbours are an odd distance apart along the path, so every span covers at
+    // least three cells and late cuts leave flows of three or more; only a cut before the
+    // last cell would strand it, and one cell earlier separates the same pairs
+    boolean[] cutAfter = new boolean[cells];
+    int lastCut = -1;
+    int count = 1;
+    for (int p = 0; p < cells - 1; p++) {
+      if (latestStart[p] > lastCut) {
+        int at = p == cells - 2 ? p - 1 : p;
+        cutAfter[at] = true;
+        lastCut = at;
+        count++;
+      }
+    }
+
+    // Split the longest flows in half until there are enough
+    int[] starts = new int[Math.max(flows, count)];
+    int[] lengths = new int[starts.length];
+    int segments = 0;
+    int start = 0;
+    for (int p = 0; p < cells; p++) {
+      if (p == cells - 1 || cutAfter[p]) {
+        starts[segments] = start;
+        lengths[segments++] = p + 1 - start;
+        start = p + 1;
+      }
+    }
+    while (segments < flows) {
+      int longest = 0;
+      for (int s = 1; s < segments; s++) {
+        if (lengths[s] > lengths[longest]) {
+          longest = s;
+        }
+      }
+      if (lengths[longest] < 4) {
+        break;
+      }
+      int half = lengths[longest] / 2;
+      starts[segments] = starts[longest] + half;
+      lengths[segments++] = lengths[longest] - half;
+      lengths[longest] = half;
+    }
+
+    // Number the flows by where they start on the path
+    boolean[] startsFlow = new boolean[cells];
+    for (int s = 0; s < segments; s++) {
+      startsFlow[starts[s]] = true;
+    }
+    int[] flowOf = new int[cells];
+    int flow = -1;
+    for (int p = 0; p < cells; p++) {
+      if (startsFlow[p]) {
+        flow++;
+      }
+      flowOf[order[p]] = flow;
+    }
+    return flowOf;
+  }
+
+  /**
+   * Gets the neighbour of a cell in direction 0 (up), 1 (right), 2 (down)
+   * or 3 (left), or -1 off the board.
+   */
+  private int neighbor(int cell, int direction) {
+    switch (direction) {
+      case 0:
+        return cell >= cols ? cell - cols : -1;
+      case 1:
+        return cell % cols < cols - 1 ? cell + 1 : -1;
+      case 2:
+        return cell < (rows - 1) * cols ? cell + cols : -1;
+      default:
+        return cell % cols > 0 ? cell - 1 : -1;
+    }
+  }
+
+  private int build(int[] order, int from, int to, int above) {
+    if (from > to) {
+      return -1;
+    }
+    int mid = (from + to) >>> 1;
+    int node = order[mid];
+    parent[node] = above;
+    left[node] = build(order, from, mid - 1, node);
+    right[node] = build(order, mid + 1, to, node);
+    size[node] = to - from + 1;
+    return node;
+  }
+
+  private int sizeOf(int node) {
+    return node < 0 ? 0 : size[node];
+  }
+
+  /**
+   * Gets a node's left child once its pending reversal is applied.
+   */
+  private int left(int node) {
+    push(node);
+    return left[node];
+  }
+
+  private int right(int node) {
+    push(node);
+    return right[node];
+  }
+
+  /**
+   * Applies a pending reversal to a node, handing it on to the children.
+   */
+  private void push(int node) {
+    if (flipped[node]) {
+      int swap = left[node];
+      left[node] = right[node];
+      right[node] = swap;
+      if (left[node] >= 0) {
+        flipped[left[node]] ^= true;
+      }
+      if (right[node] >= 0) {
+        flipped[right[node]] ^= true;
+      }
+      flipped[node] = false;
+    }
+  }
+
+  /**
+   * Moves a node to the root, after applying the reversals pending on the
+   * way down to it.
+   */
+  private void splay(int node) {
+    int depth = 0;
+    for (int up = node; up >= 0; up = parent[up]) {
+      stack[depth++] = up;
+    }
+    while (depth > 0) {
+      push(stack[--depth]);
+    }
+    while (parent[node] >= 0) {
+      int above = parent[node];
+      int grand = parent[above];
+      if (grand >= 0) {
+        rotate((left[grand] == above) == (left[above] == node) ? above : node);
+      }
+      rotate(node);
+    }
+    root = node;
+  }
+
+  private void rotate(int node) {
+    int above = parent[node];
+    int grand = parent[above];
+    if (left[above] == node) {
+      left[above] = right[node];
+      if (right[node] >= 0) {
+        parent[right[node]] = above;
+      }
+      right[node] = above;
+    } else {
+      right[above] = left[node];
+      if (left[node] >= 0) {
+        parent[left[node]] = above;
+      }
+      left[node] = above;
+    }
+    parent[above] = node;
+    parent[node] = grand;
+    if (grand >= 0) {
+      if (left[grand] == above) {
+        left[grand] = node;
+      } else {
+        right[grand] = node;
+      }
+    }
+    size[above] = 1 + sizeOf(left[above]) + sizeOf(right[above]);
+    size[node] = 1 + sizeOf(left[node]) + sizeOf(right[node]);
+  }
+}
@@ -0,0 +1,165 @@
+package com.flowfree.service;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Rearranges a layout towards a {@link RearrangementGoal} by parallel
+ * tempering.
+ *
+ * Several chains each hold a copy of the layout at their own temperature,
+ * spread geometrically from nearly greedy to nearly random. A chain step
+ * proposes a {@link FlowLayout} mutation, prices it from the layout's
+ * running totals and their deltas without looking at the board, and makes
+ * it by the Metropolis rule. The chains run a round of steps side by side
+ * in a fork-join pool, then neighbouring temperatures offer to swap
+ * layouts, which lets a layout that escaped a local minimum while hot cool
+ * down again. Every chain draws from its own generator, split off in chain
+ * order, and the swaps from the one given, so a seed fixes the outcome
+ * however many threads the pool has.
+ */
+final class FlowAnnealer {
+  // Steps every chain takes between swap offers
+  private static final int ROUND_STEPS = 2000;
+  private static final double MIN_TEMPERATURE = 0.05;
+  private static final double MAX_TEMPERATURE = 5;
+
+  private final RearrangementGoal goal;
+  private final SplittableRandom random;
+  private final Chain[] chains;
+
+  /**
+   * Creates an annealer whose chains all start from the given layout.
+   */
+  FlowAnnealer(FlowLayout start, RearrangementGoal goal, int chainCount, SplittableRandom random) {
+    this.goal = goal;
+    this.random = random;
+    chains = new Chain[Math.max(1, chainCount)];
+    for (int i = 0; i < chains.length; i++) {
+      double temperature = chains.length == 1 ? MIN_TEMPERATURE
+          : MIN_TEMPERATURE * Math.pow(MAX_TEMPERATURE / MIN_TEMPERATURE, (double) i / (chains.length - 1));
+      chains[i] = new Chain(start.copy(), temperature, random.split());
+    }
+  }
+
+  /**
+   * Runs the chains until every one has taken the given number of steps or
+   * some layout scores zero.
+   *
+   * @return The best layout any chain reached
+   */
+  FlowLayout run(long steps, ForkJoinPool pool) {
+    for (long done = 0, round = 0; done < steps && bestChain().bestEnergy > 0; done += ROUND_STEPS, round++) {
+      int roundSteps = (int) Math.min(ROUND_STEPS, steps - done);
+      pool.invoke(new Round(roundSteps));
+      offerSwaps((int) (round & 1));
+    }
+    return bestChain().best;
+  }
+
+  /**
+   * Offers swaps between every other pair of neighbouring temperatures,
+   * starting at the given chain, accepted with the usual probability
+   * {@code min(1, exp((1/t1 - 1/t2) * (e1 - e2)))}.
+   */
+  private void offerSwaps(int first) {
+    for (int i = first; i + 1 < chains.length; i += 2) {
+      Chain cold = chains[i];
+      Chain hot = chains[i + 1];
+      double exponent = (1 / cold.temperature - 1 / hot.temperature) * (cold.energy - hot.energy);
+      if (exponent >= 0 || random.nextDouble() < Math.exp(exponent)) {
+        FlowLayout layout = cold.layout;
+        cold.layout = hot.layout;
+        hot.layout = layout;
+        double energy = cold.energy;
+        cold.energy = hot.energy;
+        hot.energy = energy;
+      }
+    }
+  }
+
+  private Chain bestChain() {
+    Chain best = chains[0];
+    for (Chain chain : chains) {
+      if (chain.bestEnergy < best.bestEnergy) {
+        best = chain;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Runs one round of every chain.
+   */
+  private final class Round extends RecursiveAction {
+    private final int steps;
+
+    Round(int steps) {
+      this.steps = steps;
+    }
+
+    @Override
+    protected void compute() {
+      RecursiveAction[] tasks = new RecursiveAction[chains.length];
+      for (int i = 0; i < chains.length; i++) {
+        Chain chain = chains[i];
+        tasks[i] = new RecursiveAction() {
+          @Override
+          protected void compute() {
+            chain.run(steps);
+          }
+        };
+      }
+      invokeAll(tasks);
+    }
+  }
+
+  /**
+   * One layout at a fixed temperature, and the best layout it has held.
+   */
+  private final class Chain {
+    private final double temperature;
+    private final SplittableRandom random;
+    private final FlowLayout best;
+    private FlowLayout layout;
+    private double energy;
+    private double bestEnergy;
+
+    Chain(FlowLayout layout, double temperature, SplittableRandom random) {
+      this.layout = layout;
+      this.temperature = temperature;
+      this.random = random;
+      energy = energy(layout, 0, 0, 0);
+      best = layout.copy();
+      bestEnergy = energy;
+    }
+
+    void run(int steps) {
+      for (int i = 0; i < steps; i++) {
+        if (!layout.propose(random)) {
+          continue;
+        }
+        double after = energy(layout, layout.lengthSquaresDelta(), layout.bendsDelta(), layout.detourDelta());
+        double delta = after - energy;
+        if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+          layout.apply();
+          energy = after;
+          if (energy < bestEnergy) {
+            layout.copyTo(best);
+            bestEnergy = energy;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Scores a layout as it would be after changing its totals by the given
+   * amounts.
+   */
+  private double energy(FlowLayout layout, long lengthSquaresDelta, int bendsDelta, int detourDelta) {
+    return goal.energy(layout.cells(), layout.flows(), layout.lengthSquares() + lengthSquaresDelta,
+        layout.bends() + bendsDelta, layout.detour() + detourDelta);
+  }
+}
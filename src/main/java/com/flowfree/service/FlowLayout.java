@@ -0,0 +1,680 @@
+package com.flowfree.service;
+
+import com.flowfree.service.solver.BitBoard;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A board covered by flows, held as one linked list of cells per flow, for
+ * moving cells between flows at their ends and for joining and cutting
+ * flows.
+ *
+ * Cells use the solver's padded layout ({@link BitBoard#index}), with the
+ * padding owned by no flow, so neighbours need no bounds checks. Each flow
+ * runs from its head to its tail through {@code next}, and back through
+ * {@code prev}; taking a cell off either end or adding one there only
+ * relinks that cell, and nothing is allocated once the layout is built.
+ * The layout also keeps totals of squared flow lengths, bends and detour,
+ * and a move touches at most four cells, so {@link #propose} can price a
+ * move from those cells alone before {@link #apply} makes it.
+ *
+ * A layout comes either from a solution whose flows are already simple
+ * paths ({@link #of}) or from any grid of colors, covered by
+ * {@link #cover} with paths that {@link #join} and {@link #cut} then
+ * reshape. Flows are numbered densely from 0; a join hands the number it
+ * frees to the last flow.
+ */
+final class FlowLayout {
+  private static final int NONE = -1;
+  // Color of the padding while covering a grid, unlike any real color
+  private static final int WALL = Integer.MIN_VALUE;
+  private static final int[] OFFSETS = { -BitBoard.STRIDE, 1, BitBoard.STRIDE, -1 };
+  // Shortest flow a mutation may take a cell from
+  private static final int MIN_DONOR_LENGTH = 4;
+
+  private final int rows;
+  private final int cols;
+  private final int[] flowOf;
+  private final int[] next;
+  private final int[] prev;
+  private final int[] head;
+  private final int[] tail;
+  private final int[] length;
+  private int flows;
+  // Scratch for the candidate moves of one end
+  private final int[] takers = new int[4];
+  // Totals over all flows, kept up to date by every move
+  private long lengthSquares;
+  private int bends;
+  private int detour;
+  // The move found by the last successful propose: an end cell and the end that would take it
+  private int moveCell = NONE;
+  private int moveTaker = NONE;
+
+  private FlowLayout(int rows, int cols, int flows) {
+    this.rows = rows;
+    this.cols = cols;
+    this.flows = flows;
+    int cells = (rows + 2) * BitBoard.STRIDE;
+    flowOf = new int[cells];
+    next = new int[cells];
+    prev = new int[cells];
+    Arrays.fill(flowOf, NONE);
+    Arrays.fill(next, NONE);
+    Arrays.fill(prev, NONE);
+    // Room for a flow per cell, which cutting may come to
+    int capacity = Math.max(flows, rows * cols);
+    head = new int[capacity];
+    tail = new int[capacity];
+    length = new int[capacity];
+    Arrays.fill(head, NONE);
+    Arrays.fill(tail, NONE);
+  }
+
+  /**
+   * Builds the layout of a solution grid.
+   *
+   * @return The layout, or null if some flow is not a simple path that
+   *         touches itself only along its links
+   */
+  static FlowLayout of(int[][] solution) {
+    int rows = solution.length;
+    int cols = solution[0].length;
+    int flows = 0;
+    for (int[] row : solution) {
+      for (int flow : row) {
+        if (flow < 0) {
+          return null;
+        }
+        flows = Math.max(flows, flow + 1);
+      }
+    }
+    FlowLayout layout = new FlowLayout(rows, cols, flows);
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        layout.flowOf[BitBoard.index(r, c)] = solution[r][c];
+        layout.length[solution[r][c]]++;
+      }
+    }
+
+    // Walk every flow from an end; each cell has to lead on to exactly one unvisited cell
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        int cell = BitBoard.index(r, c);
+        int flow = layout.flowOf[cell];
+        int same = layout.sameNeighbors(cell, flow);
+        if (same > 2 || same == 0 && layout.length[flow] > 1) {
+          return null;
+        }
+        if (same == 1 && layout.head[flow] == NONE) {
+          layout.head[flow] = cell;
+        }
+      }
+    }
+    for (int flow = 0; flow < flows; flow++) {
+      if (layout.length[flow] > 0 && !layout.link(flow)) {
+        return null;
+      }
+    }
+    layout.total();
+    return layout;
+  }
+
+  /**
+   * Covers a grid of colors with flows that each keep to one color and
+   * touch themselves only between consecutive cells. Each walk starts from
+   * the uncovered cell with the fewest uncovered neighbours of its color
+   * and keeps stepping to the one with the fewest, so corners and corridors
+   * are taken before they are cut off. Cells no walk could take stay flows
+   * of one cell.
+   */
+  static FlowLayout cover(int[][] colors) {
+    int rows = colors.length;
+    int cols = colors[0].length;
+    FlowLayout layout = new FlowLayout(rows, cols, 0);
+    int[] color = new int[layout.flowOf.length];
+    Arrays.fill(color, WALL);
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        color[BitBoard.index(r, c)] = colors[r][c];
+      }
+    }
+    while (true) {
+      int best = NONE;
+      int bestFree = OFFSETS.length + 1;
+      for (int r = 0; r < rows; r++) {
+        for (int c = 0; c < cols; c++) {
+          int cell = BitBoard.index(r, c);
+          if (layout.flowOf[cell] == NONE) {
+            int free = layout.uncoveredNeighbors(cell, color);
+            if (free < bestFree) {
+              best = cell;
+              bestFree = free;
+            }
+          }
+        }
+      }
+      if (best == NONE) {
+        break;
+      }
+      layout.walk(best, color);
+    }
+    layout.total();
+    return layout;
+  }
+
+  /**
+   * Lays a new flow from a cell, as far as it can go cleanly.
+   */
+  private void walk(int start, int[] color) {
+    int flow = flows++;
+    flowOf[start] = flow;
+    head[flow] = start;
+    length[flow] = 1;
+    int end = start;
+    while (true) {
+      int step = NONE;
+      int stepFree = OFFSETS.length + 1;
+      for (int offset : OFFSETS) {
+        int neighbor = end + offset;
+        if (flowOf[neighbor] == NONE && color[neighbor] == color[start]
+            && touchesOnlyAt(neighbor, flow, end)) {
+          int free = uncoveredNeighbors(neighbor, color);
+          if (free < stepFree) {
+            step = neighbor;
+            stepFree = free;
+          }
+        }
+      }
+      if (step == NONE) {
+        break;
+      }
+      flowOf[step] = flow;
+      next[end] = step;
+      prev[step] = end;
+      end = step;
+      length[flow]++;
+    }
+    tail[flow] = end;
+  }
+
+  private int uncoveredNeighbors(int cell, int[] color) {
+    int count = 0;
+    for (int offset : OFFSETS) {
+      int neighbor = cell + offset;
+      if (flowOf[neighbor] == NONE && color[neighbor] == color[cell]) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Creates an independent copy of a layout.
+   */
+  FlowLayout copy() {
+    FlowLayout copy = new FlowLayout(rows, cols, flows);
+    copyTo(copy);
+    return copy;
+  }
+
+  /**
+   * Overwrites a layout of the same board with this one.
+   */
+  void copyTo(FlowLayout target) {
+    System.arraycopy(flowOf, 0, target.flowOf, 0, flowOf.length);
+    System.arraycopy(next, 0, target.next, 0, next.length);
+    System.arraycopy(prev, 0, target.prev, 0, prev.length);
+    System.arraycopy(head, 0, target.head, 0, flows);
+    System.arraycopy(tail, 0, target.tail, 0, flows);
+    System.arraycopy(length, 0, target.length, 0, flows);
+    target.flows = flows;
+    target.lengthSquares = lengthSquares;
+    target.bends = bends;
+    target.detour = detour;
+    target.moveCell = NONE;
+    target.moveTaker = NONE;
+  }
+
+  /**
+   * Computes the totals from scratch.
+   */
+  private void total() {
+    lengthSquares = 0;
+    bends = 0;
+    detour = 0;
+    for (int flow = 0; flow < flows; flow++) {
+      if (length[flow] == 0) {
+        continue;
+      }
+      lengthSquares += (long) length[flow] * length[flow];
+      detour += detourOf(flow);
+      for (int cell = head[flow]; cell != NONE; cell = next[cell]) {
+        bends += bendAt(cell);
+      }
+    }
+  }
+
+  /**
+   * Links a flow from its head, failing if the walk does not cover it.
+   */
+  private boolean link(int flow) {
+    int cell = head[flow];
+    if (cell == NONE) {
+      return false;
+    }
+    int from = NONE;
+    int visited = 1;
+    while (true) {
+      int to = NONE;
+      for (int offset : OFFSETS) {
+        int neighbor = cell + offset;
+        if (flowOf[neighbor] == flow && neighbor != from) {
+          to = neighbor;
+        }
+      }
+      if (to == NONE) {
+        break;
+      }
+      next[cell] = to;
+      prev[to] = cell;
+      from = cell;
+      cell = to;
+      visited++;
+    }
+    tail[flow] = cell;
+    return visited == length[flow];
+  }
+
+  private int sameNeighbors(int cell, int flow) {
+    int count = 0;
+    for (int offset : OFFSETS) {
+      if (flowOf[cell + offset] == flow) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  int flows() {
+    return flows;
+  }
+
+  int length(int flow) {
+    return length[flow];
+  }
+
+  /**
+   * Gets the first cell of a flow, in the padded layout.
+   */
+  int head(int flow) {
+    return head[flow];
+  }
+
+  int tail(int flow) {
+    return tail[flow];
+  }
+
+  /**
+   * Gets the flow a cell belongs to, or -1 for the padding.
+   */
+  int flowOf(int cell) {
+    return flowOf[cell];
+  }
+
+  /**
+   * Gets the cell after a cell on its flow, or -1 at the tail.
+   */
+  int next(int cell) {
+    return next[cell];
+  }
+
+  int prev(int cell) {
+    return prev[cell];
+  }
+
+  /**
+   * Gets the neighbour of a cell in direction 0 (up), 1 (right), 2 (down)
+   * or 3 (left); off the board it is padding.
+   */
+  static int neighbor(int cell, int direction) {
+    return cell + OFFSETS[direction];
+  }
+
+  int cells() {
+    return rows * cols;
+  }
+
+  /**
+   * Gets the sum over all flows of the squared length, which with the
+   * fixed cell and flow counts gives the variance of the lengths.
+   */
+  long lengthSquares() {
+    return lengthSquares;
+  }
+
+  /**
+   * Gets the number of cells where a flow turns.
+   */
+  int bends() {
+    return bends;
+  }
+
+  /**
+   * Gets how many cells the flows spend beyond the shortest way between
+   * their ends, summed over all flows.
+   */
+  int detour() {
+    return detour;
+  }
+
+  /**
+   * Gets the detour as a share of the board.
+   */
+  double difficulty() {
+    return (double) detour / cells();
+  }
+
+  /**
+   * Attempts one mutation: picks a flow, and hands a cell from one of its
+   * ends to a neighbouring flow whose end touches that cell, trying the
+   * head first and then the tail. The donor keeps at least three cells and
+   * the taker must not touch itself anywhere but at the end it grows from,
+   * so every flow stays a simple path.
+   *
+   * @return Whether a cell moved
+   */
+  boolean mutate(SplittableRandom random) {
+    if (!propose(random)) {
+      return false;
+    }
+    apply();
+    return true;
+  }
+
+  /**
+   * Picks a mutation the way {@link #mutate} does without making it. The
+   * deltas then describe it, and {@link #apply} carries it out.
+   *
+   * @return Whether a move was found
+   */
+  boolean propose(SplittableRandom random) {
+    int flow = random.nextInt(flows);
+    if (length[flow] < MIN_DONOR_LENGTH) {
+      return false;
+    }
+    return proposeAt(head[flow], random) || proposeAt(tail[flow], random);
+  }
+
+  private boolean proposeAt(int cell, SplittableRandom random) {
+    int flow = flowOf[cell];
+    int count = 0;
+    for (int offset : OFFSETS) {
+      int neighbor = cell + offset;
+      int other = flowOf[neighbor];
+      if (other != NONE && other != flow && isEnd(neighbor) && touchesOnlyAt(cell, other, neighbor)) {
+        takers[count++] = neighbor;
+      }
+    }
+    if (count == 0) {
+      return false;
+    }
+    moveCell = cell;
+    moveTaker = takers[random.nextInt(count)];
+    return true;
+  }
+
+  /**
+   * Gets the change in {@link #lengthSquares} the proposed move makes.
+   */
+  long lengthSquaresDelta() {
+    return 2L * (length[flowOf[moveTaker]] - length[flowOf[moveCell]] + 1);
+  }
+
+  /**
+   * Gets the change in {@link #bends} the proposed move makes: the donor's
+   * new end stops counting and the taker's old end may start.
+   */
+  int bendsDelta() {
+    int inner = inward(moveCell);
+    int delta = isBend(moveCell, inner, inward(inner, moveCell)) ? -1 : 0;
+    return delta + (isBend(moveCell, moveTaker, inward(moveTaker)) ? 1 : 0);
+  }
+
+  /**
+   * Gets the change in {@link #detour} the proposed move makes.
+   */
+  int detourDelta() {
+    int inner = inward(moveCell);
+    int donorEnd = otherEnd(moveCell);
+    int takerEnd = otherEnd(moveTaker);
+    return distance(moveCell, donorEnd) - distance(inner, donorEnd)
+        + distance(moveTaker, takerEnd) - distance(moveCell, takerEnd);
+  }
+
+  /**
+   * Makes the proposed move.
+   */
+  void apply() {
+    lengthSquares += lengthSquaresDelta();
+    bends += bendsDelta();
+    detour += detourDelta();
+    shrink(moveCell);
+    grow(moveTaker, moveCell);
+    moveCell = NONE;
+    moveTaker = NONE;
+  }
+
+  /**
+   * Gets the cell next to an end cell on its flow.
+   */
+  private int inward(int end) {
+    return head[flowOf[end]] == end ? next[end] : prev[end];
+  }
+
+  /**
+   * Gets the flow neighbour of a cell other than the given one.
+   */
+  private int inward(int cell, int from) {
+    return next[cell] == from ? prev[cell] : next[cell];
+  }
+
+  private int otherEnd(int end) {
+    int flow = flowOf[end];
+    return head[flow] == end ? tail[flow] : head[flow];
+  }
+
+  private static boolean isBend(int before, int cell, int after) {
+    return cell - before != after - cell;
+  }
+
+  /**
+   * Counts the bend at a cell, which only a cell inside a flow can have.
+   */
+  private int bendAt(int cell) {
+    return prev[cell] != NONE && next[cell] != NONE && isBend(prev[cell], cell, next[cell]) ? 1 : 0;
+  }
+
+  private int detourOf(int flow) {
+    return length[flow] - 1 - distance(head[flow], tail[flow]);
+  }
+
+  /**
+   * Gets the Manhattan distance between two cells.
+   */
+  static int distance(int a, int b) {
+    return Math.abs(BitBoard.rowOf(a) - BitBoard.rowOf(b)) + Math.abs(BitBoard.colOf(a) - BitBoard.colOf(b));
+  }
+
+  boolean isEnd(int cell) {
+    int flow = flowOf[cell];
+    return head[flow] == cell || tail[flow] == cell;
+  }
+
+  /**
+   * Checks that a flow borders a cell only at the given cell of its own.
+   */
+  private boolean touchesOnlyAt(int cell, int flow, int at) {
+    for (int offset : OFFSETS) {
+      int neighbor = cell + offset;
+      if (neighbor != at && flowOf[neighbor] == flow) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Takes an end cell off its flow.
+   */
+  private void shrink(int cell) {
+    int flow = flowOf[cell];
+    if (head[flow] == cell) {
+      head[flow] = next[cell];
+      prev[head[flow]] = NONE;
+    } else {
+      tail[flow] = prev[cell];
+      next[tail[flow]] = NONE;
+    }
+    next[cell] = NONE;
+    prev[cell] = NONE;
+    flowOf[cell] = NONE;
+    length[flow]--;
+  }
+
+  /**
+   * Adds a free cell to a flow beyond the given end.
+   */
+  private void grow(int end, int cell) {
+    int flow = flowOf[end];
+    if (head[flow] == end) {
+      next[cell] = end;
+      prev[end] = cell;
+      head[flow] = cell;
+    } else {
+      prev[cell] = end;
+      next[end] = cell;
+      tail[flow] = cell;
+    }
+    flowOf[cell] = flow;
+    length[flow]++;
+  }
+
+  /**
+   * Checks that the flows of two neighbouring end cells touch only at those
+   * cells, so joining them there leaves a simple path.
+   */
+  boolean canJoin(int a, int b) {
+    int other = flowOf[b];
+    for (int cell = head[flowOf[a]]; cell != NONE; cell = next[cell]) {
+      for (int offset : OFFSETS) {
+        int neighbor = cell + offset;
+        if (flowOf[neighbor] == other && !(cell == a && neighbor == b)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Joins the flows of two neighbouring end cells into one through them.
+   * The number of the flow of {@code b} is freed and handed to the last
+   * flow.
+   */
+  void join(int a, int b) {
+    int first = flowOf[a];
+    int second = flowOf[b];
+    lengthSquares -= (long) length[first] * length[first] + (long) length[second] * length[second];
+    detour -= detourOf(first) + detourOf(second);
+    // Orient both flows so a is the tail of the first and b the head of the second
+    if (tail[first] != a) {
+      reverse(first);
+    }
+    if (head[second] != b) {
+      reverse(second);
+    }
+    next[a] = b;
+    prev[b] = a;
+    for (int cell = b; cell != NONE; cell = next[cell]) {
+      flowOf[cell] = first;
+    }
+    tail[first] = tail[second];
+    length[first] += length[second];
+    lengthSquares += (long) length[first] * length[first];
+    detour += detourOf(first);
+    bends += bendAt(a) + bendAt(b);
+    renumber(flows - 1, second);
+    flows--;
+  }
+
+  /**
+   * Cuts a flow between a cell and the one after it, which becomes the head
+   * of a new flow numbered last.
+   */
+  void cut(int cell) {
+    int first = flowOf[cell];
+    int second = flows++;
+    int start = next[cell];
+    bends -= bendAt(cell) + bendAt(start);
+    lengthSquares -= (long) length[first] * length[first];
+    detour -= detourOf(first);
+    next[cell] = NONE;
+    prev[start] = NONE;
+    head[second] = start;
+    tail[second] = tail[first];
+    tail[first] = cell;
+    length[second] = 0;
+    for (int c = start; c != NONE; c = next[c]) {
+      flowOf[c] = second;
+      length[second]++;
+    }
+    length[first] -= length[second];
+    lengthSquares += (long) length[first] * length[first] + (long) length[second] * length[second];
+    detour += detourOf(first) + detourOf(second);
+  }
+
+  /**
+   * Reverses a flow in place, swapping its head and tail.
+   */
+  private void reverse(int flow) {
+    for (int cell = head[flow]; cell != NONE; ) {
+      int after = next[cell];
+      next[cell] = prev[cell];
+      prev[cell] = after;
+      cell = after;
+    }
+    int swap = head[flow];
+    head[flow] = tail[flow];
+    tail[flow] = swap;
+  }
+
+  /**
+   * Moves a flow to another number, whose old flow is gone.
+   */
+  private void renumber(int from, int to) {
+    if (from == to) {
+      return;
+    }
+    head[to] = head[from];
+    tail[to] = tail[from];
+    length[to] = length[from];
+    for (int cell = head[to]; cell != NONE; cell = next[cell]) {
+      flowOf[cell] = to;
+    }
+  }
+
+  /**
+   * Writes the layout back out as a grid of flow indices.
+   */
+  int[][] toGrid() {
+    int[][] grid = new int[rows][cols];
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        grid[r][c] = flowOf[BitBoard.index(r, c)];
+      }
+    }
+    return grid;
+  }
+}
@@ -1,16 +1,12 @@
 package com.flowfree.service;
 
 import com.flowfree.model.Grid;
-import com.flowfree.model.Cell;
-import com.flowfree.model.Color;
-
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Service for managing game state and metrics.
  */
 public class GameStateService {
+  private final SolutionVerifier verifier = new SolutionVerifier();
   private Grid grid;
   private boolean puzzleCompleted = false;
   private int moveCount = 0;
@@ -61,39 +57,11 @@ public class GameStateService {
   }
 
   /**
-   * Checks if the puzzle is complete.
+   * Checks if the puzzle is complete: every cell is filled and every color
+   * connects its endpoints.
    */
   public boolean isPuzzleComplete() {
-    // A puzzle is complete when all cells are filled and all paths connect
-    // endpoints
-    for (int row = 0; row < grid.getRows(); row++) {
-      for (int col = 0; col < grid.getCols(); col++) {
-        if (grid.getCell(row, col).isEmpty()) {
-          return false;
-        }
-      }
-    }
-
-    // Check if all paths connect their endpoints
-    Map<Color, Boolean> colorConnected = new HashMap<>();
-    for (Color color : Color.values()) {
-      if (!grid.getEndpoints(color).isEmpty()) {
-        colorConnected.put(color, pathConnectsEndpoints(color));
-      }
-    }
-
-    // All colors must be connected
-    return colorConnected.values().stream().allMatch(connected -> connected);
-  }
-
-  /**
-   * Checks if a path connects its endpoints.
-   */
-  private boolean pathConnectsEndpoints(Color color) {
-    // This would require a full path-finding algorithm
-    // For simplicity, we're assuming the Grid's isComplete method
-    // already handles this logic
-    return true;
+    return verifier.verify(grid);
   }
 
   /**
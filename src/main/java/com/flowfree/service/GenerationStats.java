@@ -0,0 +1,90 @@
+package com.flowfree.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of generate-until-unique runs, for planning how much
+ * generation capacity a pack needs.
+ *
+ * A candidate is a freshly built layout, an attempt is one uniqueness check
+ * of a candidate or of one of its repairs, and a candidate is accepted once
+ * a check proves it has exactly one solution. Counters may be updated from
+ * several threads at once.
+ */
+public final class GenerationStats {
+  private final LongAdder candidates = new LongAdder();
+  private final LongAdder attempts = new LongAdder();
+  private final LongAdder repairs = new LongAdder();
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder nanos = new LongAdder();
+
+  void addCandidate() {
+    candidates.increment();
+  }
+
+  void addAttempt() {
+    attempts.increment();
+  }
+
+  void addRepair() {
+    repairs.increment();
+  }
+
+  void addAccepted() {
+    accepted.increment();
+  }
+
+  void addTime(long elapsedNanos) {
+    nanos.add(elapsedNanos);
+  }
+
+  public long getCandidates() {
+    return candidates.sum();
+  }
+
+  public long getAttempts() {
+    return attempts.sum();
+  }
+
+  public long getRepairs() {
+    return repairs.sum();
+  }
+
+  public long getAccepted() {
+    return accepted.sum();
+  }
+
+  /**
+   * Gets the share of candidates that ended up accepted, with or without
+   * repairs.
+   */
+  public double getAcceptanceRate() {
+    long total = getCandidates();
+    return total == 0 ? 0 : (double) getAccepted() / total;
+  }
+
+  /**
+   * Gets the uniqueness checks spent per accepted puzzle, counting those
+   * spent on candidates that were given up on.
+   */
+  public double getAttemptsPerAccepted() {
+    long done = getAccepted();
+    return done == 0 ? Double.NaN : (double) getAttempts() / done;
+  }
+
+  /**
+   * Gets the wall-clock time spent per accepted puzzle in milliseconds.
+   */
+  public double getMillisPerAccepted() {
+    long done = getAccepted();
+    return done == 0 ? Double.NaN : (double) TimeUnit.NANOSECONDS.toMicros(nanos.sum()) / 1000 / done;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d of %d candidates accepted (%.1f%%), %.2f attempts and %.1f ms per puzzle,"
+        + " %d repairs", getAccepted(), getCandidates(), 100 * getAcceptanceRate(),
+        getAttemptsPerAccepted(), getMillisPerAccepted(), getRepairs());
+  }
+}
@@ -3,8 +3,15 @@ package com.flowfree.service;
 import com.flowfree.model.Color;
 import com.flowfree.model.Puzzle;
 import com.flowfree.model.Position;
+import com.flowfree.service.solver.PortfolioSolver;
+import com.flowfree.service.solver.SolutionCount;
+import com.flowfree.service.solver.SolveCache;
+import com.flowfree.service.solver.SolveResult;
+import com.flowfree.service.solver.SolveStatus;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Logger;
 
 /**
@@ -12,10 +19,43 @@ import java.util.logging.Logger;
  */
 public class PuzzleGenerator {
   private static final Logger LOGGER = Logger.getLogger(PuzzleGenerator.class.getName());
-  private final Random random = new Random();
+  // Time each candidate may spend in the uniqueness check before it is given up on
+  private static final long CANDIDATE_BUDGET_MILLIS = 2000;
+  // Fresh layouts and repairs per layout tried before generateUniquePuzzle gives up
+  private static final int MAX_CANDIDATES = 50;
+  private static final int MAX_REPAIRS = 12;
+  // Random board-covering paths tried per layout before settling for the closest flow count
+  private static final int MAX_PATHS = 16;
+  // Tempering chains per rearrangement; fixed so the outcome does not depend on the pool
+  private static final int CHAINS = 8;
+  // Puzzles per leaf task of a batch
+  private static final int BATCH_GRAIN = 16;
+  // Source of the generators handed to single calls; batches derive theirs from their seed
+  private final SplittableRandom seeds = new SplittableRandom();
+  private final SolutionVerifier verifier = new SolutionVerifier();
+  private final SolutionValidator validator;
+  private final PortfolioSolver portfolio = PortfolioSolver.standard(ForkJoinPool.commonPool());
+  private final GenerationStats stats = new GenerationStats();
+
+  public PuzzleGenerator() {
+    this(null);
+  }
 
   /**
-   * Generates a puzzle with the given size and number of flows.
+   * Creates a generator whose solver checks go through a persistent cache,
+   * so candidates seen by earlier runs or other generators are not solved
+   * again. The caller keeps ownership of the cache and closes it.
+   *
+   * @param cache Cache of solve results, or null for none
+   */
+  public PuzzleGenerator(SolveCache cache) {
+    this.validator = new SolutionValidator(null, 0, cache);
+  }
+
+  /**
+   * Generates a puzzle with the given size and number of flows. If the
+   * stored solution fails the certificate check, the solver portfolio gets
+   * one candidate budget to find a real one to store instead.
    * 
    * @param name     Name of the puzzle
    * @param size     Grid size (size x size)
@@ -23,31 +63,228 @@ public class PuzzleGenerator {
    * @return A generated puzzle
    */
   public Puzzle generatePuzzle(String name, int size, int numFlows) {
+    LOGGER.info("Generating puzzle: " + size + "x" + size + " with " + flowCount(size, numFlows) + " flows");
+
+    Puzzle puzzle = buildPuzzle(name, size, numFlows, nextRandom());
+
+    // Log validation result
+    boolean isValid = verifySolution(verifier, puzzle, puzzle.getSolution());
+    LOGGER.info("Solution validity check: " + isValid);
+    if (!isValid) {
+      // Replace a broken stored solution with a real one; racing the strategies keeps boards that
+      // are hard for one of them from stalling generation
+      SolveResult solved = validator.solveAsync(puzzle, portfolio, CANDIDATE_BUDGET_MILLIS, Runnable::run)
+          .join();
+      LOGGER.info("Solvability check: " + solved);
+      if (solved.getStatus() == SolveStatus.SOLVED) {
+        puzzle.setSolution(solved.getSolution());
+      }
+    }
+
+    return puzzle;
+  }
+
+  /**
+   * Generates a puzzle that is proven to have exactly one solution, which
+   * is stored with it. Uniqueness is that of
+   * {@link SolutionValidator#countSolutions(Puzzle, long)}: no other
+   * solution exists whose flows are induced paths, though the player may
+   * still win with a path that runs alongside itself. Each fresh layout is checked with the solver; an
+   * ambiguous one is repaired by {@link PuzzleRepairer}, which moves or adds
+   * endpoints around one of its solutions, and checked again. Layouts
+   * without a solution, whose check runs out of time or that stay ambiguous
+   * after several repairs are dropped for a fresh one. The effort spent is
+   * added to {@link #getGenerationStats()}.
+   *
+   * @param name     Name of the puzzle
+   * @param size     Grid size (size x size)
+   * @param numFlows Number of color flows to start from; repairs may add
+   *                 more
+   * @return The puzzle, or null if no layout could be made unique
+   */
+  public Puzzle generateUniquePuzzle(String name, int size, int numFlows) {
+    long start = System.nanoTime();
+    SplittableRandom random = nextRandom();
+    try {
+      for (int candidates = 0; candidates < MAX_CANDIDATES; candidates++) {
+        stats.addCandidate();
+        Puzzle puzzle = buildPuzzle(name, size, numFlows, random);
+        for (int repairs = 0; puzzle != null; repairs++) {
+          stats.addAttempt();
+          SolutionCount count = validator.countSolutions(puzzle, 2, CANDIDATE_BUDGET_MILLIS);
+          if (count.isUnique()) {
+            // Cached answers may come without the solution itself
+            puzzle.setSolution(count.getWitnesses().isEmpty()
+                ? validator.solve(puzzle) : count.getWitnesses().get(0));
+            stats.addAccepted();
+            return puzzle;
+          }
+          if (count.isTimedOut() && count.getCount() < 2 || repairs == MAX_REPAIRS) {
+            break;
+          }
+          List<int[][]> witnesses = count.getWitnesses();
+          if (count.isSolvable() && witnesses.isEmpty()) {
+            break;
+          }
+          stats.addRepair();
+          // Only a broken stored solution leaves a layout without any; rebuild around it
+          puzzle = count.isSolvable()
+              ? PuzzleRepairer.repair(puzzle, witnesses.get(0), witnesses.size() > 1 ? witnesses.get(1) : null,
+                  random)
+              : PuzzleRepairer.rebuild(puzzle, random);
+        }
+      }
+      LOGGER.warning("No unique " + size + "x" + size + " puzzle after " + MAX_CANDIDATES + " layouts");
+      return null;
+    } finally {
+      stats.addTime(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Gets the running totals of {@link #generateUniquePuzzle} calls on this
+   * generator.
+   */
+  public GenerationStats getGenerationStats() {
+    return stats;
+  }
+
+  /**
+   * Generates a batch of puzzles spread across the common fork-join pool.
+   *
+   * @see #generate(int, int, int, long, ForkJoinPool)
+   */
+  public List<Puzzle> generate(int count, int size, int numFlows, long seed) {
+    return generate(count, size, numFlows, seed, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Generates a batch of puzzles in parallel. Every puzzle is built from its
+   * own {@link SplittableRandom}, split off a generator seeded with
+   * {@code seed} in puzzle order before any work starts, so the same
+   * arguments give the same puzzles no matter how many threads the pool
+   * has. Only the construction and the solution certificate check run
+   * here; the solver checks of {@link #generatePuzzle} are left to the
+   * caller.
+   *
+   * @param count    Number of puzzles to generate
+   * @param size     Grid size (size x size)
+   * @param numFlows Number of color flows to include
+   * @param seed     Seed that fixes the whole batch
+   * @param pool     Pool to build the puzzles in
+   * @return The puzzles, named "Puzzle 1" onwards in order
+   */
+  public List<Puzzle> generate(int count, int size, int numFlows, long seed, ForkJoinPool pool) {
+    SplittableRandom master = new SplittableRandom(seed);
+    SplittableRandom[] randoms = new SplittableRandom[count];
+    for (int i = 0; i < count; i++) {
+      randoms[i] = master.split();
+    }
+    Puzzle[] puzzles = new Puzzle[count];
+    pool.invoke(new BatchTask(randoms, puzzles, size, numFlows, 0, count));
+    return Arrays.asList(puzzles);
+  }
+
+  /**
+   * Builds the puzzles of a range of a batch, halving the range until it is
+   * small enough to build in place.
+   */
+  private final class BatchTask extends RecursiveAction {
+    private final SplittableRandom[] randoms;
+    private final Puzzle[] puzzles;
+    private final int size;
+    private final int numFlows;
+    private final int from;
+    private final int to;
+
+    BatchTask(SplittableRandom[] randoms, Puzzle[] puzzles, int size, int numFlows, int from, int to) {
+      this.randoms = randoms;
+      this.puzzles = puzzles;
+      this.size = size;
+      this.numFlows = numFlows;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > BATCH_GRAIN) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new BatchTask(randoms, puzzles, size, numFlows, from, mid),
+            new BatchTask(randoms, puzzles, size, numFlows, mid, to));
+        return;
+      }
+      SolutionVerifier leafVerifier = new SolutionVerifier();
+      for (int i = from; i < to; i++) {
+        Puzzle puzzle = buildPuzzle("Puzzle " + (i + 1), size, numFlows, randoms[i]);
+        verifySolution(leafVerifier, puzzle, puzzle.getSolution());
+        puzzles[i] = puzzle;
+      }
+    }
+  }
+
+  /**
+   * Gets a fresh generator for a call that was not given a seed.
+   */
+  private synchronized SplittableRandom nextRandom() {
+    return seeds.split();
+  }
+
+  /**
+   * Clamps a requested flow count to what a board of the given size uses.
+   */
+  private static int flowCount(int size, int numFlows) {
     // For an nxn board, ensure we have n flows to fully utilize the board
     numFlows = Math.min(numFlows, Color.values().length);
     numFlows = Math.max(numFlows, size / 2); // At least size/2 flows to ensure good coverage
-    numFlows = Math.min(numFlows, size); // Maximum of size flows
+    return Math.min(numFlows, size); // Maximum of size flows
+  }
 
-    LOGGER.info("Generating puzzle: " + size + "x" + size + " with " + numFlows + " flows");
+  /**
+   * Builds a puzzle and its stored solution, drawing every random choice
+   * from the given generator.
+   */
+  private Puzzle buildPuzzle(String name, int size, int numFlows, SplittableRandom random) {
+    numFlows = flowCount(size, numFlows);
+
+    // Cut a random path over the whole board; the fewer cuts a path needs, the more of them fit
+    // the palette, so keep the one closest to the requested count
+    int[][] best = null;
+    int bestFlows = Integer.MAX_VALUE;
+    for (int i = 0; i < MAX_PATHS && bestFlows != numFlows; i++) {
+      int[][] board = BackbiteGenerator.random(size, size, random).board(numFlows);
+      int flows = countFlows(board);
+      if (flows < bestFlows) {
+        best = board;
+        bestFlows = flows;
+      }
+    }
+    if (bestFlows <= Color.values().length) {
+      return extractPuzzleFromSolution(name, best, size, bestFlows, random);
+    }
 
-    // Generate a better initial solution that uses all cells
-    int[][] solution = generateCompleteSolution(size, numFlows);
+    // Larger boards need more flows than there are colors; fall back to the perimeter layout
+    int[][] solution = generateCompleteSolution(size, numFlows, random);
 
     // Extract puzzle from solution
-    Puzzle puzzle = extractPuzzleFromSolution(name, solution, size, numFlows);
-
-    // Log validation result
-    boolean isValid = verifySolution(puzzle, solution);
-    LOGGER.info("Solution validity check: " + isValid);
+    return extractPuzzleFromSolution(name, solution, size, numFlows, random);
+  }
 
-    return puzzle;
+  private static int countFlows(int[][] board) {
+    int flows = 0;
+    for (int[] row : board) {
+      for (int flow : row) {
+        flows = Math.max(flows, flow + 1);
+      }
+    }
+    return flows;
   }
 
   /**
    * Generates a solution that fills the entire board with flows.
    * Uses a spiral pattern approach to ensure all cells are used.
    */
-  private int[][] generateCompleteSolution(int size, int numFlows) {
+  private int[][] generateCompleteSolution(int size, int numFlows, SplittableRandom random) {
     int[][] solution = new int[size][size];
 
     // Initialize with color -1 (empty)
@@ -56,7 +293,7 @@ public class PuzzleGenerator {
     }
 
     // Generate spiral paths for each color
-    List<Position[]> endpointPairs = generateEndpointPairs(size, numFlows);
+    List<Position[]> endpointPairs = generateEndpointPairs(size, numFlows, random);
 
     // For each endpoint pair, create a path
     for (int colorIndex = 0; colorIndex < endpointPairs.size(); colorIndex++) {
@@ -73,7 +310,7 @@ public class PuzzleGenerator {
     }
 
     // Fill any remaining empty cells with random existing colors
-    fillEmptyCells(solution, size, numFlows);
+    fillEmptyCells(solution, size, numFlows, random);
 
     return solution;
   }
@@ -81,7 +318,7 @@ public class PuzzleGenerator {
   /**
    * Generates pairs of endpoints around the perimeter of the board.
    */
-  private List<Position[]> generateEndpointPairs(int size, int numFlows) {
+  private List<Position[]> generateEndpointPairs(int size, int numFlows, SplittableRandom random) {
     List<Position> availablePositions = new ArrayList<>();
 
     // Add all perimeter positions
@@ -95,7 +332,7 @@ public class PuzzleGenerator {
     }
 
     // Shuffle positions to randomize endpoint placement
-    Collections.shuffle(availablePositions, random);
+    shuffle(availablePositions, random);
 
     // Create endpoint pairs
     List<Position[]> pairs = new ArrayList<>();
@@ -150,7 +387,7 @@ public class PuzzleGenerator {
   /**
    * Fills any remaining empty cells with random existing colors.
    */
-  private void fillEmptyCells(int[][] solution, int size, int numFlows) {
+  private void fillEmptyCells(int[][] solution, int size, int numFlows, SplittableRandom random) {
     // First, count empty cells
     int emptyCells = 0;
     for (int r = 0; r < size; r++) {
@@ -161,7 +398,7 @@ public class PuzzleGenerator {
       }
     }
 
-    LOGGER.info("Filling " + emptyCells + " empty cells");
+    LOGGER.fine("Filling " + emptyCells + " empty cells");
 
     // If there are empty cells, fill them with adjacent colors
     if (emptyCells > 0) {
@@ -172,7 +409,7 @@ public class PuzzleGenerator {
           for (int c = 0; c < size; c++) {
             if (solution[r][c] == -1) {
               // Find a valid color from adjacent cells
-              int color = findAdjacentColor(solution, r, c, size);
+              int color = findAdjacentColor(solution, r, c, size, random);
               if (color != -1) {
                 solution[r][c] = color;
                 progress = true;
@@ -196,7 +433,7 @@ public class PuzzleGenerator {
   /**
    * Finds a color from adjacent cells.
    */
-  private int findAdjacentColor(int[][] solution, int row, int col, int size) {
+  private int findAdjacentColor(int[][] solution, int row, int col, int size, SplittableRandom random) {
     int[][] directions = { { -1, 0 }, { 0, 1 }, { 1, 0 }, { 0, -1 } };
     List<Integer> adjacentColors = new ArrayList<>();
 
@@ -219,12 +456,13 @@ public class PuzzleGenerator {
   /**
    * Extracts a puzzle from a solution by choosing endpoints.
    */
-  private Puzzle extractPuzzleFromSolution(String name, int[][] solution, int size, int numFlows) {
+  private Puzzle extractPuzzleFromSolution(String name, int[][] solution, int size, int numFlows,
+      SplittableRandom random) {
     Puzzle puzzle = new Puzzle(name, size, size);
 
     // Find the endpoints for each color based on the solution
     for (int colorIndex = 0; colorIndex < numFlows; colorIndex++) {
-      List<Position> endpoints = findEndpointsForColor(solution, colorIndex, size);
+      List<Position> endpoints = findEndpointsForColor(solution, colorIndex, size, random);
 
       if (endpoints.size() >= 2) {
         Position start = endpoints.get(0);
@@ -250,7 +488,8 @@ public class PuzzleGenerator {
   /**
    * Finds suitable endpoints for a color based on the solution.
    */
-  private List<Position> findEndpointsForColor(int[][] solution, int colorIndex, int size) {
+  private List<Position> findEndpointsForColor(int[][] solution, int colorIndex, int size,
+      SplittableRandom random) {
     List<Position> colorCells = new ArrayList<>();
 
     // Find all cells with this color
@@ -277,7 +516,7 @@ public class PuzzleGenerator {
 
     // If we found at least 2 possible endpoints, pick 2 that are far apart
     if (possibleEndpoints.size() >= 2) {
-      Collections.shuffle(possibleEndpoints, random);
+      shuffle(possibleEndpoints, random);
 
       // Try to find endpoints on opposite sides if possible
       Position start = possibleEndpoints.get(0);
@@ -286,7 +525,7 @@ public class PuzzleGenerator {
       return Arrays.asList(start, end);
     } else {
       // Not enough endpoint candidates, just pick two random cells
-      Collections.shuffle(colorCells, random);
+      shuffle(colorCells, random);
       return Arrays.asList(colorCells.get(0), colorCells.get(1));
     }
   }
@@ -314,85 +553,23 @@ public class PuzzleGenerator {
   }
 
   /**
-   * Verifies that the solution is valid for the puzzle.
-   */
-  private boolean verifySolution(Puzzle puzzle, int[][] solution) {
-    // Check each color path
-    for (Puzzle.Endpoint endpoint : puzzle.getEndpoints()) {
-      int colorIndex = indexOf(Color.values(), endpoint.color);
-
-      // Check if start and end points have the right color
-      if (solution[endpoint.startRow][endpoint.startCol] != colorIndex) {
-        LOGGER.warning("Start point has wrong color");
-        return false;
-      }
-
-      if (solution[endpoint.endRow][endpoint.endCol] != colorIndex) {
-        LOGGER.warning("End point has wrong color");
-        return false;
-      }
-
-      // Check if there's a connected path between endpoints
-      if (!hasConnectedPath(solution, endpoint, colorIndex)) {
-        LOGGER.warning("No connected path for color " + endpoint.color);
-        return false;
-      }
-    }
-
-    return true;
-  }
-
-  /**
-   * Checks if a path connects the two endpoints.
-   * For a more complex solution, use BFS to verify connectivity.
+   * Shuffles a list in place like {@link Collections#shuffle(List, Random)}.
    */
-  private boolean hasConnectedPath(int[][] solution, Puzzle.Endpoint endpoint, int colorIndex) {
-    int size = solution.length;
-    Position start = new Position(endpoint.startRow, endpoint.startCol);
-    Position end = new Position(endpoint.endRow, endpoint.endCol);
-
-    // Use BFS to check connectivity
-    Queue<Position> queue = new LinkedList<>();
-    boolean[][] visited = new boolean[size][size];
-    queue.add(start);
-    visited[start.getRow()][start.getCol()] = true;
-
-    int[][] directions = { { -1, 0 }, { 0, 1 }, { 1, 0 }, { 0, -1 } };
-
-    while (!queue.isEmpty()) {
-      Position current = queue.poll();
-
-      if (current.equals(end)) {
-        return true; // Found a path to the end
-      }
-
-      for (int[] dir : directions) {
-        int newRow = current.getRow() + dir[0];
-        int newCol = current.getCol() + dir[1];
-
-        if (isValidPosition(newRow, newCol, size) &&
-            !visited[newRow][newCol] &&
-            solution[newRow][newCol] == colorIndex) {
-
-          visited[newRow][newCol] = true;
-          queue.add(new Position(newRow, newCol));
-        }
-      }
+  private static <T> void shuffle(List<T> list, SplittableRandom random) {
+    for (int i = list.size() - 1; i > 0; i--) {
+      Collections.swap(list, i, random.nextInt(i + 1));
     }
-
-    return false; // No path found
   }
 
   /**
-   * Find index of a value in an array.
+   * Verifies that the solution is valid for the puzzle.
    */
-  private <T> int indexOf(T[] array, T value) {
-    for (int i = 0; i < array.length; i++) {
-      if (array[i].equals(value)) {
-        return i;
-      }
+  private static boolean verifySolution(SolutionVerifier verifier, Puzzle puzzle, int[][] solution) {
+    if (!verifier.verify(puzzle, solution)) {
+      LOGGER.warning("Invalid solution: " + verifier.getDefect());
+      return false;
     }
-    return -1;
+    return true;
   }
 
   /**
@@ -413,31 +590,19 @@ public class PuzzleGenerator {
     int size = puzzle.getRows();
     int numFlows = puzzle.getEndpoints().size();
 
-    // Create a deep copy of the solution to work with
-    int[][] workingSolution = new int[size][size];
-    for (int i = 0; i < size; i++) {
-      System.arraycopy(solution[i], 0, workingSolution[i], 0, size);
+    // Work on a linked copy of the solution
+    FlowLayout layout = FlowLayout.of(solution);
+    if (layout == null) {
+      LOGGER.warning("Cannot rearrange flows - solution flows are not simple paths");
+      return puzzle;
     }
 
-    // Map colors to their flow paths (list of positions)
-    Map<Integer, List<Position>> flowPaths = extractFlowPaths(workingSolution, size);
-
+    SplittableRandom random = nextRandom();
     LOGGER.info("Starting flow rearrangement for " + iterations + " iterations");
     int successfulMutations = 0;
 
     for (int iter = 0; iter < iterations; iter++) {
-      // Choose a random flow
-      Integer[] colorIndices = flowPaths.keySet().toArray(new Integer[0]);
-      int flowIndex = colorIndices[random.nextInt(colorIndices.length)];
-      List<Position> flowPath = flowPaths.get(flowIndex);
-
-      // Skip if flow is too short (minimum 3 cells)
-      if (flowPath.size() <= 3) {
-        continue;
-      }
-
-      boolean mutated = attemptFlowMutation(flowIndex, flowPaths, workingSolution, size);
-      if (mutated) {
+      if (layout.mutate(random)) {
         successfulMutations++;
       }
     }
@@ -445,206 +610,74 @@ public class PuzzleGenerator {
     LOGGER.info("Completed flow rearrangement with " + successfulMutations + " successful mutations");
 
     // Update puzzle with new solution
-    Puzzle rearrangedPuzzle = extractPuzzleFromSolution(puzzle.getName(), workingSolution, size, numFlows);
+    Puzzle rearrangedPuzzle = extractPuzzleFromSolution(puzzle.getName(), layout.toGrid(), size, numFlows,
+        random);
     return rearrangedPuzzle;
   }
 
   /**
-   * Attempts to mutate a flow by shrinking it and growing an adjacent flow.
-   */
-  private boolean attemptFlowMutation(int flowIndex, Map<Integer, List<Position>> flowPaths,
-      int[][] solution, int size) {
-    List<Position> flowPath = flowPaths.get(flowIndex);
-
-    // Get endpoints of this flow (first and last positions in the path)
-    Position head = flowPath.get(0);
-    Position tail = flowPath.get(flowPath.size() - 1);
-
-    // Try to mutate from the head
-    if (tryMutateFlowEnd(head, flowPath, flowIndex, flowPaths, solution, size)) {
-      return true;
-    }
-
-    // Try to mutate from the tail
-    if (tryMutateFlowEnd(tail, flowPath, flowIndex, flowPaths, solution, size)) {
-      return true;
-    }
-
-    return false;
-  }
-
-  /**
-   * Tries to mutate a flow from one of its endpoints.
-   */
-  private boolean tryMutateFlowEnd(Position endpoint, List<Position> flowPath, int flowIndex,
-      Map<Integer, List<Position>> flowPaths, int[][] solution, int size) {
-    // Find adjacent cells from other flows
-    List<MutationCandidate> candidates = findAdjacentCandidates(endpoint, flowIndex, solution, size);
-
-    if (candidates.isEmpty()) {
-      return false;
-    }
-
-    // Choose a random candidate
-    MutationCandidate candidate = candidates.get(random.nextInt(candidates.size()));
-
-    // Get path of the other flow
-    List<Position> otherFlowPath = flowPaths.get(candidate.colorIndex);
-
-    // Find the next cell in our flow after the endpoint
-    Position nextInFlow = findNextInFlow(endpoint, flowPath);
-    if (nextInFlow == null) {
-      return false;
-    }
-
-    // Execute the mutation
-    // 1. Remove the endpoint from our flow
-    if (endpoint.equals(flowPath.get(0))) {
-      flowPath.remove(0);
-    } else {
-      flowPath.remove(flowPath.size() - 1);
-    }
-    solution[endpoint.getRow()][endpoint.getCol()] = -1; // Mark as empty temporarily
-
-    // 2. Move the candidate's flow into this empty space
-    solution[endpoint.getRow()][endpoint.getCol()] = candidate.colorIndex;
-
-    // 3. Add new position to other flow's path
-    if (isEndpoint(candidate.position, otherFlowPath)) {
-      if (candidate.position.equals(otherFlowPath.get(0))) {
-        otherFlowPath.add(0, endpoint);
-      } else {
-        otherFlowPath.add(endpoint);
-      }
-    } else {
-      // More complex case for middle-of-flow mutation
-      // For simplicity, we'll just recalculate the flow path
-      otherFlowPath.clear();
-      otherFlowPath.addAll(extractSingleFlowPath(solution, size, candidate.colorIndex));
-    }
-
-    LOGGER.fine("Flow " + flowIndex + " shrunk and flow " + candidate.colorIndex + " expanded");
-    return true;
-  }
-
-  /**
-   * Finds the next position in a flow path after an endpoint.
+   * Rearranges flows in a puzzle towards a goal instead of at random, with
+   * the parallel tempering of {@link FlowAnnealer} spread over the common
+   * pool.
+   *
+   * @param puzzle The puzzle to rearrange
+   * @param goal   Difficulty band and weights to optimize for
+   * @param steps  Mutations each chain may try; the search stops earlier
+   *               once a layout meets the band with nothing else to gain
+   * @return The best puzzle found, which may miss the band if the steps
+   *         ran out first
    */
-  private Position findNextInFlow(Position endpoint, List<Position> flowPath) {
-    if (endpoint.equals(flowPath.get(0)) && flowPath.size() > 1) {
-      return flowPath.get(1);
-    } else if (endpoint.equals(flowPath.get(flowPath.size() - 1)) && flowPath.size() > 1) {
-      return flowPath.get(flowPath.size() - 2);
-    }
-    return null;
+  public Puzzle rearrangeFlows(Puzzle puzzle, RearrangementGoal goal, long steps) {
+    return rearrangeFlows(puzzle, goal, steps, nextRandom(), ForkJoinPool.commonPool());
   }
 
   /**
-   * Checks if a position is an endpoint of a flow path.
+   * Rearranges flows towards a goal like
+   * {@link #rearrangeFlows(Puzzle, RearrangementGoal, long)}, drawing every
+   * random choice from a generator seeded with {@code seed}. The number of
+   * tempering chains is fixed, so the same arguments give the same puzzle
+   * no matter how many threads the pool has.
+   *
+   * @param pool Pool the chains run in
    */
-  private boolean isEndpoint(Position pos, List<Position> flowPath) {
-    return pos.equals(flowPath.get(0)) || pos.equals(flowPath.get(flowPath.size() - 1));
-  }
-
-  /**
-   * Finds adjacent cells from other flows that are candidates for mutation.
-   */
-  private List<MutationCandidate> findAdjacentCandidates(Position pos, int flowIndex,
-      int[][] solution, int size) {
-    List<MutationCandidate> candidates = new ArrayList<>();
-    int[][] directions = { { -1, 0 }, { 0, 1 }, { 1, 0 }, { 0, -1 } }; // Up, Right, Down, Left
-
-    for (int[] dir : directions) {
-      int newRow = pos.getRow() + dir[0];
-      int newCol = pos.getCol() + dir[1];
-
-      if (isValidPosition(newRow, newCol, size)) {
-        int cellColor = solution[newRow][newCol];
-        // Check if this is a different flow
-        if (cellColor >= 0 && cellColor != flowIndex) {
-          candidates.add(new MutationCandidate(
-              new Position(newRow, newCol), cellColor));
-        }
-      }
-    }
-
-    return candidates;
+  public Puzzle rearrangeFlows(Puzzle puzzle, RearrangementGoal goal, long steps, long seed,
+      ForkJoinPool pool) {
+    return rearrangeFlows(puzzle, goal, steps, new SplittableRandom(seed), pool);
   }
 
-  /**
-   * Helper class for mutation candidates.
-   */
-  private static class MutationCandidate {
-    Position position;
-    int colorIndex;
-
-    MutationCandidate(Position position, int colorIndex) {
-      this.position = position;
-      this.colorIndex = colorIndex;
+  private Puzzle rearrangeFlows(Puzzle puzzle, RearrangementGoal goal, long steps,
+      SplittableRandom random, ForkJoinPool pool) {
+    int[][] solution = puzzle.getSolution();
+    FlowLayout layout = solution == null ? null : FlowLayout.of(solution);
+    if (layout == null) {
+      LOGGER.warning("Cannot rearrange flows - puzzle has no solution made of simple paths");
+      return puzzle;
     }
-  }
 
-  /**
-   * Extracts flow paths from a solution grid.
-   */
-  private Map<Integer, List<Position>> extractFlowPaths(int[][] solution, int size) {
-    Map<Integer, List<Position>> flowPaths = new HashMap<>();
+    FlowLayout best = new FlowAnnealer(layout, goal, CHAINS, random).run(steps, pool);
 
-    // Find all unique color indices
-    Set<Integer> colorIndices = new HashSet<>();
-    for (int r = 0; r < size; r++) {
-      for (int c = 0; c < size; c++) {
-        if (solution[r][c] >= 0) {
-          colorIndices.add(solution[r][c]);
-        }
-      }
-    }
-
-    // Extract each flow path
-    for (int colorIndex : colorIndices) {
-      List<Position> path = extractSingleFlowPath(solution, size, colorIndex);
-      flowPaths.put(colorIndex, path);
+    double difficulty = best.difficulty();
+    if (goal.accepts(difficulty)) {
+      LOGGER.info("Rearranged flows to estimated difficulty " + difficulty);
+    } else {
+      LOGGER.warning("Rearranged flows reached estimated difficulty " + difficulty + ", outside the band");
     }
-
-    return flowPaths;
+    return extractPuzzleFromSolution(puzzle.getName(), best.toGrid(), puzzle.getRows(),
+        puzzle.getEndpoints().size(), random);
   }
 
   /**
-   * Extracts a single flow path from the solution.
-   * Uses BFS to find a path between endpoints.
+   * Estimates how hard a solved puzzle is as the share of its cells that
+   * the flows spend beyond the shortest way between their endpoints. Flows
+   * that run straight to their ends leave the solver little to search;
+   * each detour is a choice it has to make.
+   *
+   * @return The estimate between 0 and 1, or -1 if the solution is missing
+   *         or its flows are not simple paths
    */
-  private List<Position> extractSingleFlowPath(int[][] solution, int size, int colorIndex) {
-    // Find endpoints of this color
-    List<Position> endpoints = new ArrayList<>();
-    for (int r = 0; r < size; r++) {
-      for (int c = 0; c < size; c++) {
-        if (solution[r][c] == colorIndex) {
-          Position pos = new Position(r, c);
-
-          // Check if this is an endpoint (has only one neighboring cell of same color)
-          if (countSameColorNeighbors(solution, pos, colorIndex, size) <= 1) {
-            endpoints.add(pos);
-          }
-        }
-      }
-    }
-
-    if (endpoints.size() != 2) {
-      LOGGER.warning("Expected 2 endpoints for color " + colorIndex + ", found " + endpoints.size());
-      // Return all cells of this color as fallback
-      List<Position> allCells = new ArrayList<>();
-      for (int r = 0; r < size; r++) {
-        for (int c = 0; c < size; c++) {
-          if (solution[r][c] == colorIndex) {
-            allCells.add(new Position(r, c));
-          }
-        }
-      }
-      return allCells;
-    }
-
-    // Use BFS to find path between endpoints
-    return findPathBFS(solution, endpoints.get(0), endpoints.get(1), colorIndex, size);
+  public static double estimateDifficulty(Puzzle puzzle) {
+    FlowLayout layout = puzzle.getSolution() == null ? null : FlowLayout.of(puzzle.getSolution());
+    return layout == null ? -1 : layout.difficulty();
   }
 
   /**
@@ -666,56 +699,6 @@ public class PuzzleGenerator {
     return count;
   }
 
-  /**
-   * Finds a path between two positions using BFS.
-   */
-  private List<Position> findPathBFS(int[][] solution, Position start, Position end,
-      int colorIndex, int size) {
-    Queue<Position> queue = new LinkedList<>();
-    Map<Position, Position> parentMap = new HashMap<>();
-    boolean[][] visited = new boolean[size][size];
-
-    queue.add(start);
-    visited[start.getRow()][start.getCol()] = true;
-
-    int[][] directions = { { -1, 0 }, { 0, 1 }, { 1, 0 }, { 0, -1 } };
-
-    while (!queue.isEmpty()) {
-      Position current = queue.poll();
-
-      if (current.equals(end)) {
-        // Path found, reconstruct it
-        List<Position> path = new ArrayList<>();
-        Position pos = current;
-
-        while (pos != null) {
-          path.add(0, pos);
-          pos = parentMap.get(pos);
-        }
-
-        return path;
-      }
-
-      // Try all four directions
-      for (int[] dir : directions) {
-        int newRow = current.getRow() + dir[0];
-        int newCol = current.getCol() + dir[1];
-
-        if (isValidPosition(newRow, newCol, size) &&
-            solution[newRow][newCol] == colorIndex &&
-            !visited[newRow][newCol]) {
-          Position next = new Position(newRow, newCol);
-          queue.add(next);
-          visited[newRow][newCol] = true;
-          parentMap.put(next, current);
-        }
-      }
-    }
-
-    LOGGER.warning("Could not find path between endpoints for color " + colorIndex);
-    return new ArrayList<>();
-  }
-
   // This method may already exist in your code, but I'm including it for
   // completeness
   private boolean isValidPosition(int row, int col, int size) {
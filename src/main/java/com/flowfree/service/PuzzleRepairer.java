@@ -0,0 +1,416 @@
+package com.flowfree.service;
+
+import com.flowfree.model.Color;
+import com.flowfree.model.Puzzle;
+import com.flowfree.service.solver.BitBoard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Repairs generated puzzles that fail the uniqueness check by moving or
+ * adding endpoints, so a rejected layout is reused instead of thrown away.
+ *
+ * A puzzle without any solution comes from a stored solution that is not a
+ * valid one, and {@link #rebuild} turns that grid into one that is. An
+ * ambiguous puzzle is handled by {@link #repair}, which picks a cell where
+ * two known solutions disagree, or any cell if only one is known, and looks
+ * at the flow that the kept solution runs through it. If a color is still
+ * unused, that flow is cut in two at the cell, adding a pair of endpoints
+ * that the other solution cannot satisfy. Otherwise one end of the flow is
+ * moved a cell inwards and the freed cell handed to a neighbouring flow
+ * whose end touches it. Either way the kept solution, recolored to match,
+ * stays a solution of the repaired puzzle.
+ */
+final class PuzzleRepairer {
+  private static final Color[] COLORS = Color.values();
+  private static final int[] ROW_STEPS = { -1, 0, 1, 0 };
+  private static final int[] COL_STEPS = { 0, 1, 0, -1 };
+
+  // Prevent instantiation
+  private PuzzleRepairer() {
+  }
+
+  /**
+   * Repairs an ambiguous puzzle.
+   *
+   * @param puzzle   The puzzle with several solutions
+   * @param solution A solution to keep, as a grid of color indices
+   * @param other    Another solution, or null if none is known
+   * @return A new puzzle carrying the adjusted solution, or null if no
+   *         change applies around the chosen cell
+   */
+  static Puzzle repair(Puzzle puzzle, int[][] solution, int[][] other, SplittableRandom random) {
+    int rows = puzzle.getRows();
+    int cols = puzzle.getCols();
+    List<Integer> cells = new ArrayList<>();
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        if (other == null || solution[r][c] != other[r][c]) {
+          cells.add(r * cols + c);
+        }
+      }
+    }
+    if (cells.isEmpty()) {
+      return null;
+    }
+    int cell = cells.get(random.nextInt(cells.size()));
+    int color = solution[cell / cols][cell % cols];
+    int flow = -1;
+    for (int f = 0; f < puzzle.getEndpoints().size(); f++) {
+      if (puzzle.getEndpoints().get(f).color.ordinal() == color) {
+        flow = f;
+      }
+    }
+    if (flow < 0) {
+      return null;
+    }
+    int[] path = trace(solution, puzzle.getEndpoints().get(flow), cols);
+    if (puzzle.getEndpoints().size() < COLORS.length && path.length >= 4) {
+      return split(puzzle, solution, flow, path, indexOf(path, cell));
+    }
+    return moveEnd(puzzle, solution, flow, path, random.nextBoolean());
+  }
+
+  /**
+   * Rebuilds a puzzle whose stored solution is not a valid one, e.g. with
+   * a color that branches or falls apart, so that it is. Every color region
+   * of the stored grid is covered by {@link FlowLayout#cover} with paths
+   * that touch themselves only between consecutive cells, then neighbouring
+   * paths are joined end to end, picking randomly among the joins that keep
+   * a path clean, until there are no more paths than the puzzle had flows. The endpoints move
+   * to the ends of the resulting paths, each of which gets its own color.
+   *
+   * @return The rebuilt puzzle carrying its solution, or null if the paths
+   *         cannot be brought down to the available colors or a single cell
+   *         is left that no path can take
+   */
+  static Puzzle rebuild(Puzzle puzzle, SplittableRandom random) {
+    int[][] stored = puzzle.getSolution();
+    if (stored == null) {
+      return null;
+    }
+    FlowLayout cover = FlowLayout.cover(stored);
+    int target = Math.max(1, Math.min(puzzle.getEndpoints().size(), COLORS.length));
+    while (cover.flows() > target || singles(cover) > 0) {
+      if (!joinRandom(cover, random) && !(singles(cover) > 0 && absorbSingle(cover, random))) {
+        break;
+      }
+    }
+    if (cover.flows() > COLORS.length || singles(cover) > 0) {
+      return null;
+    }
+    return toPuzzle(cover, puzzle.getName());
+  }
+
+  /**
+   * Cuts a flow into two, the second part starting at the given index of
+   * its path and taking the first unused color.
+   */
+  private static Puzzle split(Puzzle puzzle, int[][] solution, int flow, int[] path, int at) {
+    // Both parts need at least two cells to be flows of their own
+    at = Math.max(2, Math.min(at, path.length - 2));
+    int cols = puzzle.getCols();
+    Color fresh = unusedColor(puzzle);
+    int[][] grid = copy(solution);
+    for (int i = at; i < path.length; i++) {
+      grid[path[i] / cols][path[i] % cols] = fresh.ordinal();
+    }
+
+    Puzzle repaired = new Puzzle(puzzle.getName(), puzzle.getRows(), cols);
+    for (int f = 0; f < puzzle.getEndpoints().size(); f++) {
+      Puzzle.Endpoint endpoint = puzzle.getEndpoints().get(f);
+      if (f == flow) {
+        repaired.addEndpoint(endpoint.startRow, endpoint.startCol, endpoint.color,
+            path[at - 1] / cols, path[at - 1] % cols);
+      } else {
+        repaired.addEndpoint(endpoint.startRow, endpoint.startCol, endpoint.color,
+            endpoint.endRow, endpoint.endCol);
+      }
+    }
+    repaired.addEndpoint(path[at] / cols, path[at] % cols, fresh,
+        path[path.length - 1] / cols, path[path.length - 1] % cols);
+    repaired.setSolution(grid);
+    return repaired;
+  }
+
+  /**
+   * Shortens a flow by one cell at one end and grows a neighbouring flow
+   * into that cell, trying the other end if the first has no taker.
+   */
+  private static Puzzle moveEnd(Puzzle puzzle, int[][] solution, int flow, int[] path, boolean fromStart) {
+    if (path.length < 3) {
+      return null;
+    }
+    for (int attempt = 0; attempt < 2; attempt++, fromStart = !fromStart) {
+      int end = fromStart ? path[0] : path[path.length - 1];
+      int inner = fromStart ? path[1] : path[path.length - 2];
+      int taker = takerOf(puzzle, solution, flow, end);
+      if (taker >= 0) {
+        return moved(puzzle, solution, flow, end, inner, taker);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Finds a flow other than the given one with an endpoint next to a cell,
+   * that can take the cell without touching itself anywhere else.
+   *
+   * @return The flow, or -1 if there is none
+   */
+  private static int takerOf(Puzzle puzzle, int[][] solution, int flow, int cell) {
+    int rows = puzzle.getRows();
+    int cols = puzzle.getCols();
+    int row = cell / cols;
+    int col = cell % cols;
+    for (int d = 0; d < 4; d++) {
+      int r = row + ROW_STEPS[d];
+      int c = col + COL_STEPS[d];
+      if (r < 0 || r >= rows || c < 0 || c >= cols) {
+        continue;
+      }
+      for (int f = 0; f < puzzle.getEndpoints().size(); f++) {
+        Puzzle.Endpoint endpoint = puzzle.getEndpoints().get(f);
+        boolean isEnd = endpoint.startRow == r && endpoint.startCol == c
+            || endpoint.endRow == r && endpoint.endCol == c;
+        if (f != flow && isEnd && touches(solution, row, col, endpoint.color.ordinal()) == 1) {
+          return f;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static Puzzle moved(Puzzle puzzle, int[][] solution, int flow, int cell, int inner, int taker) {
+    int cols = puzzle.getCols();
+    int[][] grid = copy(solution);
+    Color takerColor = puzzle.getEndpoints().get(taker).color;
+    grid[cell / cols][cell % cols] = takerColor.ordinal();
+
+    Puzzle repaired = new Puzzle(puzzle.getName(), puzzle.getRows(), cols);
+    for (int f = 0; f < puzzle.getEndpoints().size(); f++) {
+      Puzzle.Endpoint endpoint = puzzle.getEndpoints().get(f);
+      int[] ends = { endpoint.startRow * cols + endpoint.startCol, endpoint.endRow * cols + endpoint.endCol };
+      for (int half = 0; half < 2; half++) {
+        if (f == flow && ends[half] == cell) {
+          ends[half] = inner;
+        } else if (f == taker && isNeighbor(ends[half], cell, cols)) {
+          ends[half] = cell;
+        }
+      }
+      repaired.addEndpoint(ends[0] / cols, ends[0] % cols, endpoint.color, ends[1] / cols, ends[1] % cols);
+    }
+    repaired.setSolution(grid);
+    return repaired;
+  }
+
+  /**
+   * Lists the cells of a flow in a solution from its start to its end.
+   */
+  private static int[] trace(int[][] solution, Puzzle.Endpoint endpoint, int cols) {
+    int color = endpoint.color.ordinal();
+    List<Integer> path = new ArrayList<>();
+    int previous = -1;
+    int current = endpoint.startRow * cols + endpoint.startCol;
+    while (current >= 0) {
+      path.add(current);
+      int next = -1;
+      for (int d = 0; d < 4 && next < 0; d++) {
+        int r = current / cols + ROW_STEPS[d];
+        int c = current % cols + COL_STEPS[d];
+        if (r >= 0 && r < solution.length && c >= 0 && c < cols && solution[r][c] == color
+            && r * cols + c != previous) {
+          next = r * cols + c;
+        }
+      }
+      previous = current;
+      current = next;
+    }
+    int[] cells = new int[path.size()];
+    for (int i = 0; i < cells.length; i++) {
+      cells[i] = path.get(i);
+    }
+    return cells;
+  }
+
+  private static int touches(int[][] solution, int row, int col, int color) {
+    int count = 0;
+    for (int d = 0; d < 4; d++) {
+      int r = row + ROW_STEPS[d];
+      int c = col + COL_STEPS[d];
+      if (r >= 0 && r < solution.length && c >= 0 && c < solution[r].length && solution[r][c] == color) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static boolean isNeighbor(int a, int b, int cols) {
+    return Math.abs(a / cols - b / cols) + Math.abs(a % cols - b % cols) == 1;
+  }
+
+  private static Color unusedColor(Puzzle puzzle) {
+    boolean[] used = new boolean[COLORS.length];
+    for (Puzzle.Endpoint endpoint : puzzle.getEndpoints()) {
+      used[endpoint.color.ordinal()] = true;
+    }
+    for (Color color : COLORS) {
+      if (!used[color.ordinal()]) {
+        return color;
+      }
+    }
+    throw new IllegalStateException("Every color is in use");
+  }
+
+  private static int indexOf(int[] path, int cell) {
+    for (int i = 0; i < path.length; i++) {
+      if (path[i] == cell) {
+        return i;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Joins two flows whose ends are neighbours, chosen at random among the
+   * joins that keep the joined flow clean and give the shortest result, so
+   * flows grow evenly and no long flow walls off the cells around it.
+   *
+   * @return False if no join is possible
+   */
+  private static boolean joinRandom(FlowLayout cover, SplittableRandom random) {
+    List<int[]> joins = new ArrayList<>();
+    int shortest = Integer.MAX_VALUE;
+    for (int f = 0; f < cover.flows(); f++) {
+      for (int side = 0; side < 2; side++) {
+        int a = side == 0 ? cover.head(f) : cover.tail(f);
+        if (side == 1 && a == cover.head(f)) {
+          break;
+        }
+        for (int d = 0; d < 4; d++) {
+          int b = FlowLayout.neighbor(a, d);
+          // Count each pair once, from the lower numbered flow
+          if (cover.flowOf(b) <= f || !cover.isEnd(b)) {
+            continue;
+          }
+          int joined = cover.length(f) + cover.length(cover.flowOf(b));
+          if (joined > shortest || !cover.canJoin(a, b)) {
+            continue;
+          }
+          if (joined < shortest) {
+            joins.clear();
+            shortest = joined;
+          }
+          joins.add(new int[] { a, b });
+        }
+      }
+    }
+    if (joins.isEmpty()) {
+      return false;
+    }
+    int[] join = joins.get(random.nextInt(joins.size()));
+    cover.join(join[0], join[1]);
+    return true;
+  }
+
+  /**
+   * Takes up a single cell next to the middle of a flow by cutting that
+   * flow beside the cell and joining the cell to the new end. Both pieces
+   * of the cut flow keep at least two cells.
+   *
+   * @return False if no single cell can be taken up this way
+   */
+  private static boolean absorbSingle(FlowLayout cover, SplittableRandom random) {
+    List<int[]> moves = new ArrayList<>();
+    for (int f = 0; f < cover.flows(); f++) {
+      if (cover.length(f) != 1) {
+        continue;
+      }
+      int x = cover.head(f);
+      for (int d = 0; d < 4; d++) {
+        int u = FlowLayout.neighbor(x, d);
+        if (cover.flowOf(u) < 0 || cover.isEnd(u)) {
+          continue;
+        }
+        // Keep u with the cells before it, or with the cells after it
+        for (int keepBefore = 0; keepBefore < 2; keepBefore++) {
+          if (canAbsorb(cover, x, u, keepBefore == 1)) {
+            moves.add(new int[] { x, u, keepBefore });
+          }
+        }
+      }
+    }
+    if (moves.isEmpty()) {
+      return false;
+    }
+    int[] move = moves.get(random.nextInt(moves.size()));
+    int u = move[1];
+    cover.cut(move[2] == 1 ? u : cover.prev(u));
+    cover.join(move[0], u);
+    return true;
+  }
+
+  private static boolean canAbsorb(FlowLayout cover, int x, int u, boolean keepBefore) {
+    int flow = cover.flowOf(u);
+    int position = 0;
+    for (int cell = cover.head(flow); cell != u; cell = cover.next(cell)) {
+      position++;
+    }
+    int total = cover.length(flow);
+    // Cells of the piece that keeps u, as positions along the flow
+    int from = keepBefore ? 0 : position;
+    int to = keepBefore ? position : total - 1;
+    if (to - from + 1 < 2 || total - (to - from + 1) < 2) {
+      return false;
+    }
+    int index = 0;
+    for (int cell = cover.head(flow); cell >= 0; cell = cover.next(cell), index++) {
+      if (cell != u && index >= from && index <= to && FlowLayout.distance(cell, x) == 1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int singles(FlowLayout cover) {
+    int singles = 0;
+    for (int f = 0; f < cover.flows(); f++) {
+      if (cover.length(f) == 1) {
+        singles++;
+      }
+    }
+    return singles;
+  }
+
+  /**
+   * Turns a cover into a puzzle with a color per flow and the flows' ends
+   * as endpoints.
+   */
+  private static Puzzle toPuzzle(FlowLayout cover, String name) {
+    int[][] grid = cover.toGrid();
+    for (int[] row : grid) {
+      for (int c = 0; c < row.length; c++) {
+        row[c] = COLORS[row[c]].ordinal();
+      }
+    }
+    Puzzle puzzle = new Puzzle(name, grid.length, grid[0].length);
+    for (int f = 0; f < cover.flows(); f++) {
+      int head = cover.head(f);
+      int tail = cover.tail(f);
+      puzzle.addEndpoint(BitBoard.rowOf(head), BitBoard.colOf(head), COLORS[f], BitBoard.rowOf(tail),
+          BitBoard.colOf(tail));
+    }
+    puzzle.setSolution(grid);
+    return puzzle;
+  }
+
+  private static int[][] copy(int[][] grid) {
+    int[][] copy = new int[grid.length][];
+    for (int r = 0; r < grid.length; r++) {
+      copy[r] = grid[r].clone();
+    }
+    return copy;
+  }
+}
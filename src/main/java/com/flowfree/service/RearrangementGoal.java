@@ -0,0 +1,85 @@
+package com.flowfree.service;
+
+/**
+ * What {@link PuzzleGenerator#rearrangeFlows(com.flowfree.model.Puzzle, RearrangementGoal, long)}
+ * optimizes: a band of estimated difficulty to land in, and optional
+ * weights that penalize uneven flow lengths and bends. The energy of a
+ * layout is the weighted variance of its flow lengths, plus the weighted
+ * number of bends, plus the number of cells its difficulty lies outside
+ * the band, so zero is the best any layout can score.
+ *
+ * Difficulty is estimated as the share of cells that the flows spend
+ * beyond the shortest way between their endpoints; see
+ * {@link PuzzleGenerator#estimateDifficulty}.
+ */
+public final class RearrangementGoal {
+  private final double varianceWeight;
+  private final double bendWeight;
+  private final double minDifficulty;
+  private final double maxDifficulty;
+
+  /**
+   * Creates a goal.
+   *
+   * @param varianceWeight Energy per unit of flow length variance
+   * @param bendWeight     Energy per bend
+   * @param minDifficulty  Lowest difficulty wanted, between 0 and 1
+   * @param maxDifficulty  Highest difficulty wanted, between 0 and 1
+   */
+  public RearrangementGoal(double varianceWeight, double bendWeight, double minDifficulty,
+      double maxDifficulty) {
+    if (varianceWeight < 0 || bendWeight < 0 || minDifficulty > maxDifficulty) {
+      throw new IllegalArgumentException("Weights must not be negative and the band must not be empty");
+    }
+    this.varianceWeight = varianceWeight;
+    this.bendWeight = bendWeight;
+    this.minDifficulty = minDifficulty;
+    this.maxDifficulty = maxDifficulty;
+  }
+
+  /**
+   * Creates a goal that only asks for a difficulty band.
+   */
+  public static RearrangementGoal difficulty(double minDifficulty, double maxDifficulty) {
+    return new RearrangementGoal(0, 0, minDifficulty, maxDifficulty);
+  }
+
+  public double getVarianceWeight() {
+    return varianceWeight;
+  }
+
+  public double getBendWeight() {
+    return bendWeight;
+  }
+
+  public double getMinDifficulty() {
+    return minDifficulty;
+  }
+
+  public double getMaxDifficulty() {
+    return maxDifficulty;
+  }
+
+  /**
+   * Checks whether a difficulty estimate lies in the band.
+   */
+  public boolean accepts(double difficulty) {
+    return difficulty >= minDifficulty && difficulty <= maxDifficulty;
+  }
+
+  /**
+   * Scores a layout from its totals.
+   *
+   * @param cells         Cells on the board
+   * @param flows         Flows on the board
+   * @param lengthSquares Sum of the squared flow lengths
+   * @param bends         Cells where a flow turns
+   * @param detour        Cells spent beyond the shortest way between ends
+   */
+  double energy(int cells, int flows, long lengthSquares, int bends, int detour) {
+    double mean = (double) cells / flows;
+    double variance = (double) lengthSquares / flows - mean * mean;
+    double outside = Math.max(0, Math.max(minDifficulty * cells - detour, detour - maxDifficulty * cells));
+    return varianceWeight * variance + bendWeight * bends + outside;
+  }
+}
@@ -1,105 +1,334 @@
 package com.flowfree.service;
 
 import com.flowfree.model.*;
-import java.util.*;
+import com.flowfree.service.solver.CanonicalLayout;
+import com.flowfree.service.solver.FlowBoard;
+import com.flowfree.service.solver.FlowSolver;
+import com.flowfree.service.solver.FrontierCounter;
+import com.flowfree.service.solver.ParallelFlowSolver;
+import com.flowfree.service.solver.SearchMonitor;
+import com.flowfree.service.solver.SolutionCount;
+import com.flowfree.service.solver.SolutionSpliterator;
+import com.flowfree.service.solver.SolveCache;
+import com.flowfree.service.solver.SolveHandle;
+import com.flowfree.service.solver.SolveStatus;
+import com.flowfree.service.solver.SolverStrategies;
+import com.flowfree.service.solver.SolverStrategy;
+import com.flowfree.service.solver.TranspositionTable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 /**
  * Validates if a puzzle has a solution that fills the entire grid.
+ *
+ * A solution here is stricter than a win in the game: each flow must be an
+ * induced path, touching its own color only at the cells just before and
+ * after it, and a flow whose endpoints are adjacent takes no cells at all.
+ * Solving, counting and uniqueness are all judged in this model, which is
+ * the one generated puzzles are built for; a board the player fills with a
+ * path that runs alongside itself still wins, as
+ * {@link SolutionVerifier#verify(Grid)} allows, but is not counted.
  */
 public class SolutionValidator {
+  // How often a checkpointed count saves its state
+  private static final long CHECKPOINT_INTERVAL_MILLIS = 60000;
+
+  private final ParallelFlowSolver parallelSolver;
+  private final TranspositionTable table;
+  private final SolverStrategy strategy;
+  private final SolveCache cache;
+
   /**
-   * Checks if a puzzle has at least one solution that covers all cells.
+   * Creates a validator that searches on the calling thread.
    */
-  public boolean hasSolution(Puzzle puzzle) {
-    // Create a virtual grid to test
-    int[][] grid = new int[puzzle.getRows()][puzzle.getCols()];
-    for (int i = 0; i < puzzle.getRows(); i++) {
-      for (int j = 0; j < puzzle.getCols(); j++) {
-        grid[i][j] = -1; // -1 means empty
-      }
-    }
+  public SolutionValidator() {
+    this(null, 0);
+  }
 
-    // Mark endpoints
-    for (int i = 0; i < puzzle.getEndpoints().size(); i++) {
-      Puzzle.Endpoint endpoint = puzzle.getEndpoints().get(i);
-      grid[endpoint.startRow][endpoint.startCol] = i;
-      grid[endpoint.endRow][endpoint.endCol] = i;
-    }
+  /**
+   * Creates a validator that splits each search across the given pool.
+   *
+   * @param pool Pool whose workers share the search tree
+   */
+  public SolutionValidator(ForkJoinPool pool) {
+    this(pool, 0);
+  }
 
-    // Try to find a solution using backtracking
-    return solvePuzzle(grid, puzzle);
+  /**
+   * Creates a validator that remembers dead search states across solves.
+   *
+   * @param pool       Pool to split searches across, or null to search on
+   *                   the calling thread
+   * @param tableBytes Memory budget of the shared transposition table, or 0
+   *                   for none
+   */
+  public SolutionValidator(ForkJoinPool pool, long tableBytes) {
+    this(pool, tableBytes, null);
   }
 
-  private boolean solvePuzzle(int[][] grid, Puzzle puzzle) {
-    // Find an empty cell
-    int[] emptyCellPos = findEmptyCell(grid);
-    if (emptyCellPos == null) {
-      // No empty cells - puzzle is solved
-      return true;
+  /**
+   * Creates a validator that keeps the results of {@link #solve(Puzzle)} and
+   * {@link #countSolutions(Puzzle, long, long)} in a persistent cache, so
+   * a puzzle met again, in any rotation or reflection, is answered without
+   * searching.
+   *
+   * @param pool       Pool to split searches across, or null to search on
+   *                   the calling thread
+   * @param tableBytes Memory budget of the shared transposition table, or 0
+   *                   for none
+   * @param cache      Cache of solve results, or null for none
+   */
+  public SolutionValidator(ForkJoinPool pool, long tableBytes, SolveCache cache) {
+    this.cache = cache;
+    this.table = tableBytes > 0 ? new TranspositionTable(tableBytes) : null;
+    this.parallelSolver = pool != null
+        ? new ParallelFlowSolver(pool, ParallelFlowSolver.DEFAULT_SPLIT_DEPTH, table)
+        : null;
+    this.strategy = pool != null
+        ? SolverStrategies.parallel(pool, table)
+        : SolverStrategies.depthFirst(table);
+  }
+
+  /**
+   * Creates a validator that uses every available core.
+   */
+  public static SolutionValidator parallel() {
+    return new SolutionValidator(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Checks if a puzzle has at least one solution that covers all cells,
+   * with every flow an induced path as described above.
+   */
+  public boolean hasSolution(Puzzle puzzle) {
+    return solve(puzzle) != null;
+  }
+
+  /**
+   * Solves a puzzle.
+   *
+   * @param puzzle The puzzle to solve
+   * @return Solution grid holding color indices, or null if none exists
+   */
+  public int[][] solve(Puzzle puzzle) {
+    CanonicalLayout layout = cache != null ? CanonicalLayout.of(puzzle) : null;
+    if (layout != null) {
+      SolveCache.Entry entry = cache.lookup(layout);
+      if (entry != null && entry.getStatus() == SolveStatus.UNSOLVABLE) {
+        return null;
+      }
+      if (entry != null && entry.getSolution() != null) {
+        return toColorGrid(puzzle, entry.getSolution());
+      }
+    }
+    FlowBoard board = FlowBoard.fromPuzzle(puzzle);
+    int[][] flows;
+    if (parallelSolver != null) {
+      flows = parallelSolver.solve(board);
+    } else {
+      FlowSolver solver = new FlowSolver(board, null, table);
+      flows = solver.solve() ? solver.getSolution() : null;
     }
+    if (layout != null) {
+      cache.recordSolve(layout, flows);
+    }
+    return flows != null ? toColorGrid(puzzle, flows) : null;
+  }
 
-    int row = emptyCellPos[0];
-    int col = emptyCellPos[1];
+  /**
+   * Starts solving a puzzle in the background on the common fork-join pool.
+   *
+   * @param puzzle       The puzzle to solve
+   * @param budgetMillis Time after which the solve gives up with TIMED_OUT,
+   *                     or a negative value for no limit
+   * @return Handle whose result holds a grid of color indices
+   */
+  public SolveHandle solveAsync(Puzzle puzzle, long budgetMillis) {
+    return solveAsync(puzzle, strategy, budgetMillis, ForkJoinPool.commonPool());
+  }
 
-    // Try placing each color in this cell
-    for (int colorIndex = 0; colorIndex < puzzle.getEndpoints().size(); colorIndex++) {
-      // Check if this color is valid in this cell
-      if (isValidPlacement(grid, row, col, colorIndex, puzzle)) {
-        // Place the color
-        grid[row][col] = colorIndex;
+  /**
+   * Starts solving a puzzle in the background with a specific strategy.
+   *
+   * @param puzzle       The puzzle to solve
+   * @param strategy     Strategy to solve with
+   * @param budgetMillis Time after which the solve gives up with TIMED_OUT,
+   *                     or a negative value for no limit
+   * @param executor     Executor to run the solve on
+   * @return Handle whose result holds a grid of color indices
+   */
+  public SolveHandle solveAsync(Puzzle puzzle, SolverStrategy strategy, long budgetMillis,
+      Executor executor) {
+    FlowBoard board = FlowBoard.fromPuzzle(puzzle);
+    SolveHandle handle = SolveHandle.start(board, strategy, budgetMillis, executor);
+    return handle.map(result -> result.getSolution() != null
+        ? result.withSolution(toColorGrid(puzzle, result.getSolution()))
+        : result);
+  }
 
-        // Recursively try to solve the rest
-        if (solvePuzzle(grid, puzzle)) {
-          return true;
-        }
+  /**
+   * Counts the solutions of a puzzle, stopping as soon as {@code limit} have
+   * been found. A limit of two is enough to decide uniqueness. Only
+   * induced-path solutions are counted, as described above, so a puzzle
+   * counted as unique may still be finished in other ways by the player.
+   * Counting uses the same search and pruning as {@link #solve(Puzzle)} and
+   * always runs on the calling thread.
+   *
+   * @param puzzle The puzzle to check
+   * @param limit  Number of solutions after which to stop
+   * @return The count, node statistics and the first solutions found as
+   *         color grids
+   */
+  public SolutionCount countSolutions(Puzzle puzzle, long limit) {
+    return countSolutions(puzzle, limit, -1);
+  }
 
-        // If no solution, backtrack
-        grid[row][col] = -1;
+  /**
+   * Counts solutions like {@link #countSolutions(Puzzle, long)}, giving up
+   * once the time budget runs out.
+   *
+   * @param budgetMillis Time budget in milliseconds, or a negative value for
+   *                     no limit
+   */
+  public SolutionCount countSolutions(Puzzle puzzle, long limit, long budgetMillis) {
+    CanonicalLayout layout = cache != null ? CanonicalLayout.of(puzzle) : null;
+    if (layout != null) {
+      SolutionCount cached = cachedCount(puzzle, layout, limit);
+      if (cached != null) {
+        return cached;
       }
     }
+    SearchMonitor monitor = budgetMillis >= 0 ? new SearchMonitor(budgetMillis) : null;
+    FlowSolver solver = new FlowSolver(FlowBoard.fromPuzzle(puzzle), monitor, table);
+    long count = solver.countSolutions(limit);
+    List<int[][]> witnesses = new ArrayList<>();
+    for (int[][] flows : solver.getWitnesses()) {
+      witnesses.add(toColorGrid(puzzle, flows));
+    }
+    if (layout != null) {
+      cache.recordCount(layout, count, count < limit && !solver.wasAborted(),
+          solver.getWitnesses().isEmpty() ? null : solver.getWitnesses().get(0));
+    }
+    return new SolutionCount(count, limit, solver.getNodeCount(), witnesses, solver.wasAborted());
+  }
 
-    // No color worked in this cell
-    return false;
+  /**
+   * Counts solutions like {@link #countSolutions(Puzzle, long, long)}, saving
+   * the search to a checkpoint file every minute and when the budget runs
+   * out. If the file already holds a checkpoint of this puzzle, the count
+   * carries on from there with the limit it was started with, so a long
+   * exhaustive count can be run in installments, or continued after a crash
+   * or on another machine. The file is deleted once the count finishes.
+   *
+   * @param checkpoint File to save to and resume from
+   * @throws IOException If the checkpoint cannot be read or belongs to
+   *                     another puzzle
+   */
+  public SolutionCount countSolutions(Puzzle puzzle, long limit, long budgetMillis, Path checkpoint)
+      throws IOException {
+    SearchMonitor monitor = budgetMillis >= 0 ? new SearchMonitor(budgetMillis) : null;
+    FlowSolver solver = new FlowSolver(FlowBoard.fromPuzzle(puzzle), monitor, table);
+    solver.setCheckpoint(checkpoint, CHECKPOINT_INTERVAL_MILLIS);
+    long count = solver.restoreCheckpoint() ? solver.resume() : solver.countSolutions(limit);
+    List<int[][]> witnesses = new ArrayList<>();
+    for (int[][] flows : solver.getWitnesses()) {
+      witnesses.add(toColorGrid(puzzle, flows));
+    }
+    return new SolutionCount(count, limit, solver.getNodeCount(), witnesses, solver.wasAborted());
   }
 
-  private int[] findEmptyCell(int[][] grid) {
-    for (int row = 0; row < grid.length; row++) {
-      for (int col = 0; col < grid[0].length; col++) {
-        if (grid[row][col] == -1) {
-          return new int[] { row, col };
-        }
+  /**
+   * Counts every solution of a puzzle with a sweep over the board instead of
+   * a search. The sweep's cost grows exponentially with the shorter side of
+   * the board but only linearly with the longer one, so it settles long,
+   * narrow boards such as 20xN that a search cannot finish; it finds no
+   * example solutions.
+   *
+   * @param budgetMillis Time budget in milliseconds, or a negative value for
+   *                     no limit
+   * @return The exact count, with the frontier states expanded as nodes
+   */
+  public SolutionCount countAllSolutions(Puzzle puzzle, long budgetMillis) {
+    CanonicalLayout layout = cache != null ? CanonicalLayout.of(puzzle) : null;
+    if (layout != null) {
+      SolveCache.Entry entry = cache.lookup(layout);
+      if (entry != null && entry.isCountExact()) {
+        return new SolutionCount(entry.getCount(), Long.MAX_VALUE, 0, new ArrayList<>());
       }
     }
-    return null; // No empty cells
+    SearchMonitor monitor = budgetMillis >= 0 ? new SearchMonitor(budgetMillis) : null;
+    FrontierCounter counter = FrontierCounter.fromPuzzle(puzzle, monitor);
+    long count = counter.count();
+    if (counter.wasAborted()) {
+      return new SolutionCount(0, Long.MAX_VALUE, counter.getStatesExpanded(), new ArrayList<>(), true);
+    }
+    if (layout != null) {
+      cache.recordCount(layout, count, true, null);
+    }
+    return new SolutionCount(count, Long.MAX_VALUE, counter.getStatesExpanded(), new ArrayList<>());
   }
 
-  private boolean isValidPlacement(int[][] grid, int row, int col, int colorIndex, Puzzle puzzle) {
-    // Implementation would check:
-    // 1. If this cell has a neighbor of the same color
-    // 2. If placing this color doesn't create a split path
-    // 3. If placing this color doesn't block other paths
-
-    // This is a complex algorithm that would need proper implementation
-    // Simplified version for demonstration
-    return hasAdjacentSameColor(grid, row, col, colorIndex);
+  /**
+   * Answers a count from the cache if the cached entry settles it: an exact
+   * count, or a lower bound that already reaches the limit.
+   *
+   * @return The count with no nodes searched, or null if a search is needed
+   */
+  private SolutionCount cachedCount(Puzzle puzzle, CanonicalLayout layout, long limit) {
+    SolveCache.Entry entry = cache.lookup(layout);
+    if (entry == null || !entry.isCountExact() && entry.getCount() < limit) {
+      return null;
+    }
+    long count = Math.min(entry.getCount(), limit);
+    List<int[][]> witnesses = new ArrayList<>();
+    if (count > 0 && entry.getSolution() != null) {
+      witnesses.add(toColorGrid(puzzle, entry.getSolution()));
+    }
+    return new SolutionCount(count, limit, 0, witnesses);
   }
 
-  private boolean hasAdjacentSameColor(int[][] grid, int row, int col, int colorIndex) {
-    int[][] directions = { { -1, 0 }, { 0, 1 }, { 1, 0 }, { 0, -1 } };
+  /**
+   * Streams every solution of a puzzle. Solutions are found lazily as the
+   * stream is consumed, so memory stays flat however many there are; a
+   * short-circuiting operation such as {@code limit} stops the search.
+   *
+   * @param puzzle   The puzzle to enumerate
+   * @param parallel Whether to split the search across the common pool, in
+   *                 which case solutions arrive in no particular order
+   * @return Stream of solution grids holding color indices
+   */
+  public Stream<int[][]> streamSolutions(Puzzle puzzle, boolean parallel) {
+    return SolutionSpliterator.stream(FlowBoard.fromPuzzle(puzzle), null, parallel)
+        .map(flows -> toColorGrid(puzzle, flows));
+  }
 
-    for (int[] dir : directions) {
-      int newRow = row + dir[0];
-      int newCol = col + dir[1];
+  /**
+   * Checks whether a puzzle has exactly one solution in the induced-path
+   * model described above.
+   */
+  public boolean hasUniqueSolution(Puzzle puzzle) {
+    return countSolutions(puzzle, 2).isUnique();
+  }
 
-      if (isValidPosition(newRow, newCol, grid.length) && grid[newRow][newCol] == colorIndex) {
-        return true;
+  /**
+   * Converts a grid of flow indices into the color indices used by
+   * {@link Puzzle#getSolution()}.
+   */
+  public static int[][] toColorGrid(Puzzle puzzle, int[][] flows) {
+    int[][] grid = new int[flows.length][];
+    for (int r = 0; r < flows.length; r++) {
+      grid[r] = new int[flows[r].length];
+      for (int c = 0; c < flows[r].length; c++) {
+        int flow = flows[r][c];
+        grid[r][c] = flow >= 0 ? puzzle.getEndpoints().get(flow).color.ordinal() : -1;
       }
     }
-
-    return false;
-  }
-
-  private boolean isValidPosition(int row, int col, int size) {
-    return row >= 0 && row < size && col >= 0 && col < size;
+    return grid;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,293 @@
+package com.flowfree.service;
+
+import com.flowfree.model.Cell;
+import com.flowfree.model.Color;
+import com.flowfree.model.Grid;
+import com.flowfree.model.Puzzle;
+
+import java.util.List;
+
+/**
+ * Checks that a filled board is a valid solution in one pass over its
+ * cells.
+ *
+ * Two neighbouring cells are linked when they hold the same color, so a
+ * board is a solution when every cell is covered, every endpoint has exactly
+ * one linked neighbour, every other cell exactly two, and walking from each
+ * flow's start along its links ends at that flow's end. Since the walks
+ * together must visit every cell, a detached loop or a second piece of a
+ * color is caught too. The board is copied into a flat array with a wall
+ * border that is kept between calls, so checking allocates nothing once the
+ * verifier has seen a board of the same size. Instances are not thread
+ * safe.
+ *
+ * A board drawn by the player is held to the game's own rule instead:
+ * every cell covered and each color's endpoints joined through cells of
+ * that color. A player's path may run alongside itself, which no generated
+ * solution does.
+ */
+public class SolutionVerifier {
+  private static final int EMPTY = -1;
+  private static final int WALL = -2;
+  // Marks cells already reached by a flood over a player's board
+  private static final int REACHED = -3;
+  private static final Color[] COLORS = Color.values();
+
+  /**
+   * First thing found wrong with the last board checked.
+   */
+  public enum Defect {
+    NONE,
+    /** The grid does not match the board size. */
+    SHAPE,
+    /** A cell holds no color. */
+    UNCOVERED,
+    /** An endpoint holds another color than its flow. */
+    ENDPOINT_COLOR,
+    /** A cell has more or fewer linked neighbours than it should. */
+    DEGREE,
+    /** A flow's path leads to another endpoint than its own. */
+    WRONG_END,
+    /** Some cells are not on any flow's path, i.e. they form a loop. */
+    DETACHED,
+    /** A color's endpoints are not joined through cells of that color. */
+    DISCONNECTED
+  }
+
+  private int stride;
+  private int[] cells = new int[0];
+  // Two cell indices per flow
+  private int[] ends = new int[0];
+  private int numFlows;
+  // Cells waiting to be flooded from
+  private int[] stack = new int[0];
+  private Defect defect = Defect.NONE;
+
+  /**
+   * Checks a solution grid of color indices, as held by
+   * {@link Puzzle#getSolution()}, against a puzzle's endpoints.
+   */
+  public boolean verify(Puzzle puzzle, int[][] grid) {
+    int rows = puzzle.getRows();
+    int cols = puzzle.getCols();
+    if (grid == null || grid.length != rows) {
+      return fail(Defect.SHAPE);
+    }
+    reset(rows, cols, puzzle.getEndpoints().size());
+    for (int r = 0; r < rows; r++) {
+      int[] row = grid[r];
+      if (row == null || row.length != cols) {
+        return fail(Defect.SHAPE);
+      }
+      for (int c = 0; c < cols; c++) {
+        cells[(r + 1) * stride + c + 1] = row[c] >= 0 ? row[c] : EMPTY;
+      }
+    }
+    List<Puzzle.Endpoint> endpoints = puzzle.getEndpoints();
+    for (int f = 0; f < numFlows; f++) {
+      Puzzle.Endpoint endpoint = endpoints.get(f);
+      int color = endpoint.color.ordinal();
+      ends[2 * f] = (endpoint.startRow + 1) * stride + endpoint.startCol + 1;
+      ends[2 * f + 1] = (endpoint.endRow + 1) * stride + endpoint.endCol + 1;
+      if (cells[ends[2 * f]] != color || cells[ends[2 * f + 1]] != color) {
+        return fail(Defect.ENDPOINT_COLOR);
+      }
+    }
+    return check(rows, cols);
+  }
+
+  /**
+   * Checks a board as drawn by the player: every cell is covered and each
+   * color's two endpoint cells are joined through cells of that color. The
+   * path between them may touch itself.
+   */
+  public boolean verify(Grid grid) {
+    int rows = grid.getRows();
+    int cols = grid.getCols();
+    int flows = 0;
+    for (Color color : COLORS) {
+      if (!grid.getEndpoints(color).isEmpty()) {
+        flows++;
+      }
+    }
+    reset(rows, cols, flows);
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        Color color = grid.getCell(r, c).getColor();
+        cells[(r + 1) * stride + c + 1] = color != null ? color.ordinal() : EMPTY;
+      }
+    }
+    int f = 0;
+    for (Color color : COLORS) {
+      List<Cell> endpoints = grid.getEndpoints(color);
+      if (endpoints.isEmpty()) {
+        continue;
+      }
+      if (endpoints.size() != 2) {
+        return fail(Defect.DEGREE);
+      }
+      ends[2 * f] = (endpoints.get(0).getRow() + 1) * stride + endpoints.get(0).getCol() + 1;
+      ends[2 * f + 1] = (endpoints.get(1).getRow() + 1) * stride + endpoints.get(1).getCol() + 1;
+      f++;
+    }
+    for (int r = 1; r <= rows; r++) {
+      for (int i = r * stride + 1, last = i + cols; i < last; i++) {
+        if (cells[i] == EMPTY) {
+          return fail(Defect.UNCOVERED);
+        }
+      }
+    }
+    if (stack.length < rows * cols) {
+      stack = new int[rows * cols];
+    }
+    for (f = 0; f < numFlows; f++) {
+      if (!joins(ends[2 * f], ends[2 * f + 1])) {
+        return fail(Defect.DISCONNECTED);
+      }
+    }
+    defect = Defect.NONE;
+    return true;
+  }
+
+  /**
+   * Gets what was wrong with the last board checked, or NONE if it was a
+   * valid solution.
+   */
+  public Defect getDefect() {
+    return defect;
+  }
+
+  private void reset(int rows, int cols, int flows) {
+    stride = cols + 2;
+    int size = (rows + 2) * stride;
+    if (cells.length < size) {
+      cells = new int[size];
+    }
+    if (ends.length < 2 * flows) {
+      ends = new int[2 * flows];
+    }
+    numFlows = flows;
+    // Only the border needs resetting; every inner cell is overwritten
+    for (int c = 0; c < stride; c++) {
+      cells[c] = WALL;
+      cells[(rows + 1) * stride + c] = WALL;
+    }
+    for (int r = 1; r <= rows; r++) {
+      cells[r * stride] = WALL;
+      cells[r * stride + cols + 1] = WALL;
+    }
+  }
+
+  private boolean check(int rows, int cols) {
+    // Degree pass: count the cells with one link, which must be exactly the endpoints. An
+    // uncovered cell is reported over the degree errors it causes around it
+    int loose = 0;
+    boolean badDegree = false;
+    for (int r = 1; r <= rows; r++) {
+      for (int i = r * stride + 1, last = i + cols; i < last; i++) {
+        int color = cells[i];
+        if (color == EMPTY) {
+          return fail(Defect.UNCOVERED);
+        }
+        int degree = links(i, color);
+        if (degree == 1) {
+          loose++;
+        } else if (degree != 2) {
+          badDegree = true;
+        }
+      }
+    }
+    if (badDegree || loose != 2 * numFlows) {
+      return fail(Defect.DEGREE);
+    }
+
+    // Walk every flow; with every endpoint at degree one the loose cells are all endpoints
+    int visited = 0;
+    for (int f = 0; f < numFlows; f++) {
+      int start = ends[2 * f];
+      if (links(start, cells[start]) != 1 || links(ends[2 * f + 1], cells[start]) != 1) {
+        return fail(Defect.DEGREE);
+      }
+      int color = cells[start];
+      int previous = -1;
+      int current = start;
+      visited++;
+      while (true) {
+        int next = nextLink(current, previous, color);
+        if (next < 0) {
+          break;
+        }
+        previous = current;
+        current = next;
+        visited++;
+      }
+      if (current != ends[2 * f + 1]) {
+        return fail(Defect.WRONG_END);
+      }
+    }
+    if (visited != rows * cols) {
+      return fail(Defect.DETACHED);
+    }
+    defect = Defect.NONE;
+    return true;
+  }
+
+  /**
+   * Floods the color of one cell from it, marking every cell reached, and
+   * checks whether the flood got to the other cell.
+   */
+  private boolean joins(int from, int to) {
+    int color = cells[from];
+    int top = 0;
+    cells[from] = REACHED;
+    stack[top++] = from;
+    while (top > 0) {
+      int cell = stack[--top];
+      top = reach(cell - stride, color, top);
+      top = reach(cell + 1, color, top);
+      top = reach(cell + stride, color, top);
+      top = reach(cell - 1, color, top);
+    }
+    return cells[to] == REACHED;
+  }
+
+  private int reach(int cell, int color, int top) {
+    if (cells[cell] == color) {
+      cells[cell] = REACHED;
+      stack[top++] = cell;
+    }
+    return top;
+  }
+
+  private int links(int cell, int color) {
+    return (cells[cell - stride] == color ? 1 : 0) + (cells[cell + 1] == color ? 1 : 0)
+        + (cells[cell + stride] == color ? 1 : 0) + (cells[cell - 1] == color ? 1 : 0);
+  }
+
+  /**
+   * Finds the linked neighbour of a path cell other than the one it was
+   * entered from.
+   *
+   * @return The neighbour, or -1 at the end of the path
+   */
+  private int nextLink(int cell, int previous, int color) {
+    if (cells[cell - stride] == color && cell - stride != previous) {
+      return cell - stride;
+    }
+    if (cells[cell + 1] == color && cell + 1 != previous) {
+      return cell + 1;
+    }
+    if (cells[cell + stride] == color && cell + stride != previous) {
+      return cell + stride;
+    }
+    if (cells[cell - 1] == color && cell - 1 != previous) {
+      return cell - 1;
+    }
+    return -1;
+  }
+
+  private boolean fail(Defect found) {
+    defect = found;
+    return false;
+  }
+}
@@ -0,0 +1,445 @@
+package com.flowfree.service.batch;
+
+import com.flowfree.model.Puzzle;
+import com.flowfree.service.SolutionValidator;
+import com.flowfree.service.solver.FlowBoard;
+import com.flowfree.service.solver.SolveStatus;
+import com.flowfree.service.solver.SubtreeSplitter;
+import com.flowfree.util.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coordinator side of batch solving across processes.
+ *
+ * Puzzles are turned into work units, either one per puzzle or, for a
+ * puzzle too hard for one process, one per subtree of its search as cut by
+ * {@link SubtreeSplitter}. Workers connect over TCP, on the loopback
+ * interface by default, and are handed one unit at a time; each connection
+ * is served by its own thread. A worker that dies or drops its connection
+ * mid-unit gets its unit put back in the queue for the others, up to
+ * {@link #MAX_ATTEMPTS} times, after which the unit is given up on. A worker
+ * that takes longer than the unit budget plus a margin to answer counts as
+ * dead. Once a subtree of a puzzle is solved, its remaining subtrees are
+ * skipped. Results are merged per puzzle into {@link BatchResult}s.
+ *
+ * {@link #launchWorkers(int)} starts worker JVMs on the same classpath, so a
+ * whole run, including workers being killed, works on a single machine. A
+ * launched worker that exits while work is left is replaced, up to
+ * {@link #MAX_ATTEMPTS} times per unit in the batch; once no worker is
+ * connected and no launched one is left, the queued units are given up on,
+ * so a run on launched workers always finishes. Workers on other machines
+ * can join with {@link BatchWorker#main(String[])} once the coordinator is
+ * bound to a reachable address.
+ */
+public class BatchCoordinator implements Closeable {
+  /** How often a unit is handed out before it is given up on. */
+  public static final int MAX_ATTEMPTS = 3;
+  private static final Logger LOGGER = Logger.getLogger(BatchCoordinator.class.getName());
+  // How long an idle connection waits for work before checking whether the batch is done
+  private static final long POLL_MILLIS = 50;
+  // Time a worker has past the unit budget to send its answer
+  private static final long ANSWER_MARGIN_MILLIS = 5000;
+
+  private final long budgetMillis;
+  private final List<Puzzle> puzzles = new ArrayList<>();
+  private final List<WorkUnit> units = new ArrayList<>();
+  private final List<PuzzleState> states = new ArrayList<>();
+  private final BlockingQueue<WorkUnit> queue = new LinkedBlockingQueue<>();
+  private final List<Process> processes = new ArrayList<>();
+  private ServerSocket server;
+  private CountDownLatch remaining;
+  private int connected;
+  private int relaunches;
+  private boolean closed;
+
+  /**
+   * @param budgetMillis Time budget of each unit, or a negative value for no
+   *                     limit
+   */
+  public BatchCoordinator(long budgetMillis) {
+    this.budgetMillis = budgetMillis;
+  }
+
+  /**
+   * Merge state of one puzzle, guarded by the coordinator.
+   */
+  private static final class PuzzleState {
+    int units;
+    int settled;
+    int failed;
+    int timedOut;
+    long nodes;
+    int[][] solution;
+  }
+
+  /**
+   * Adds a puzzle to be solved as a single unit.
+   *
+   * @return Index of the puzzle in the results
+   */
+  public int addPuzzle(Puzzle puzzle) {
+    return addPuzzle(puzzle, 0);
+  }
+
+  /**
+   * Adds a puzzle whose search is split into one unit per subtree.
+   *
+   * @param splitDepth Number of branching levels to expand; 0 keeps the
+   *                   puzzle in one unit
+   * @return Index of the puzzle in the results
+   */
+  public synchronized int addPuzzle(Puzzle puzzle, int splitDepth) {
+    if (remaining != null) {
+      throw new IllegalStateException("Batch already started");
+    }
+    int index = puzzles.size();
+    puzzles.add(puzzle);
+    PuzzleState state = new PuzzleState();
+    states.add(state);
+    List<int[]> roots = splitDepth > 0
+        ? SubtreeSplitter.split(FlowBoard.fromPuzzle(puzzle), splitDepth)
+        : Collections.singletonList(new int[0]);
+    for (int[] moves : roots) {
+      units.add(new WorkUnit(units.size(), index, puzzle, moves));
+      state.units++;
+    }
+    return index;
+  }
+
+  /**
+   * Starts accepting workers on an ephemeral loopback port.
+   *
+   * @return The port workers connect to
+   */
+  public int start() throws IOException {
+    return start(InetAddress.getLoopbackAddress(), 0);
+  }
+
+  /**
+   * Starts accepting workers.
+   *
+   * @param address Address to listen on
+   * @param port    Port to listen on, or 0 for any free one
+   * @return The port workers connect to
+   */
+  public synchronized int start(InetAddress address, int port) throws IOException {
+    if (remaining != null) {
+      throw new IllegalStateException("Batch already started");
+    }
+    remaining = new CountDownLatch(units.size());
+    queue.addAll(units);
+    server = new ServerSocket(port, 50, address);
+    Thread acceptor = new Thread(this::acceptWorkers, "batch-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    return server.getLocalPort();
+  }
+
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  /**
+   * Starts worker JVMs on this machine with the coordinator's classpath.
+   *
+   * @param count Number of workers
+   * @return The worker processes, e.g. to kill one
+   */
+  public List<Process> launchWorkers(int count) throws IOException {
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    List<Process> launched = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      ProcessBuilder builder = new ProcessBuilder(java,
+          "-cp", System.getProperty("java.class.path"), BatchWorker.class.getName(),
+          server.getInetAddress().getHostAddress(), String.valueOf(getPort()));
+      builder.redirectErrorStream(true);
+      builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+      launched.add(builder.start());
+    }
+    synchronized (processes) {
+      processes.addAll(launched);
+    }
+    for (Process process : launched) {
+      process.onExit().thenRun(this::workerExited);
+    }
+    return launched;
+  }
+
+  /**
+   * Waits until every unit has been answered or given up on.
+   *
+   * @return False if the timeout passed first
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    return remaining.await(timeout, unit);
+  }
+
+  /**
+   * Gets the merged result of every puzzle, in the order they were added.
+   * Units still running count as timed out.
+   */
+  public synchronized List<BatchResult> getResults() {
+    List<BatchResult> results = new ArrayList<>();
+    for (int i = 0; i < puzzles.size(); i++) {
+      Puzzle puzzle = puzzles.get(i);
+      PuzzleState state = states.get(i);
+      SolveStatus status;
+      if (state.solution != null) {
+        status = SolveStatus.SOLVED;
+      } else if (state.failed > 0 || state.timedOut > 0 || state.settled < state.units) {
+        status = SolveStatus.TIMED_OUT;
+      } else {
+        status = SolveStatus.UNSOLVABLE;
+      }
+      int[][] solution = state.solution != null
+          ? SolutionValidator.toColorGrid(puzzle, state.solution)
+          : null;
+      results.add(new BatchResult(puzzle.getName(), status, solution, state.nodes, state.units,
+          state.failed));
+    }
+    return results;
+  }
+
+  /**
+   * Stops accepting workers and kills any launched worker still running.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+    }
+    if (server != null) {
+      server.close();
+    }
+    synchronized (processes) {
+      for (Process process : processes) {
+        process.destroy();
+      }
+    }
+  }
+
+  private void acceptWorkers() {
+    while (!server.isClosed()) {
+      try {
+        Socket socket = server.accept();
+        Thread thread = new Thread(() -> serve(socket), "batch-connection-" + socket.getPort());
+        thread.setDaemon(true);
+        thread.start();
+      } catch (IOException e) {
+        if (!server.isClosed()) {
+          LOGGER.log(Level.WARNING, "Failed to accept worker", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Feeds units to one worker until the batch is done or the worker is
+   * lost.
+   */
+  private void serve(Socket socket) {
+    synchronized (this) {
+      connected++;
+    }
+    try (Socket s = socket;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+      if (budgetMillis >= 0) {
+        s.setSoTimeout((int) Math.min(Integer.MAX_VALUE, budgetMillis + ANSWER_MARGIN_MILLIS));
+      }
+      while (true) {
+        WorkUnit unit = nextUnit();
+        if (unit == null) {
+          BatchProtocol.writeDone(out);
+          return;
+        }
+        BatchProtocol.Response response;
+        try {
+          BatchProtocol.writeUnit(out, unit, budgetMillis);
+          response = BatchProtocol.readResponse(in);
+          if (response.unitId != unit.id) {
+            throw new IOException("Answer for unit " + response.unitId + " instead of " + unit.id);
+          }
+        } catch (IOException e) {
+          lost(unit, e);
+          return;
+        }
+        completed(unit, response);
+      }
+    } catch (IOException | InterruptedException e) {
+      LOGGER.log(Level.FINE, "Worker connection closed", e);
+    } finally {
+      synchronized (this) {
+        connected--;
+      }
+      abandonIfStranded();
+    }
+  }
+
+  /**
+   * Takes the next unit worth sending, skipping those of puzzles already
+   * solved.
+   *
+   * @return The unit, or null once every unit is settled
+   */
+  private WorkUnit nextUnit() throws InterruptedException {
+    while (remaining.getCount() > 0) {
+      WorkUnit unit = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+      if (unit == null) {
+        continue;
+      }
+      synchronized (this) {
+        if (states.get(unit.puzzleIndex).solution == null) {
+          unit.attempts++;
+          return unit;
+        }
+      }
+      settle(unit);
+    }
+    return null;
+  }
+
+  private void lost(WorkUnit unit, IOException cause) {
+    if (unit.attempts < MAX_ATTEMPTS) {
+      LOGGER.warning("Worker lost on unit " + unit.id + ", dispatching it again: " + cause);
+      queue.add(unit);
+      return;
+    }
+    LOGGER.warning("Giving up on unit " + unit.id + " after " + unit.attempts + " attempts");
+    synchronized (this) {
+      states.get(unit.puzzleIndex).failed++;
+    }
+    settle(unit);
+  }
+
+  /**
+   * Replaces a launched worker that exited while work is left.
+   */
+  private void workerExited() {
+    boolean replace;
+    synchronized (this) {
+      replace = !closed && remaining.getCount() > 0
+          && relaunches < MAX_ATTEMPTS * units.size();
+      if (replace) {
+        relaunches++;
+      }
+    }
+    if (replace) {
+      try {
+        launchWorkers(1);
+        LOGGER.warning("Worker exited with work left, launched a replacement");
+        return;
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to launch a replacement worker", e);
+      }
+    }
+    abandonIfStranded();
+  }
+
+  /**
+   * Gives up on every queued unit once no worker is connected and every
+   * launched one has exited, since nothing would ever take them.
+   */
+  private void abandonIfStranded() {
+    synchronized (this) {
+      if (closed || connected > 0) {
+        return;
+      }
+      synchronized (processes) {
+        if (processes.isEmpty()) {
+          return;
+        }
+        for (Process process : processes) {
+          if (process.isAlive()) {
+            return;
+          }
+        }
+      }
+    }
+    WorkUnit unit;
+    while ((unit = queue.poll()) != null) {
+      synchronized (this) {
+        PuzzleState state = states.get(unit.puzzleIndex);
+        if (state.solution == null) {
+          LOGGER.warning("No worker left for unit " + unit.id + ", giving up on it");
+          state.failed++;
+        }
+      }
+      settle(unit);
+    }
+  }
+
+  private void completed(WorkUnit unit, BatchProtocol.Response response) {
+    synchronized (this) {
+      PuzzleState state = states.get(unit.puzzleIndex);
+      state.nodes += response.nodes;
+      if (response.status == SolveStatus.SOLVED && state.solution == null) {
+        state.solution = response.solution;
+      } else if (response.status == SolveStatus.TIMED_OUT) {
+        state.timedOut++;
+      }
+    }
+    settle(unit);
+  }
+
+  /**
+   * Marks a unit as answered, skipped or given up on.
+   */
+  private void settle(WorkUnit unit) {
+    synchronized (this) {
+      states.get(unit.puzzleIndex).settled++;
+    }
+    remaining.countDown();
+  }
+
+  /**
+   * Solves a puzzle catalog with worker processes on this machine.
+   *
+   * @param args Catalog file, then optionally the number of workers, the
+   *             budget per unit in milliseconds and the split depth
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: BatchCoordinator <catalog> [workers] [budgetMillis] [splitDepth]");
+      System.exit(2);
+    }
+    List<Puzzle> catalog = FileUtils.readPuzzles(new File(args[0]).toPath());
+    int workers = args.length > 1
+        ? Integer.parseInt(args[1])
+        : Runtime.getRuntime().availableProcessors();
+    long budget = args.length > 2 ? Long.parseLong(args[2]) : 10000;
+    int splitDepth = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+    try (BatchCoordinator coordinator = new BatchCoordinator(budget)) {
+      for (Puzzle puzzle : catalog) {
+        coordinator.addPuzzle(puzzle, splitDepth);
+      }
+      coordinator.start();
+      coordinator.launchWorkers(workers);
+      coordinator.await(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      for (BatchResult result : coordinator.getResults()) {
+        System.out.println(result);
+      }
+    }
+  }
+}
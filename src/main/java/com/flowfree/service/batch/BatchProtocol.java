@@ -0,0 +1,148 @@
+package com.flowfree.service.batch;
+
+import com.flowfree.model.Puzzle;
+import com.flowfree.service.solver.SolveStatus;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Wire format between the coordinator and its workers.
+ *
+ * The coordinator sends a message type followed, for a unit, by its id,
+ * time budget, board size, the endpoint coordinates of every flow and the
+ * moves leading to the subtree. The worker answers every unit with its id,
+ * the status, the number of nodes searched and the solution as flow
+ * indices if there is one. All numbers are big-endian as written by
+ * {@link DataOutputStream}.
+ */
+final class BatchProtocol {
+  static final int DONE = 0;
+  static final int UNIT = 1;
+
+  // Prevent instantiation
+  private BatchProtocol() {
+  }
+
+  /**
+   * A unit as the worker sees it.
+   */
+  static final class Request {
+    int unitId;
+    long budgetMillis;
+    int rows;
+    int cols;
+    int[] endpoints;
+    int[] moves;
+  }
+
+  /**
+   * A worker's answer to one unit.
+   */
+  static final class Response {
+    int unitId;
+    SolveStatus status;
+    long nodes;
+    int[][] solution;
+  }
+
+  static void writeUnit(DataOutputStream out, WorkUnit unit, long budgetMillis) throws IOException {
+    out.writeInt(UNIT);
+    out.writeInt(unit.id);
+    out.writeLong(budgetMillis);
+    out.writeInt(unit.puzzle.getRows());
+    out.writeInt(unit.puzzle.getCols());
+    out.writeInt(unit.puzzle.getEndpoints().size());
+    for (Puzzle.Endpoint endpoint : unit.puzzle.getEndpoints()) {
+      out.writeInt(endpoint.startRow);
+      out.writeInt(endpoint.startCol);
+      out.writeInt(endpoint.endRow);
+      out.writeInt(endpoint.endCol);
+    }
+    writeInts(out, unit.moves);
+    out.flush();
+  }
+
+  static void writeDone(DataOutputStream out) throws IOException {
+    out.writeInt(DONE);
+    out.flush();
+  }
+
+  /**
+   * Reads the next message from the coordinator.
+   *
+   * @return The unit, or null once the coordinator has no more work
+   */
+  static Request readRequest(DataInputStream in) throws IOException {
+    int type = in.readInt();
+    if (type == DONE) {
+      return null;
+    }
+    if (type != UNIT) {
+      throw new IOException("Unknown message type " + type);
+    }
+    Request request = new Request();
+    request.unitId = in.readInt();
+    request.budgetMillis = in.readLong();
+    request.rows = in.readInt();
+    request.cols = in.readInt();
+    request.endpoints = new int[in.readInt() * 4];
+    for (int i = 0; i < request.endpoints.length; i++) {
+      request.endpoints[i] = in.readInt();
+    }
+    request.moves = readInts(in);
+    return request;
+  }
+
+  static void writeResponse(DataOutputStream out, Response response) throws IOException {
+    out.writeInt(response.unitId);
+    out.writeInt(response.status.ordinal());
+    out.writeLong(response.nodes);
+    out.writeBoolean(response.solution != null);
+    if (response.solution != null) {
+      out.writeInt(response.solution.length);
+      for (int[] row : response.solution) {
+        writeInts(out, row);
+      }
+    }
+    out.flush();
+  }
+
+  static Response readResponse(DataInputStream in) throws IOException {
+    Response response = new Response();
+    response.unitId = in.readInt();
+    int status = in.readInt();
+    if (status < 0 || status >= SolveStatus.values().length) {
+      throw new IOException("Unknown status " + status);
+    }
+    response.status = SolveStatus.values()[status];
+    response.nodes = in.readLong();
+    if (in.readBoolean()) {
+      response.solution = new int[in.readInt()][];
+      for (int r = 0; r < response.solution.length; r++) {
+        response.solution[r] = readInts(in);
+      }
+    }
+    return response;
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+    out.writeInt(values.length);
+    for (int value : values) {
+      out.writeInt(value);
+    }
+  }
+
+  private static int[] readInts(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("Negative length " + length);
+    }
+    int[] values = new int[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = in.readInt();
+    }
+    return values;
+  }
+}
@@ -0,0 +1,69 @@
+package com.flowfree.service.batch;
+
+import com.flowfree.service.solver.SolveStatus;
+
+/**
+ * Merged outcome of every unit of one puzzle in a batch.
+ */
+public final class BatchResult {
+  private final String name;
+  private final SolveStatus status;
+  private final int[][] solution;
+  private final long nodes;
+  private final int units;
+  private final int failedUnits;
+
+  public BatchResult(String name, SolveStatus status, int[][] solution, long nodes, int units,
+      int failedUnits) {
+    this.name = name;
+    this.status = status;
+    this.solution = solution;
+    this.nodes = nodes;
+    this.units = units;
+    this.failedUnits = failedUnits;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the merged status: SOLVED if any unit found a solution,
+   * UNSOLVABLE if every unit proved its subtree empty, TIMED_OUT otherwise.
+   */
+  public SolveStatus getStatus() {
+    return status;
+  }
+
+  /**
+   * Gets the solution as color indices, or null unless the status is
+   * SOLVED.
+   */
+  public int[][] getSolution() {
+    return solution;
+  }
+
+  /**
+   * Gets the number of search nodes all workers spent on the puzzle.
+   */
+  public long getNodes() {
+    return nodes;
+  }
+
+  public int getUnits() {
+    return units;
+  }
+
+  /**
+   * Gets the number of units given up on after their workers kept dying.
+   */
+  public int getFailedUnits() {
+    return failedUnits;
+  }
+
+  @Override
+  public String toString() {
+    return name + ": " + status + " in " + nodes + " nodes over " + units + " units"
+        + (failedUnits > 0 ? ", " + failedUnits + " failed" : "");
+  }
+}
@@ -0,0 +1,87 @@
+package com.flowfree.service.batch;
+
+import com.flowfree.service.solver.FlowBoard;
+import com.flowfree.service.solver.SearchMonitor;
+import com.flowfree.service.solver.SolveResult;
+import com.flowfree.service.solver.SolverStrategies;
+import com.flowfree.service.solver.SolverStrategy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Worker side of batch solving: connects to a {@link BatchCoordinator},
+ * solves the units it is sent one at a time and exits once told there is no
+ * more work. Normally run as its own JVM through {@link #main(String[])}.
+ */
+public class BatchWorker implements Runnable {
+  private static final Logger LOGGER = Logger.getLogger(BatchWorker.class.getName());
+
+  private final String host;
+  private final int port;
+  private final SolverStrategy strategy = SolverStrategies.depthFirst(null);
+  private int solved;
+
+  public BatchWorker(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  /**
+   * Runs a worker process.
+   *
+   * @param args Host and port of the coordinator
+   */
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      System.err.println("Usage: BatchWorker <host> <port>");
+      System.exit(2);
+    }
+    new BatchWorker(args[0], Integer.parseInt(args[1])).run();
+  }
+
+  @Override
+  public void run() {
+    try (Socket socket = new Socket(host, port);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+      BatchProtocol.Request request;
+      while ((request = BatchProtocol.readRequest(in)) != null) {
+        BatchProtocol.writeResponse(out, solve(request));
+        solved++;
+      }
+    } catch (EOFException e) {
+      LOGGER.info("Coordinator went away after " + solved + " units");
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Lost connection to coordinator", e);
+    }
+  }
+
+  /**
+   * Gets the number of units this worker has answered.
+   */
+  public int getSolvedCount() {
+    return solved;
+  }
+
+  private BatchProtocol.Response solve(BatchProtocol.Request request) {
+    FlowBoard board = new FlowBoard(request.rows, request.cols, request.endpoints);
+    board.replay(request.moves);
+    SearchMonitor monitor = new SearchMonitor(request.budgetMillis);
+    SolveResult result = strategy.solve(board, monitor);
+
+    BatchProtocol.Response response = new BatchProtocol.Response();
+    response.unitId = request.unitId;
+    response.status = result.getStatus();
+    response.nodes = result.getProgress().getNodes();
+    response.solution = result.getSolution();
+    return response;
+  }
+}
@@ -0,0 +1,23 @@
+package com.flowfree.service.batch;
+
+import com.flowfree.model.Puzzle;
+
+/**
+ * One piece of batch work: a whole puzzle, or the subtree of its search
+ * reached by a list of moves.
+ */
+final class WorkUnit {
+  final int id;
+  final int puzzleIndex;
+  final Puzzle puzzle;
+  // Pairs of end and cell leading to the subtree, empty for the whole puzzle
+  final int[] moves;
+  int attempts;
+
+  WorkUnit(int id, int puzzleIndex, Puzzle puzzle, int[] moves) {
+    this.id = id;
+    this.puzzleIndex = puzzleIndex;
+    this.puzzle = puzzle;
+    this.moves = moves;
+  }
+}
@@ -0,0 +1,358 @@
+package com.flowfree.service.solver;
+
+import java.util.Arrays;
+
+/**
+ * Bitboard representation of a board: one occupancy mask per color plus a
+ * mask of free cells.
+ *
+ * Every row is a single {@code long} with column c at bit c, framed by an
+ * empty word above and below, so cell index {@code (row + 1) * 64 + col}
+ * maps straight to a word and a bit. Boards may be up to 63 columns wide
+ * (bit 63 is always clear and acts as the side wall) and any number of rows
+ * high. Neighbour, flood-fill and region operations work a whole row at a
+ * time using shifts and masks.
+ */
+public final class BitBoard {
+  public static final int STRIDE = 64;
+  public static final int MAX_COLS = STRIDE - 1;
+
+  private final int rows;
+  private final int cols;
+  private final long rowMask;
+  private final long[] free;
+  private final long[][] colors;
+
+  /**
+   * Creates a board with every cell free.
+   */
+  public BitBoard(int rows, int cols, int numColors) {
+    if (cols > MAX_COLS) {
+      throw new IllegalArgumentException("Boards are limited to " + MAX_COLS + " columns");
+    }
+    this.rows = rows;
+    this.cols = cols;
+    this.rowMask = (1L << cols) - 1;
+    this.free = new long[rows + 2];
+    this.colors = new long[numColors][rows + 2];
+    for (int w = 1; w <= rows; w++) {
+      free[w] = rowMask;
+    }
+  }
+
+  private BitBoard(BitBoard other) {
+    this.rows = other.rows;
+    this.cols = other.cols;
+    this.rowMask = other.rowMask;
+    this.free = other.free.clone();
+    this.colors = new long[other.colors.length][];
+    for (int color = 0; color < colors.length; color++) {
+      colors[color] = other.colors[color].clone();
+    }
+  }
+
+  /**
+   * Creates an independent copy of this board.
+   */
+  public BitBoard copy() {
+    return new BitBoard(this);
+  }
+
+  /**
+   * Creates a board from a grid of color indices, where -1 marks a free cell.
+   */
+  public static BitBoard fromGrid(int[][] grid, int numColors) {
+    BitBoard board = new BitBoard(grid.length, grid.length == 0 ? 0 : grid[0].length, numColors);
+    for (int r = 0; r < board.rows; r++) {
+      for (int c = 0; c < board.cols; c++) {
+        if (grid[r][c] >= 0) {
+          board.set(index(r, c), grid[r][c]);
+        }
+      }
+    }
+    return board;
+  }
+
+  public static int index(int row, int col) {
+    return (row + 1) * STRIDE + col;
+  }
+
+  public static int rowOf(int cell) {
+    return (cell >>> 6) - 1;
+  }
+
+  public static int colOf(int cell) {
+    return cell & (STRIDE - 1);
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  public int getCols() {
+    return cols;
+  }
+
+  public int getNumColors() {
+    return colors.length;
+  }
+
+  /**
+   * Allocates an empty mask sized for this board.
+   */
+  public long[] newMask() {
+    return new long[rows + 2];
+  }
+
+  /**
+   * Gets the live mask of free cells. Callers must not modify it.
+   */
+  public long[] getFree() {
+    return free;
+  }
+
+  /**
+   * Gets the live occupancy mask of a color. Callers must not modify it.
+   */
+  public long[] getColor(int color) {
+    return colors[color];
+  }
+
+  /**
+   * Gets the color occupying a cell, or -1 if the cell is free.
+   */
+  public int colorAt(int cell) {
+    int word = cell >>> 6;
+    long bit = 1L << cell;
+    for (int color = 0; color < colors.length; color++) {
+      if ((colors[color][word] & bit) != 0) {
+        return color;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Assigns a cell to a color, or frees it when color is -1.
+   */
+  public void set(int cell, int color) {
+    int word = cell >>> 6;
+    long bit = 1L << cell;
+    for (long[] mask : colors) {
+      mask[word] &= ~bit;
+    }
+    if (color < 0) {
+      free[word] |= bit;
+    } else {
+      free[word] &= ~bit;
+      colors[color][word] |= bit;
+    }
+  }
+
+  /**
+   * Moves a free cell into a color.
+   */
+  public void place(int cell, int color) {
+    int word = cell >>> 6;
+    long bit = 1L << cell;
+    free[word] &= ~bit;
+    colors[color][word] |= bit;
+  }
+
+  /**
+   * Returns a cell held by the given color to the free mask.
+   */
+  public void remove(int cell, int color) {
+    int word = cell >>> 6;
+    long bit = 1L << cell;
+    colors[color][word] &= ~bit;
+    free[word] |= bit;
+  }
+
+  /**
+   * Copies the board into a row-major grid of color indices.
+   */
+  public int[][] toGrid() {
+    int[][] grid = new int[rows][cols];
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        grid[r][c] = colorAt(index(r, c));
+      }
+    }
+    return grid;
+  }
+
+  public static boolean test(long[] mask, int cell) {
+    return (mask[cell >>> 6] & 1L << cell) != 0;
+  }
+
+  public static void setBit(long[] mask, int cell) {
+    mask[cell >>> 6] |= 1L << cell;
+  }
+
+  public static void clearBit(long[] mask, int cell) {
+    mask[cell >>> 6] &= ~(1L << cell);
+  }
+
+  public static int count(long[] mask) {
+    int count = 0;
+    for (long word : mask) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  public static boolean isEmpty(long[] mask) {
+    for (long word : mask) {
+      if (word != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the lowest cell in a mask, or -1 if the mask is empty.
+   */
+  public static int first(long[] mask) {
+    for (int w = 0; w < mask.length; w++) {
+      if (mask[w] != 0) {
+        return w * STRIDE + Long.numberOfTrailingZeros(mask[w]);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Checks whether two masks share a cell.
+   */
+  public static boolean intersects(long[] a, long[] b) {
+    for (int w = 0; w < a.length; w++) {
+      if ((a[w] & b[w]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Writes the cells orthogonally adjacent to any cell of {@code src} into
+   * {@code dst}. The two masks must be distinct arrays.
+   */
+  public void neighbors(long[] src, long[] dst) {
+    dst[0] = 0;
+    dst[rows + 1] = 0;
+    for (int w = 1; w <= rows; w++) {
+      long x = src[w];
+      dst[w] = (x << 1 | x >>> 1 | src[w - 1] | src[w + 1]) & rowMask;
+    }
+  }
+
+  /**
+   * Writes the cells of {@code mask} that have at least two orthogonal
+   * neighbours in {@code neighborsOf} into {@code dst}, counting all four
+   * directions in parallel with a bitwise adder.
+   */
+  public void atLeastTwoNeighbors(long[] mask, long[] neighborsOf, long[] dst) {
+    dst[0] = 0;
+    dst[rows + 1] = 0;
+    for (int w = 1; w <= rows; w++) {
+      dst[w] = twoOrMore(neighborsOf[w - 1], neighborsOf[w], neighborsOf[w + 1]) & mask[w];
+    }
+  }
+
+  /**
+   * Gets the cells of a row with at least two orthogonal neighbours set,
+   * given that row's word of the neighbour mask and the words above and
+   * below it.
+   */
+  static long twoOrMore(long up, long row, long down) {
+    long left = row << 1;
+    long right = row >>> 1;
+    long ones = up ^ down;
+    long twos = up & down;
+    twos |= ones & left;
+    ones ^= left;
+    twos |= ones & right;
+    return twos;
+  }
+
+  /**
+   * Grows {@code seed} through {@code within} until it covers the whole
+   * connected region, writing the result into {@code dst} (which may be the
+   * seed array itself). Each row is filled sideways with a carry-propagation
+   * trick, so a sweep costs a few word operations per row no matter how long
+   * the runs are.
+   */
+  public void flood(long[] seed, long[] within, long[] dst) {
+    for (int w = 0; w < dst.length; w++) {
+      dst[w] = seed[w] & within[w];
+    }
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int w = 1; w <= rows; w++) {
+        long grown = fillRow(dst[w] | (dst[w - 1] | dst[w + 1]) & within[w], within[w]);
+        if (grown != dst[w]) {
+          dst[w] = grown;
+          changed = true;
+        }
+      }
+      for (int w = rows; w >= 1; w--) {
+        long grown = fillRow(dst[w] | (dst[w - 1] | dst[w + 1]) & within[w], within[w]);
+        if (grown != dst[w]) {
+          dst[w] = grown;
+          changed = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Extends every seed bit along its run of set bits in {@code within}, in
+   * both directions.
+   */
+  private static long fillRow(long seed, long within) {
+    if (seed == 0) {
+      return 0;
+    }
+    long upward = ((within + seed) ^ within) & within | seed;
+    long rwithin = Long.reverse(within);
+    long rseed = Long.reverse(seed);
+    long downward = Long.reverse(((rwithin + rseed) ^ rwithin) & rwithin | rseed);
+    return upward | downward;
+  }
+
+  /**
+   * Checks whether two cells of {@code within} are joined by a path through
+   * {@code within}.
+   *
+   * @param scratch A mask used as working space
+   */
+  public boolean connected(int from, int to, long[] within, long[] scratch) {
+    Arrays.fill(scratch, 0);
+    setBit(scratch, from);
+    flood(scratch, within, scratch);
+    return test(scratch, to);
+  }
+
+  /**
+   * Removes the region containing the lowest cell of {@code remaining} from
+   * it and writes that region into {@code region}.
+   *
+   * @return False if {@code remaining} was already empty
+   */
+  public boolean nextRegion(long[] remaining, long[] region) {
+    int cell = first(remaining);
+    if (cell < 0) {
+      return false;
+    }
+    Arrays.fill(region, 0);
+    setBit(region, cell);
+    flood(region, remaining, region);
+    for (int w = 0; w < remaining.length; w++) {
+      remaining[w] &= ~region[w];
+    }
+    return true;
+  }
+}
@@ -0,0 +1,62 @@
+package com.flowfree.service.solver;
+
+import com.flowfree.build.SpecializedKernels;
+
+/**
+ * The innermost board routines of the path-extension solver, kept behind
+ * one interface so they can be specialized per board size.
+ *
+ * Every method works on the raw arrays of a {@link FlowBoard}: cells and
+ * {@link LocalPatterns} codes in the padded layout of {@link BitBoard},
+ * and free-cell masks with one word per row. The build generates an
+ * implementation for each square size from 5x5 to 15x15 with constant
+ * offsets, unrolled direction loops and unrolled row sweeps, which
+ * {@code BoardKernels.forSize(int, int)} hands out; other sizes get a
+ * {@link GenericKernel}. All implementations must give identical results.
+ */
+@SpecializedKernels(minSize = 5, maxSize = 15, fallback = "GenericKernel")
+interface BoardKernel {
+  /**
+   * Writes the cells a flow end at {@code from} may grow into, in the
+   * order N, E, S, W: free cells touching no cell of the flow other than
+   * {@code from} and the flow's other end.
+   *
+   * @return Number of moves written
+   */
+  int collectMoves(int[] cells, int flow, int from, int other, int[] out, int pos);
+
+  /**
+   * Finds the first free neighbour of a cell, in the order N, E, S, W,
+   * that has exactly two open neighbours.
+   *
+   * @return The neighbour, or -1 if there is none
+   */
+  int squeezedNeighbor(int[] cells, int[] patterns, int cell);
+
+  /**
+   * Finds the first open neighbour of a cell other than the given one, in
+   * the order N, E, S, W.
+   *
+   * @return The neighbour, or {@code exclude} if there is none
+   */
+  int otherOpenNeighbor(int[] patterns, int cell, int exclude);
+
+  /**
+   * Checks whether a free neighbour of a cell is walled in.
+   */
+  boolean hasDeadEndAround(int[] cells, int[] patterns, int cell);
+
+  /**
+   * Flips the pattern bits a cell's class change causes in the codes of
+   * its eight neighbours.
+   *
+   * @param diff The old class XOR the new class
+   */
+  void reclassify(int[] patterns, int cell, int diff);
+
+  /**
+   * Checks whether a free cell has fewer than two neighbours in
+   * {@code open}.
+   */
+  boolean hasDeadCell(long[] free, long[] open);
+}
@@ -0,0 +1,201 @@
+package com.flowfree.service.solver;
+
+import com.flowfree.model.Puzzle;
+
+import java.util.Arrays;
+
+/**
+ * Endpoint layout of a puzzle normalized under the symmetries of the board.
+ *
+ * Rotating or mirroring a puzzle, renumbering its flows or swapping the two
+ * endpoints of a flow gives the same puzzle as far as solving goes. Each of
+ * the eight rotations and reflections maps the endpoints to a sequence of
+ * board size plus flows sorted by their endpoint cells; the smallest such
+ * sequence is the canonical form and its hash identifies the layout. The
+ * transform and flow order that produced it are kept, so a solution stored
+ * in canonical form can be mapped back onto any variant of the puzzle.
+ */
+public final class CanonicalLayout {
+  private static final int TRANSFORMS = 8;
+
+  private final int rows;
+  private final int cols;
+  private final int transform;
+  private final int canonicalRows;
+  private final int canonicalCols;
+  // Canonical index of each flow, and the flow at each canonical index
+  private final int[] toCanonical;
+  private final int[] fromCanonical;
+  private final long[] sequence;
+  private final long hash;
+
+  private CanonicalLayout(int rows, int cols, int transform, long[] sequence, int[] fromCanonical) {
+    this.rows = rows;
+    this.cols = cols;
+    this.transform = transform;
+    this.sequence = sequence;
+    this.canonicalRows = (int) sequence[0];
+    this.canonicalCols = (int) sequence[1];
+    this.fromCanonical = fromCanonical;
+    this.toCanonical = new int[fromCanonical.length];
+    for (int k = 0; k < fromCanonical.length; k++) {
+      toCanonical[fromCanonical[k]] = k;
+    }
+    long h = 0x9E3779B97F4A7C15L;
+    for (long value : sequence) {
+      h = mix(h ^ value);
+    }
+    this.hash = h == 0 ? 1 : h;
+  }
+
+  /**
+   * Normalizes a layout given as flat endpoint coordinates.
+   *
+   * @param endpoints Four ints per flow: startRow, startCol, endRow, endCol
+   */
+  public static CanonicalLayout of(int rows, int cols, int[] endpoints) {
+    int flows = endpoints.length / 4;
+    long[] best = null;
+    int[] bestOrder = null;
+    int bestTransform = 0;
+    for (int t = 0; t < TRANSFORMS; t++) {
+      boolean swap = swapsDimensions(t);
+      int outCols = swap ? rows : cols;
+      long[] keys = new long[flows];
+      for (int f = 0; f < flows; f++) {
+        long a = cellIndex(t, rows, cols, endpoints[f * 4], endpoints[f * 4 + 1], outCols);
+        long b = cellIndex(t, rows, cols, endpoints[f * 4 + 2], endpoints[f * 4 + 3], outCols);
+        // Pack the pair with the flow index in the low bits so sorting keeps track of it
+        keys[f] = (Math.min(a, b) << 40 | Math.max(a, b) << 16) | f;
+      }
+      Arrays.sort(keys);
+      long[] sequence = new long[2 + flows];
+      sequence[0] = swap ? cols : rows;
+      sequence[1] = outCols;
+      int[] order = new int[flows];
+      for (int k = 0; k < flows; k++) {
+        sequence[2 + k] = keys[k] >>> 16;
+        order[k] = (int) (keys[k] & 0xFFFF);
+      }
+      if (best == null || compare(sequence, best) < 0) {
+        best = sequence;
+        bestOrder = order;
+        bestTransform = t;
+      }
+    }
+    return new CanonicalLayout(rows, cols, bestTransform, best, bestOrder);
+  }
+
+  /**
+   * Normalizes the endpoint layout of a puzzle. Flow indices follow the
+   * order of {@link Puzzle#getEndpoints()}, as in
+   * {@link FlowBoard#fromPuzzle(Puzzle)}.
+   */
+  public static CanonicalLayout of(Puzzle puzzle) {
+    int[] endpoints = new int[puzzle.getEndpoints().size() * 4];
+    int i = 0;
+    for (Puzzle.Endpoint endpoint : puzzle.getEndpoints()) {
+      endpoints[i++] = endpoint.startRow;
+      endpoints[i++] = endpoint.startCol;
+      endpoints[i++] = endpoint.endRow;
+      endpoints[i++] = endpoint.endCol;
+    }
+    return of(puzzle.getRows(), puzzle.getCols(), endpoints);
+  }
+
+  /**
+   * Gets the hash of the canonical form, never 0.
+   */
+  public long getHash() {
+    return hash;
+  }
+
+  public int getNumFlows() {
+    return fromCanonical.length;
+  }
+
+  public int getCanonicalRows() {
+    return canonicalRows;
+  }
+
+  public int getCanonicalCols() {
+    return canonicalCols;
+  }
+
+  /**
+   * Checks whether two layouts are the same puzzle up to symmetry.
+   */
+  public boolean isEquivalent(CanonicalLayout other) {
+    return Arrays.equals(sequence, other.sequence);
+  }
+
+  /**
+   * Maps a grid of flow indices in this layout's frame to canonical form.
+   */
+  public int[][] toCanonical(int[][] grid) {
+    int[][] canonical = new int[canonicalRows][canonicalCols];
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        int index = cellIndex(transform, rows, cols, r, c, canonicalCols);
+        int flow = grid[r][c];
+        canonical[index / canonicalCols][index % canonicalCols] = flow >= 0 ? toCanonical[flow] : flow;
+      }
+    }
+    return canonical;
+  }
+
+  /**
+   * Maps a grid of canonical flow indices back to this layout's frame.
+   */
+  public int[][] fromCanonical(int[][] canonical) {
+    int[][] grid = new int[rows][cols];
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        int index = cellIndex(transform, rows, cols, r, c, canonicalCols);
+        int flow = canonical[index / canonicalCols][index % canonicalCols];
+        grid[r][c] = flow >= 0 ? fromCanonical[flow] : flow;
+      }
+    }
+    return grid;
+  }
+
+  private static boolean swapsDimensions(int transform) {
+    // Quarter turns and the two diagonal reflections
+    return transform == 1 || transform == 3 || transform == 6 || transform == 7;
+  }
+
+  /**
+   * Maps a cell through one of the eight symmetries and returns its
+   * row-major index in the transformed board.
+   */
+  private static int cellIndex(int transform, int rows, int cols, int r, int c, int outCols) {
+    int tr;
+    int tc;
+    switch (transform) {
+      case 0: tr = r; tc = c; break;
+      case 1: tr = c; tc = rows - 1 - r; break;
+      case 2: tr = rows - 1 - r; tc = cols - 1 - c; break;
+      case 3: tr = cols - 1 - c; tc = r; break;
+      case 4: tr = r; tc = cols - 1 - c; break;
+      case 5: tr = rows - 1 - r; tc = c; break;
+      case 6: tr = c; tc = r; break;
+      default: tr = cols - 1 - c; tc = rows - 1 - r; break;
+    }
+    return tr * outCols + tc;
+  }
+
+  private static int compare(long[] a, long[] b) {
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] != b[i]) {
+        return Long.compare(a[i], b[i]);
+      }
+    }
+    return 0;
+  }
+
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
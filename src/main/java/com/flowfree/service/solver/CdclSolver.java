@@ -0,0 +1,565 @@
+package com.flowfree.service.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Conflict-driven clause-learning SAT solver.
+ *
+ * Variables are numbered from 0 and a literal is {@code 2 * var} for the
+ * positive and {@code 2 * var + 1} for the negative form, see
+ * {@link #literal(int, boolean)}. The solver follows the MiniSat design:
+ * two watched literals per clause for unit propagation, first-UIP conflict
+ * analysis with non-chronological backjumping, VSIDS variable activity kept
+ * in a binary heap, phase saving, Luby restarts and periodic removal of the
+ * less active half of the learnt clauses. Clauses may be added between calls
+ * to {@link #solve()}, so a caller can refine a formula incrementally while
+ * everything learned so far is kept.
+ */
+public final class CdclSolver {
+  /**
+   * Outcome of a call to {@link #solve()}.
+   */
+  public enum Result {
+    SATISFIABLE,
+    UNSATISFIABLE,
+    /** The search was stopped by its monitor. */
+    UNKNOWN
+  }
+
+  private static final int RESTART_BASE = 100;
+  private static final double VAR_DECAY = 0.95;
+  private static final double CLAUSE_DECAY = 0.999;
+  private static final double RESCALE_LIMIT = 1e100;
+
+  private final SearchStats stats;
+  private final List<int[]> clauses = new ArrayList<>();
+  private final IntVec learnts = new IntVec();
+  private final IntVec trailLim = new IntVec();
+  private final IntVec learnt = new IntVec();
+  private int numVars;
+  private IntVec[] watches = new IntVec[0];
+  // Per literal: 1 true, -1 false, 0 unassigned
+  private byte[] values = new byte[0];
+  private int[] level = new int[0];
+  private int[] reason = new int[0];
+  private boolean[] phase = new boolean[0];
+  private boolean[] seen = new boolean[0];
+  private double[] activity = new double[0];
+  private double[] clauseActivity = new double[16];
+  private int[] trail = new int[0];
+  private int trailSize;
+  private int qhead;
+  private int[] heap = new int[0];
+  private int[] heapIndex = new int[0];
+  private int heapSize;
+  private double varInc = 1;
+  private double clauseInc = 1;
+  private double maxLearnts;
+  private boolean unsatisfiable;
+  private boolean[] model;
+  private long conflicts;
+  private long decisions;
+  private long propagations;
+
+  public CdclSolver() {
+    this(null);
+  }
+
+  /**
+   * Creates a solver that reports decisions as nodes and conflicts as
+   * prunes to a monitor and stops when it says so.
+   *
+   * @param monitor Monitor to report to, or null
+   */
+  public CdclSolver(SearchMonitor monitor) {
+    this.stats = new SearchStats(monitor);
+  }
+
+  /**
+   * Builds a literal of a variable.
+   */
+  public static int literal(int var, boolean positive) {
+    return var << 1 | (positive ? 0 : 1);
+  }
+
+  /**
+   * Creates a variable.
+   *
+   * @return Its index
+   */
+  public int newVariable() {
+    int var = numVars++;
+    if (numVars > level.length) {
+      int capacity = Math.max(16, numVars * 2);
+      values = Arrays.copyOf(values, capacity * 2);
+      watches = Arrays.copyOf(watches, capacity * 2);
+      level = Arrays.copyOf(level, capacity);
+      reason = Arrays.copyOf(reason, capacity);
+      phase = Arrays.copyOf(phase, capacity);
+      seen = Arrays.copyOf(seen, capacity);
+      activity = Arrays.copyOf(activity, capacity);
+      trail = Arrays.copyOf(trail, capacity);
+      heap = Arrays.copyOf(heap, capacity);
+      heapIndex = Arrays.copyOf(heapIndex, capacity);
+    }
+    watches[var * 2] = new IntVec();
+    watches[var * 2 + 1] = new IntVec();
+    reason[var] = -1;
+    heapIndex[var] = -1;
+    heapInsert(var);
+    return var;
+  }
+
+  public int getNumVariables() {
+    return numVars;
+  }
+
+  /**
+   * Adds a clause. Must not be called while {@link #solve()} is running.
+   *
+   * @param literals The literals of the clause; the array is not kept
+   * @return False if the formula is now known to be unsatisfiable
+   */
+  public boolean addClause(int... literals) {
+    if (unsatisfiable) {
+      return false;
+    }
+    cancelUntil(0);
+    int[] lits = literals.clone();
+    Arrays.sort(lits);
+    int size = 0;
+    int previous = -1;
+    for (int lit : lits) {
+      if (values[lit] == 1 || lit == (previous ^ 1)) {
+        return true;
+      }
+      if (values[lit] == 0 && lit != previous) {
+        lits[size++] = lit;
+        previous = lit;
+      }
+    }
+    if (size == 0) {
+      unsatisfiable = true;
+      return false;
+    }
+    if (size == 1) {
+      enqueue(lits[0], -1);
+      if (propagate() >= 0) {
+        unsatisfiable = true;
+        return false;
+      }
+      return true;
+    }
+    attach(Arrays.copyOf(lits, size), false);
+    return true;
+  }
+
+  /**
+   * Searches for an assignment that satisfies every clause.
+   */
+  public Result solve() {
+    model = null;
+    stats.reset();
+    if (unsatisfiable) {
+      return Result.UNSATISFIABLE;
+    }
+    maxLearnts = Math.max(maxLearnts, clauses.size() / 3.0);
+    try {
+      for (int restart = 0;; restart++) {
+        Result result = search(luby(restart) * RESTART_BASE);
+        if (result != null) {
+          return result;
+        }
+        maxLearnts *= 1.05;
+      }
+    } finally {
+      cancelUntil(0);
+      stats.report();
+    }
+  }
+
+  /**
+   * Gets the value of a variable in the last satisfying assignment.
+   */
+  public boolean value(int var) {
+    return model[var];
+  }
+
+  public long getConflicts() {
+    return conflicts;
+  }
+
+  public long getDecisions() {
+    return decisions;
+  }
+
+  public long getPropagations() {
+    return propagations;
+  }
+
+  /**
+   * Runs until the formula is decided or the conflict budget of one restart
+   * is used up.
+   *
+   * @return The result, or null to restart
+   */
+  private Result search(long conflictBudget) {
+    long conflictsHere = 0;
+    while (true) {
+      int conflict = propagate();
+      if (conflict >= 0) {
+        conflicts++;
+        conflictsHere++;
+        stats.prune(PruneRule.SAT_CONFLICT);
+        if (trailLim.size == 0) {
+          unsatisfiable = true;
+          return Result.UNSATISFIABLE;
+        }
+        int backjump = analyze(conflict);
+        cancelUntil(backjump);
+        if (learnt.size == 1) {
+          enqueue(learnt.data[0], -1);
+        } else {
+          int id = attach(Arrays.copyOf(learnt.data, learnt.size), true);
+          enqueue(learnt.data[0], id);
+        }
+        varInc /= VAR_DECAY;
+        clauseInc /= CLAUSE_DECAY;
+        continue;
+      }
+
+      if (conflictsHere >= conflictBudget) {
+        cancelUntil(0);
+        return null;
+      }
+      if (learnts.size - trailSize >= maxLearnts) {
+        reduceLearnts();
+      }
+      int var = pickBranchVariable();
+      if (var < 0) {
+        model = new boolean[numVars];
+        for (int v = 0; v < numVars; v++) {
+          model[v] = values[v * 2] == 1;
+        }
+        return Result.SATISFIABLE;
+      }
+      if (stats.expand(trailLim.size)) {
+        return Result.UNKNOWN;
+      }
+      decisions++;
+      trailLim.push(trailSize);
+      enqueue(literal(var, phase[var]), -1);
+    }
+  }
+
+  private int attach(int[] lits, boolean isLearnt) {
+    int id = clauses.size();
+    clauses.add(lits);
+    watches[lits[0]].push(id);
+    watches[lits[1]].push(id);
+    if (isLearnt) {
+      learnts.push(id);
+      if (id >= clauseActivity.length) {
+        clauseActivity = Arrays.copyOf(clauseActivity, id * 2);
+      }
+      clauseActivity[id] = clauseInc;
+    }
+    return id;
+  }
+
+  private void enqueue(int lit, int from) {
+    int var = lit >> 1;
+    values[lit] = 1;
+    values[lit ^ 1] = -1;
+    level[var] = trailLim.size;
+    reason[var] = from;
+    trail[trailSize++] = lit;
+  }
+
+  /**
+   * Propagates every enqueued literal.
+   *
+   * @return The conflicting clause, or -1 if there is none
+   */
+  private int propagate() {
+    while (qhead < trailSize) {
+      int falseLit = trail[qhead++] ^ 1;
+      propagations++;
+      IntVec list = watches[falseLit];
+      int[] ws = list.data;
+      int i = 0;
+      int j = 0;
+      int n = list.size;
+      while (i < n) {
+        int id = ws[i++];
+        int[] c = clauses.get(id);
+        if (c == null) {
+          continue;
+        }
+        if (c[0] == falseLit) {
+          c[0] = c[1];
+          c[1] = falseLit;
+        }
+        if (values[c[0]] == 1) {
+          ws[j++] = id;
+          continue;
+        }
+        boolean moved = false;
+        for (int k = 2; k < c.length; k++) {
+          if (values[c[k]] != -1) {
+            c[1] = c[k];
+            c[k] = falseLit;
+            watches[c[1]].push(id);
+            moved = true;
+            break;
+          }
+        }
+        if (moved) {
+          continue;
+        }
+        ws[j++] = id;
+        if (values[c[0]] == -1) {
+          while (i < n) {
+            ws[j++] = ws[i++];
+          }
+          list.size = j;
+          qhead = trailSize;
+          return id;
+        }
+        enqueue(c[0], id);
+      }
+      list.size = j;
+    }
+    return -1;
+  }
+
+  /**
+   * Derives the first-UIP clause of a conflict into {@link #learnt}, with the
+   * asserting literal first and a literal of the backjump level second.
+   *
+   * @return The level to backjump to
+   */
+  private int analyze(int conflict) {
+    learnt.size = 0;
+    learnt.push(-1);
+    int pathCount = 0;
+    int p = -1;
+    int index = trailSize - 1;
+    int current = trailLim.size;
+    do {
+      int[] c = clauses.get(conflict);
+      if (conflict < clauseActivity.length && isLearnt(conflict)) {
+        bumpClause(conflict);
+      }
+      for (int k = p < 0 ? 0 : 1; k < c.length; k++) {
+        int q = c[k];
+        int var = q >> 1;
+        if (!seen[var] && level[var] > 0) {
+          bumpVariable(var);
+          seen[var] = true;
+          if (level[var] >= current) {
+            pathCount++;
+          } else {
+            learnt.push(q);
+          }
+        }
+      }
+      while (!seen[trail[index] >> 1]) {
+        index--;
+      }
+      p = trail[index--];
+      conflict = reason[p >> 1];
+      seen[p >> 1] = false;
+      pathCount--;
+    } while (pathCount > 0);
+    learnt.data[0] = p ^ 1;
+
+    int backjump = 0;
+    int best = 1;
+    for (int k = 1; k < learnt.size; k++) {
+      int var = learnt.data[k] >> 1;
+      seen[var] = false;
+      if (level[var] > backjump) {
+        backjump = level[var];
+        best = k;
+      }
+    }
+    if (learnt.size > 1) {
+      int tmp = learnt.data[1];
+      learnt.data[1] = learnt.data[best];
+      learnt.data[best] = tmp;
+    }
+    return backjump;
+  }
+
+  private boolean isLearnt(int id) {
+    return clauseActivity[id] > 0;
+  }
+
+  private void cancelUntil(int target) {
+    if (trailLim.size <= target) {
+      return;
+    }
+    int stop = trailLim.data[target];
+    for (int i = trailSize - 1; i >= stop; i--) {
+      int lit = trail[i];
+      int var = lit >> 1;
+      values[lit] = 0;
+      values[lit ^ 1] = 0;
+      reason[var] = -1;
+      phase[var] = (lit & 1) == 0;
+      if (heapIndex[var] < 0) {
+        heapInsert(var);
+      }
+    }
+    trailSize = stop;
+    qhead = stop;
+    trailLim.size = target;
+  }
+
+  private int pickBranchVariable() {
+    while (heapSize > 0) {
+      int var = heapRemoveMax();
+      if (values[var * 2] == 0) {
+        return var;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Drops the less active half of the learnt clauses, keeping binary ones
+   * and any clause that is currently the reason for an assignment.
+   */
+  private void reduceLearnts() {
+    Integer[] order = new Integer[learnts.size];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = learnts.data[i];
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(clauseActivity[a], clauseActivity[b]));
+    int keep = 0;
+    for (int i = 0; i < order.length; i++) {
+      int id = order[i];
+      int[] c = clauses.get(id);
+      boolean locked = reason[c[0] >> 1] == id && values[c[0]] == 1;
+      if (i < order.length / 2 && c.length > 2 && !locked) {
+        clauses.set(id, null);
+      } else {
+        learnts.data[keep++] = id;
+      }
+    }
+    learnts.size = keep;
+  }
+
+  private void bumpVariable(int var) {
+    activity[var] += varInc;
+    if (activity[var] > RESCALE_LIMIT) {
+      for (int v = 0; v < numVars; v++) {
+        activity[v] /= RESCALE_LIMIT;
+      }
+      varInc /= RESCALE_LIMIT;
+    }
+    if (heapIndex[var] >= 0) {
+      siftUp(heapIndex[var]);
+    }
+  }
+
+  private void bumpClause(int id) {
+    clauseActivity[id] += clauseInc;
+    if (clauseActivity[id] > RESCALE_LIMIT) {
+      for (int i = 0; i < learnts.size; i++) {
+        clauseActivity[learnts.data[i]] /= RESCALE_LIMIT;
+      }
+      clauseInc /= RESCALE_LIMIT;
+    }
+  }
+
+  private void heapInsert(int var) {
+    heap[heapSize] = var;
+    heapIndex[var] = heapSize;
+    siftUp(heapSize++);
+  }
+
+  private int heapRemoveMax() {
+    int top = heap[0];
+    heapIndex[top] = -1;
+    int last = heap[--heapSize];
+    if (heapSize > 0) {
+      heap[0] = last;
+      heapIndex[last] = 0;
+      siftDown(0);
+    }
+    return top;
+  }
+
+  private void siftUp(int pos) {
+    int var = heap[pos];
+    while (pos > 0) {
+      int parent = (pos - 1) >> 1;
+      if (activity[heap[parent]] >= activity[var]) {
+        break;
+      }
+      heap[pos] = heap[parent];
+      heapIndex[heap[pos]] = pos;
+      pos = parent;
+    }
+    heap[pos] = var;
+    heapIndex[var] = pos;
+  }
+
+  private void siftDown(int pos) {
+    int var = heap[pos];
+    while (true) {
+      int child = pos * 2 + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize && activity[heap[child + 1]] > activity[heap[child]]) {
+        child++;
+      }
+      if (activity[heap[child]] <= activity[var]) {
+        break;
+      }
+      heap[pos] = heap[child];
+      heapIndex[heap[pos]] = pos;
+      pos = child;
+    }
+    heap[pos] = var;
+    heapIndex[var] = pos;
+  }
+
+  /**
+   * Gets the i-th element of the Luby sequence 1, 1, 2, 1, 1, 2, 4, ...
+   */
+  private static long luby(int i) {
+    int size = 1;
+    int seq = 0;
+    while (size < i + 1) {
+      seq++;
+      size = 2 * size + 1;
+    }
+    while (size - 1 != i) {
+      size = (size - 1) >> 1;
+      seq--;
+      i = i % size;
+    }
+    return 1L << seq;
+  }
+
+  /**
+   * Growable int array.
+   */
+  private static final class IntVec {
+    int[] data = new int[4];
+    int size;
+
+    void push(int value) {
+      if (size == data.length) {
+        data = Arrays.copyOf(data, size * 2);
+      }
+      data[size++] = value;
+    }
+  }
+}
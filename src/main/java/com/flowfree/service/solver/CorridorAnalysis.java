@@ -0,0 +1,225 @@
+package com.flowfree.service.solver;
+
+import com.flowfree.model.Grid;
+
+/**
+ * Finds the articulation points of the free-cell graph: single cells whose
+ * removal splits a free region in two, i.e. one-cell-wide corridors and
+ * doorways.
+ *
+ * The analysis is an iterative Tarjan depth-first search over cell indices
+ * laid out like {@link BitBoard}, with every per-cell value kept in a
+ * primitive array that is reused between calls, so analysing a board
+ * allocates nothing. Discovery and finish times are kept, which lets
+ * {@link #separates(int, int, int)} tell in constant time whether a cut cell
+ * lies between two others. Besides the solver, hints and difficulty rating
+ * can run it on a {@link Grid} through {@link #of(Grid)}.
+ */
+public final class CorridorAnalysis {
+  private static final int[] OFFSETS = { -BitBoard.STRIDE, 1, BitBoard.STRIDE, -1 };
+
+  private final int rows;
+  private final int[] seen;
+  private final int[] tin;
+  private final int[] tout;
+  private final int[] low;
+  private final int[] parent;
+  private final int[] component;
+  private final int[] stackCell;
+  private final int[] stackDir;
+  private final long[] articulation;
+  private int epoch;
+  private int components;
+  private int articulationCount;
+
+  /**
+   * Creates an analysis for boards of the given size.
+   */
+  public CorridorAnalysis(int rows, int cols) {
+    if (cols > BitBoard.MAX_COLS) {
+      throw new IllegalArgumentException("Boards are limited to " + BitBoard.MAX_COLS + " columns");
+    }
+    this.rows = rows;
+    int size = (rows + 2) * BitBoard.STRIDE;
+    this.seen = new int[size];
+    this.tin = new int[size];
+    this.tout = new int[size];
+    this.low = new int[size];
+    this.parent = new int[size];
+    this.component = new int[size];
+    this.stackCell = new int[rows * cols + 1];
+    this.stackDir = new int[rows * cols + 1];
+    this.articulation = new long[rows + 2];
+  }
+
+  /**
+   * Analyses the empty cells of a game grid.
+   */
+  public static CorridorAnalysis of(Grid grid) {
+    BitBoard bits = new BitBoard(grid.getRows(), grid.getCols(), 0);
+    long[] free = bits.newMask();
+    for (int r = 0; r < grid.getRows(); r++) {
+      for (int c = 0; c < grid.getCols(); c++) {
+        if (grid.getCell(r, c).isEmpty()) {
+          BitBoard.setBit(free, BitBoard.index(r, c));
+        }
+      }
+    }
+    CorridorAnalysis analysis = new CorridorAnalysis(grid.getRows(), grid.getCols());
+    analysis.analyze(free);
+    return analysis;
+  }
+
+  /**
+   * Analyses the free cells of a solver board.
+   */
+  public static CorridorAnalysis of(FlowBoard board) {
+    CorridorAnalysis analysis = new CorridorAnalysis(board.getRows(), board.getCols());
+    analysis.analyze(board.getBits().getFree());
+    return analysis;
+  }
+
+  /**
+   * Analyses the cells of a mask in {@link BitBoard} layout, replacing the
+   * results of any earlier call.
+   */
+  public void analyze(long[] free) {
+    epoch++;
+    components = 0;
+    articulationCount = 0;
+    for (int w = 0; w < articulation.length; w++) {
+      articulation[w] = 0;
+    }
+    int timer = 0;
+
+    for (int w = 1; w <= rows; w++) {
+      long word = free[w];
+      while (word != 0) {
+        int root = w * BitBoard.STRIDE + Long.numberOfTrailingZeros(word);
+        word &= word - 1;
+        if (seen[root] == epoch) {
+          continue;
+        }
+        components++;
+        int rootChildren = 0;
+        seen[root] = epoch;
+        parent[root] = -1;
+        component[root] = components;
+        tin[root] = low[root] = ++timer;
+        int sp = 0;
+        stackCell[sp] = root;
+        stackDir[sp++] = 0;
+
+        while (sp > 0) {
+          int v = stackCell[sp - 1];
+          int d = stackDir[sp - 1];
+          if (d < 4) {
+            stackDir[sp - 1] = d + 1;
+            int n = v + OFFSETS[d];
+            if (!BitBoard.test(free, n)) {
+              continue;
+            }
+            if (seen[n] != epoch) {
+              seen[n] = epoch;
+              parent[n] = v;
+              component[n] = components;
+              tin[n] = low[n] = ++timer;
+              stackCell[sp] = n;
+              stackDir[sp++] = 0;
+              if (v == root) {
+                rootChildren++;
+              }
+            } else if (n != parent[v] && tin[n] < low[v]) {
+              low[v] = tin[n];
+            }
+          } else {
+            sp--;
+            tout[v] = timer;
+            int p = parent[v];
+            if (p >= 0) {
+              if (low[v] < low[p]) {
+                low[p] = low[v];
+              }
+              if (p != root && low[v] >= tin[p]) {
+                markArticulation(p);
+              }
+            }
+          }
+        }
+        if (rootChildren >= 2) {
+          markArticulation(root);
+        }
+      }
+    }
+  }
+
+  private void markArticulation(int cell) {
+    if (!BitBoard.test(articulation, cell)) {
+      BitBoard.setBit(articulation, cell);
+      articulationCount++;
+    }
+  }
+
+  /**
+   * Gets the articulation points of the last analysis as a mask in
+   * {@link BitBoard} layout. Callers must not modify it.
+   */
+  public long[] getArticulationPoints() {
+    return articulation;
+  }
+
+  public int getArticulationCount() {
+    return articulationCount;
+  }
+
+  public boolean isArticulationPoint(int row, int col) {
+    return BitBoard.test(articulation, BitBoard.index(row, col));
+  }
+
+  /**
+   * Gets the number of separate free regions found by the last analysis.
+   */
+  public int getComponentCount() {
+    return components;
+  }
+
+  /**
+   * Gets the 1-based region of an analysed cell, or 0 if the cell was not
+   * part of the analysed mask.
+   */
+  public int componentOf(int cell) {
+    return seen[cell] == epoch ? component[cell] : 0;
+  }
+
+  /**
+   * Checks whether every path between two free cells of the same region
+   * passes through a third cell of it, i.e. whether the two cells end up in
+   * different regions once the cut cell is removed.
+   *
+   * @param cut  An analysed cell, normally an articulation point
+   * @param a    Another cell of the cut cell's region
+   * @param b    A third cell of the same region
+   */
+  public boolean separates(int cut, int a, int b) {
+    return sideOf(cut, a) != sideOf(cut, b);
+  }
+
+  /**
+   * Identifies which part of a region a cell falls into once the cut cell
+   * is removed: the DFS child of the cut whose subtree holds the cell if
+   * that subtree hangs off the cut alone, or the cut itself for the part
+   * still connected to the cut's ancestors.
+   */
+  int sideOf(int cut, int cell) {
+    int t = tin[cell];
+    if (t > tin[cut] && t <= tout[cut]) {
+      for (int d = 0; d < 4; d++) {
+        int child = cut + OFFSETS[d];
+        if (seen[child] == epoch && parent[child] == cut && t >= tin[child] && t <= tout[child]) {
+          return low[child] >= tin[cut] ? child : cut;
+        }
+      }
+    }
+    return cut;
+  }
+}
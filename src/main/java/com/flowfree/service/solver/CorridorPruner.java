@@ -0,0 +1,138 @@
+package com.flowfree.service.solver;
+
+/**
+ * Rejects partial boards where two flows must both pass through the same
+ * one-cell corridor.
+ *
+ * A flow whose ends touch exactly one common free region has to be joined
+ * inside it. If every way from the cells beside one end to the cells beside
+ * the other crosses a particular articulation point of that region, the
+ * flow needs that cell, and since a cell holds only one flow, two flows
+ * needing the same cell cannot both be joined.
+ */
+final class CorridorPruner {
+  private final FlowBoard board;
+  private final CorridorAnalysis analysis;
+  // The only region touched by both ends of each flow, or 0 if there are none or several
+  private final int[] region;
+  // Up to four cells of that region beside each end, four slots per end
+  private final int[] beside;
+  private final int[] besideCount;
+
+  /**
+   * @param analysis Analysis that the caller keeps up to date with the board
+   */
+  CorridorPruner(FlowBoard board, CorridorAnalysis analysis) {
+    this.board = board;
+    this.analysis = analysis;
+    this.region = new int[board.getNumFlows()];
+    this.beside = new int[board.getNumFlows() * 8];
+    this.besideCount = new int[board.getNumFlows() * 2];
+  }
+
+  /**
+   * Checks the current board against the last analysis.
+   *
+   * @return {@link PruneRule#BOTTLENECK} if two flows need the same cell,
+   *         otherwise null
+   */
+  PruneRule check() {
+    if (analysis.getArticulationCount() == 0) {
+      return null;
+    }
+    int numFlows = board.getNumFlows();
+    boolean anyBound = false;
+    for (int f = 0; f < numFlows; f++) {
+      region[f] = board.isComplete(f) ? 0 : bind(f);
+      anyBound |= region[f] != 0;
+    }
+    if (!anyBound) {
+      return null;
+    }
+
+    long[] cuts = analysis.getArticulationPoints();
+    for (int w = 0; w < cuts.length; w++) {
+      long word = cuts[w];
+      while (word != 0) {
+        int cut = w * BitBoard.STRIDE + Long.numberOfTrailingZeros(word);
+        word &= word - 1;
+        int cutRegion = analysis.componentOf(cut);
+        int needing = 0;
+        for (int f = 0; f < numFlows; f++) {
+          if (region[f] == cutRegion && needsCell(f, cut) && ++needing > 1) {
+            return PruneRule.BOTTLENECK;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Finds the region touched by both ends of a flow and records the cells of
+   * it beside each end.
+   *
+   * @return The region, or 0 if the ends share no region or more than one
+   */
+  private int bind(int flow) {
+    int a = board.getEnd(flow * 2);
+    int b = board.getEnd(flow * 2 + 1);
+    int shared = 0;
+    for (int d = 0; d < 4; d++) {
+      int ra = analysis.componentOf(a + board.offset(d));
+      if (ra != 0 && ra != shared && touches(b, ra)) {
+        if (shared != 0) {
+          return 0;
+        }
+        shared = ra;
+      }
+    }
+    if (shared != 0) {
+      collect(a, shared, flow * 2);
+      collect(b, shared, flow * 2 + 1);
+    }
+    return shared;
+  }
+
+  private boolean touches(int cell, int target) {
+    for (int d = 0; d < 4; d++) {
+      if (analysis.componentOf(cell + board.offset(d)) == target) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void collect(int cell, int target, int end) {
+    int count = 0;
+    for (int d = 0; d < 4; d++) {
+      int n = cell + board.offset(d);
+      if (analysis.componentOf(n) == target) {
+        beside[end * 4 + count++] = n;
+      }
+    }
+    besideCount[end] = count;
+  }
+
+  /**
+   * Checks whether every path joining a flow passes through the cut cell.
+   */
+  private boolean needsCell(int flow, int cut) {
+    int endA = flow * 2;
+    int endB = endA + 1;
+    for (int i = 0; i < besideCount[endA]; i++) {
+      int x = beside[endA * 4 + i];
+      if (x == cut) {
+        continue;
+      }
+      int side = analysis.sideOf(cut, x);
+      for (int j = 0; j < besideCount[endB]; j++) {
+        int y = beside[endB * 4 + j];
+        if (y != cut && analysis.sideOf(cut, y) == side) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,198 @@
+package com.flowfree.service.solver;
+
+/**
+ * Iterative limited-discrepancy search over partial flow states.
+ *
+ * Every complete solution fills the same number of cells, so a cost counted
+ * in moves would be identical for all goals and give an A*-style deepening
+ * nothing to order by. Instead a move costs its rank among the ordered
+ * moves of its node: following the preferred move is free and every step
+ * away from it is a discrepancy. Each iteration searches depth-first up to
+ * a discrepancy threshold, so the heuristic's favourite lines are tried in
+ * full before any subtree that needs several unlikely choices. States that
+ * fail the admissible coverage bounds (Manhattan gaps against free cells,
+ * gap parity, two open neighbours for every free cell) are cut before they
+ * are entered.
+ *
+ * Memory stays constant: one board, one move buffer and the recursion
+ * stack. The search ends when a solution is found or when an iteration
+ * finishes without cutting anything at the threshold, which proves there
+ * is no solution. An optional {@link TranspositionTable} carries dead states
+ * across iterations; only subtrees explored without any threshold cut are
+ * recorded, since anything else was not fully refuted.
+ */
+public class DiscrepancySolver {
+  // Dead subtrees smaller than this are cheaper to re-search than to store
+  private static final int MIN_RECORDED_WORK = 4;
+
+  private final FlowBoard board;
+  private final FlowSolver rules;
+  private final TranspositionTable table;
+  private final SearchStats stats;
+  private final int[] moves;
+  private long cutoffs;
+  private int iterations;
+  private int threshold;
+  private int nextThreshold;
+  private int[][] solution;
+  private boolean aborted;
+
+  public DiscrepancySolver(FlowBoard board) {
+    this(board, null, null);
+  }
+
+  public DiscrepancySolver(FlowBoard board, TranspositionTable table) {
+    this(board, null, table);
+  }
+
+  /**
+   * @param board   The board to solve in place
+   * @param monitor Monitor polled during the search, or null to never stop
+   *                early
+   * @param table   Table of dead states kept across iterations, or null
+   */
+  public DiscrepancySolver(FlowBoard board, SearchMonitor monitor, TranspositionTable table) {
+    this.board = board;
+    this.table = table;
+    this.rules = new FlowSolver(board, monitor);
+    this.stats = rules.getStats();
+    this.moves = new int[4 * (board.getFreeCells() + 1)];
+  }
+
+  /**
+   * Searches for a solution with increasing discrepancy thresholds. The
+   * board is restored to its starting state afterwards.
+   *
+   * @return True if a solution was found
+   */
+  public boolean solve() {
+    stats.reset();
+    iterations = 0;
+    solution = null;
+    aborted = false;
+    if (board.hasDeadCell() || !board.satisfiesCoverageBounds()) {
+      stats.prune(PruneRule.COVERAGE_BOUND);
+      stats.report();
+      return false;
+    }
+
+    threshold = 0;
+    while (true) {
+      iterations++;
+      nextThreshold = Integer.MAX_VALUE;
+      int mark = board.mark();
+      boolean found = search(0, 0);
+      board.undo(mark);
+      if (found || aborted) {
+        stats.report();
+        return found;
+      }
+      if (nextThreshold == Integer.MAX_VALUE) {
+        stats.report();
+        // Nothing was cut at the threshold, so the whole tree was refuted
+        return false;
+      }
+      threshold = nextThreshold;
+    }
+  }
+
+  /**
+   * Gets the solution found by the last call to solve as a grid of flow
+   * indices, or null if there was none.
+   */
+  public int[][] getSolution() {
+    return solution;
+  }
+
+  /**
+   * Gets the number of nodes expanded over all iterations.
+   */
+  public long getNodeCount() {
+    return stats.getNodes();
+  }
+
+  /**
+   * Checks whether the last call to solve was cut short by its monitor, in
+   * which case a false result proves nothing.
+   */
+  public boolean wasAborted() {
+    return aborted;
+  }
+
+  /**
+   * Gets the number of deepening iterations run by the last call to solve.
+   */
+  public int getIterations() {
+    return iterations;
+  }
+
+  private boolean search(int depth, int cost) {
+    if (aborted || stats.expand(depth)) {
+      // Returning as if found unwinds the search; solve checks the flag
+      aborted = true;
+      return true;
+    }
+    long hash = board.getHash();
+    if (table != null && table.isDead(hash)) {
+      stats.prune(PruneRule.TRANSPOSITION);
+      return false;
+    }
+
+    long nodesBefore = stats.getNodes();
+    long cutoffsBefore = cutoffs;
+    // Forced moves have no alternative, so they cost no discrepancies
+    int mark = board.mark();
+    boolean found = rules.propagate() && branch(depth, cost);
+    board.undo(mark);
+    if (found) {
+      return true;
+    }
+
+    long work = stats.getNodes() - nodesBefore;
+    if (table != null && cutoffs == cutoffsBefore && work >= MIN_RECORDED_WORK) {
+      table.recordDead(hash, work);
+    }
+    return false;
+  }
+
+  private boolean branch(int depth, int cost) {
+    if (board.allFlowsComplete()) {
+      if (board.getFreeCells() == 0) {
+        solution = board.toGrid();
+        return true;
+      }
+      return false;
+    }
+    if (!board.satisfiesCoverageBounds()) {
+      stats.prune(PruneRule.COVERAGE_BOUND);
+      return false;
+    }
+    int end = rules.selectEnd();
+    if (end < 0) {
+      stats.prune(PruneRule.NO_MOVES);
+      return false;
+    }
+    if (!rules.regionsAreFillable()) {
+      return false;
+    }
+
+    int base = depth * 4;
+    int count = rules.collectOrderedMoves(end, moves, base);
+    for (int i = 0; i < count; i++) {
+      // Moves are ordered, so every later move costs more than this one
+      int childCost = cost + i;
+      if (childCost > threshold) {
+        nextThreshold = Math.min(nextThreshold, childCost);
+        cutoffs++;
+        break;
+      }
+      int mark = board.mark();
+      boolean found = rules.tryMove(end, moves[base + i]) && search(depth + 1, childCost);
+      board.undo(mark);
+      if (found) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
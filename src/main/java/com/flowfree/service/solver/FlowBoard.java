@@ -0,0 +1,541 @@
+package com.flowfree.service.solver;
+
+import com.flowfree.model.Puzzle;
+
+import java.util.Arrays;
+
+/**
+ * Primitive search state used by the path-extension solver.
+ *
+ * Cells live in a flat array with a wall border laid out like
+ * {@link BitBoard}, so neighbour lookups never need bounds checks and the
+ * free and per-flow masks are kept in step for region operations. Every
+ * flow has two ends that grow towards each other and a flow is complete
+ * once its ends touch. A flow's cells must always form an induced path: a
+ * cell may only touch same-colored cells that are its predecessor or
+ * successor, which rules out branches and keeps both endpoints at degree
+ * one. All changes are recorded on an undo trail so
+ * backtracking is just rewinding to an earlier mark. Every cell also keeps
+ * the {@link LocalPatterns} code of its 3x3 neighbourhood, updated as cells
+ * fill and ends move, so local dead-end checks are table lookups. The
+ * innermost neighbour scans run through a {@link BoardKernel} picked for
+ * the board's size.
+ */
+public final class FlowBoard {
+  public static final int EMPTY = -1;
+  public static final int WALL = -2;
+
+  private final int rows;
+  private final int cols;
+  private final int stride;
+  private final int numFlows;
+  private final int[] offsets;
+  private final int[] cells;
+  private final int[] ends;
+  private final boolean[] complete;
+  private final BitBoard bits;
+  // LocalPatterns code of every cell's neighbourhood, using EMPTY, BLOCKED and OPEN_END
+  private final int[] patterns;
+  private final BoardKernel kernel;
+  private int freeCells;
+  private int completeFlows;
+  private long hash;
+
+  // Undo trail, three ints per extension: cell, (end << 1 | completed), old end
+  private int[] trail;
+  private int trailSize;
+
+  /**
+   * Creates a board from flat endpoint coordinates.
+   *
+   * @param rows      Number of rows
+   * @param cols      Number of columns
+   * @param endpoints Four ints per flow: startRow, startCol, endRow, endCol
+   */
+  public FlowBoard(int rows, int cols, int[] endpoints) {
+    this(rows, cols, endpoints, BoardKernels.forSize(rows, cols));
+  }
+
+  /**
+   * Creates a board that runs its neighbour scans through the given kernel,
+   * e.g. to compare a specialized kernel against the generic one.
+   */
+  FlowBoard(int rows, int cols, int[] endpoints, BoardKernel kernel) {
+    if (rows <= 0 || cols <= 0) {
+      throw new IllegalArgumentException("Board must have at least one cell");
+    }
+    this.rows = rows;
+    this.cols = cols;
+    this.stride = BitBoard.STRIDE;
+    this.numFlows = endpoints.length / 4;
+    this.offsets = new int[] { -stride, 1, stride, -1 };
+    this.cells = new int[(rows + 2) * stride];
+    this.ends = new int[numFlows * 2];
+    this.complete = new boolean[numFlows];
+    this.bits = new BitBoard(rows, cols, numFlows);
+    this.patterns = new int[cells.length];
+    this.kernel = kernel;
+    this.trail = new int[3 * (rows * cols + 1)];
+
+    Arrays.fill(cells, WALL);
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        cells[index(r, c)] = EMPTY;
+      }
+    }
+    freeCells = rows * cols;
+    hash = Zobrist.boardKey(rows, cols);
+
+    for (int f = 0; f < numFlows; f++) {
+      for (int half = 0; half < 2; half++) {
+        int r = endpoints[f * 4 + half * 2];
+        int c = endpoints[f * 4 + half * 2 + 1];
+        if (r < 0 || r >= rows || c < 0 || c >= cols) {
+          throw new IllegalArgumentException("Endpoint (" + r + "," + c + ") is outside the board");
+        }
+        int cell = index(r, c);
+        if (cells[cell] != EMPTY) {
+          throw new IllegalArgumentException("Endpoint (" + r + "," + c + ") is used twice");
+        }
+        cells[cell] = f;
+        bits.place(cell, f);
+        ends[f * 2 + half] = cell;
+        hash ^= Zobrist.cellKey(cell, f) ^ Zobrist.endKey(f * 2 + half, cell);
+        freeCells--;
+      }
+    }
+
+    // Flows whose endpoints already touch need no cells at all
+    for (int f = 0; f < numFlows; f++) {
+      if (isAdjacent(ends[f * 2], ends[f * 2 + 1])) {
+        complete[f] = true;
+        completeFlows++;
+      }
+    }
+
+    for (int cell = 0; cell < cells.length; cell++) {
+      for (int d = 0; d < 8; d++) {
+        int n = cell + LocalPatterns.STEPS[d];
+        int cls = n < 0 || n >= cells.length ? LocalPatterns.BLOCKED : classify(n);
+        patterns[cell] |= cls << LocalPatterns.shift(d);
+      }
+    }
+  }
+
+  /**
+   * Copy constructor. The copy starts with an empty undo trail.
+   */
+  private FlowBoard(FlowBoard other) {
+    this.rows = other.rows;
+    this.cols = other.cols;
+    this.stride = other.stride;
+    this.numFlows = other.numFlows;
+    this.offsets = other.offsets;
+    this.cells = other.cells.clone();
+    this.ends = other.ends.clone();
+    this.complete = other.complete.clone();
+    this.bits = other.bits.copy();
+    this.patterns = other.patterns.clone();
+    this.kernel = other.kernel;
+    this.freeCells = other.freeCells;
+    this.completeFlows = other.completeFlows;
+    this.hash = other.hash;
+    this.trail = new int[3 * (freeCells + 1)];
+  }
+
+  /**
+   * Creates an independent copy of the current state, e.g. to hand a
+   * subtree of the search to another thread.
+   */
+  public FlowBoard copy() {
+    return new FlowBoard(this);
+  }
+
+  /**
+   * Creates an independent copy of the state this board was in at an
+   * earlier mark, leaving this board untouched. The copy starts with an
+   * empty undo trail.
+   */
+  FlowBoard copyAt(int mark) {
+    FlowBoard copy = new FlowBoard(this);
+    copy.trail = trail.clone();
+    copy.trailSize = trailSize;
+    copy.undo(mark);
+    copy.trailSize = 0;
+    return copy;
+  }
+
+  /**
+   * Creates a board holding only the endpoints of the given puzzle.
+   * Flow indices follow the order of {@link Puzzle#getEndpoints()}.
+   */
+  public static FlowBoard fromPuzzle(Puzzle puzzle) {
+    int[] endpoints = new int[puzzle.getEndpoints().size() * 4];
+    int i = 0;
+    for (Puzzle.Endpoint endpoint : puzzle.getEndpoints()) {
+      endpoints[i++] = endpoint.startRow;
+      endpoints[i++] = endpoint.startCol;
+      endpoints[i++] = endpoint.endRow;
+      endpoints[i++] = endpoint.endCol;
+    }
+    return new FlowBoard(puzzle.getRows(), puzzle.getCols(), endpoints);
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  public int getCols() {
+    return cols;
+  }
+
+  public int getNumFlows() {
+    return numFlows;
+  }
+
+  public int getFreeCells() {
+    return freeCells;
+  }
+
+  /**
+   * Number of padded cells, i.e. the exclusive upper bound of cell indices.
+   */
+  public int getCapacity() {
+    return cells.length;
+  }
+
+  public int index(int row, int col) {
+    return BitBoard.index(row, col);
+  }
+
+  public int rowOf(int cell) {
+    return BitBoard.rowOf(cell);
+  }
+
+  public int colOf(int cell) {
+    return BitBoard.colOf(cell);
+  }
+
+  /**
+   * Gets the bitboard kept in step with this board. Callers must not modify
+   * it.
+   */
+  public BitBoard getBits() {
+    return bits;
+  }
+
+  /**
+   * Offset of the neighbour in direction 0..3 (up, right, down, left).
+   */
+  public int offset(int direction) {
+    return offsets[direction];
+  }
+
+  /**
+   * Color of a cell: a flow index, {@link #EMPTY} or {@link #WALL}.
+   */
+  public int get(int cell) {
+    return cells[cell];
+  }
+
+  /**
+   * Current cell of a flow end. End {@code 2f} started at the flow's start
+   * endpoint and end {@code 2f + 1} at its end endpoint.
+   */
+  public int getEnd(int end) {
+    return ends[end];
+  }
+
+  public boolean isComplete(int flow) {
+    return complete[flow];
+  }
+
+  public boolean isSolved() {
+    return completeFlows == numFlows && freeCells == 0;
+  }
+
+  /**
+   * Gets the Zobrist hash of the current state, covering every colored
+   * cell and the position of every flow end.
+   */
+  public long getHash() {
+    return hash;
+  }
+
+  public boolean allFlowsComplete() {
+    return completeFlows == numFlows;
+  }
+
+  /**
+   * Checks whether the cell is the growing end of an unfinished flow.
+   */
+  public boolean isLiveEnd(int cell) {
+    int flow = cells[cell];
+    return flow >= 0 && !complete[flow] && (ends[flow * 2] == cell || ends[flow * 2 + 1] == cell);
+  }
+
+  /**
+   * Checks whether the given end may grow into the cell without touching
+   * its own flow anywhere except the end it grows from and the opposite end.
+   */
+  public boolean canExtend(int end, int cell) {
+    if (cells[cell] != EMPTY) {
+      return false;
+    }
+    int flow = end >> 1;
+    int from = ends[end];
+    int other = ends[end ^ 1];
+    for (int d = 0; d < 4; d++) {
+      int n = cell + offsets[d];
+      if (cells[n] == flow && n != from && n != other) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Writes the legal target cells of an end into {@code out} starting at
+   * {@code pos}.
+   *
+   * @return Number of moves written
+   */
+  public int collectMoves(int end, int[] out, int pos) {
+    return kernel.collectMoves(cells, end >> 1, ends[end], ends[end ^ 1], out, pos);
+  }
+
+  /**
+   * Counts the legal moves of an end.
+   */
+  public int countMoves(int end) {
+    int from = ends[end];
+    int count = 0;
+    for (int d = 0; d < 4; d++) {
+      if (canExtend(end, from + offsets[d])) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Grows an end into an adjacent free cell. The caller must have checked
+   * {@link #canExtend(int, int)}.
+   */
+  public void extend(int end, int cell) {
+    int flow = end >> 1;
+    int completed = 0;
+    cells[cell] = flow;
+    bits.place(cell, flow);
+    freeCells--;
+    int from = ends[end];
+    if (isAdjacent(cell, ends[end ^ 1])) {
+      complete[flow] = true;
+      completeFlows++;
+      completed = 1;
+      reclassify(cell, LocalPatterns.EMPTY ^ LocalPatterns.BLOCKED);
+      reclassify(ends[end ^ 1], LocalPatterns.OPEN_END ^ LocalPatterns.BLOCKED);
+    } else {
+      reclassify(cell, LocalPatterns.EMPTY ^ LocalPatterns.OPEN_END);
+    }
+    reclassify(from, LocalPatterns.OPEN_END ^ LocalPatterns.BLOCKED);
+    if (trailSize + 3 > trail.length) {
+      trail = Arrays.copyOf(trail, trail.length * 2);
+    }
+    trail[trailSize++] = cell;
+    trail[trailSize++] = end << 1 | completed;
+    trail[trailSize++] = from;
+    hash ^= Zobrist.cellKey(cell, flow) ^ Zobrist.endKey(end, from) ^ Zobrist.endKey(end, cell);
+    ends[end] = cell;
+  }
+
+  /**
+   * Changes the class of a cell in the pattern codes of its eight
+   * neighbours.
+   *
+   * @param diff The old class XOR the new class
+   */
+  private void reclassify(int cell, int diff) {
+    kernel.reclassify(patterns, cell, diff);
+  }
+
+  /**
+   * Gets the pattern class of a cell as seen by a free neighbour.
+   */
+  private int classify(int cell) {
+    if (cells[cell] == EMPTY) {
+      return LocalPatterns.EMPTY;
+    }
+    return isLiveEnd(cell) ? LocalPatterns.OPEN_END : LocalPatterns.BLOCKED;
+  }
+
+  /**
+   * Gets the {@link LocalPatterns} code of a cell's neighbourhood, where
+   * free cells are EMPTY, live ends OPEN_END and everything else BLOCKED.
+   */
+  public int getPattern(int cell) {
+    return patterns[cell];
+  }
+
+  /**
+   * Lists the extensions made since a mark, two ints each: the end that
+   * moved and the cell it moved into. Replaying them in order on a board in
+   * the marked state with {@link #replay(int[])} reproduces this board.
+   */
+  public int[] getMovesSince(int mark) {
+    int[] moves = new int[(trailSize - mark) / 3 * 2];
+    for (int i = mark, j = 0; i < trailSize; i += 3) {
+      moves[j++] = trail[i + 1] >> 1;
+      moves[j++] = trail[i];
+    }
+    return moves;
+  }
+
+  /**
+   * Applies extensions listed as by {@link #getMovesSince(int)}.
+   *
+   * @throws IllegalArgumentException if a move is not legal on this board
+   */
+  public void replay(int[] moves) {
+    for (int i = 0; i + 1 < moves.length; i += 2) {
+      int end = moves[i];
+      int cell = moves[i + 1];
+      if (end < 0 || end >= numFlows * 2 || cell < 0 || cell >= cells.length
+          || complete[end >> 1] || !isAdjacent(ends[end], cell) || !canExtend(end, cell)) {
+        throw new IllegalArgumentException("Illegal move of end " + end + " into cell " + cell);
+      }
+      extend(end, cell);
+    }
+  }
+
+  /**
+   * Returns the current trail position for a later {@link #undo(int)}.
+   */
+  public int mark() {
+    return trailSize;
+  }
+
+  /**
+   * Rewinds every extension made since the given mark.
+   */
+  public void undo(int mark) {
+    while (trailSize > mark) {
+      int oldEnd = trail[--trailSize];
+      int endAndFlag = trail[--trailSize];
+      int cell = trail[--trailSize];
+      int end = endAndFlag >> 1;
+      if ((endAndFlag & 1) != 0) {
+        complete[end >> 1] = false;
+        completeFlows--;
+        reclassify(cell, LocalPatterns.BLOCKED ^ LocalPatterns.EMPTY);
+        reclassify(ends[end ^ 1], LocalPatterns.BLOCKED ^ LocalPatterns.OPEN_END);
+      } else {
+        reclassify(cell, LocalPatterns.OPEN_END ^ LocalPatterns.EMPTY);
+      }
+      reclassify(oldEnd, LocalPatterns.BLOCKED ^ LocalPatterns.OPEN_END);
+      hash ^= Zobrist.cellKey(cell, end >> 1) ^ Zobrist.endKey(end, oldEnd) ^ Zobrist.endKey(end, cell);
+      ends[end] = oldEnd;
+      bits.remove(cell, cells[cell]);
+      cells[cell] = EMPTY;
+      freeCells++;
+    }
+  }
+
+  /**
+   * Counts the neighbours of a cell that a path could still use: free cells
+   * and live flow ends.
+   */
+  public int countOpenNeighbors(int cell) {
+    return LocalPatterns.countOpen(patterns[cell]);
+  }
+
+  /**
+   * Checks the free neighbours of a cell for dead ends: a free cell needs a
+   * way in and a way out, so it must keep at least two open neighbours.
+   */
+  public boolean hasDeadEndAround(int cell) {
+    return kernel.hasDeadEndAround(cells, patterns, cell);
+  }
+
+  /**
+   * Finds the first free neighbour of a cell with exactly two open
+   * neighbours, i.e. one that a path can only pass straight through.
+   *
+   * @return The neighbour, or -1 if there is none
+   */
+  int squeezedNeighbor(int cell) {
+    return kernel.squeezedNeighbor(cells, patterns, cell);
+  }
+
+  /**
+   * Finds an open neighbour of a cell, i.e. a free cell or live end, other
+   * than the given one.
+   *
+   * @return The neighbour, or {@code exclude} if there is none
+   */
+  int otherOpenNeighbor(int cell, int exclude) {
+    return kernel.otherOpenNeighbor(patterns, cell, exclude);
+  }
+
+  /**
+   * Scans the whole board for free cells with fewer than two open
+   * neighbours, using the bitboard to count neighbours a row at a time.
+   */
+  public boolean hasDeadCell() {
+    long[] open = bits.newMask();
+    System.arraycopy(bits.getFree(), 0, open, 0, open.length);
+    for (int f = 0; f < numFlows; f++) {
+      if (!complete[f]) {
+        BitBoard.setBit(open, ends[f * 2]);
+        BitBoard.setBit(open, ends[f * 2 + 1]);
+      }
+    }
+    return kernel.hasDeadCell(bits.getFree(), open);
+  }
+
+  /**
+   * Gets a lower bound on the cells still needed to join every unfinished
+   * flow: the Manhattan gap between its two ends, minus one.
+   */
+  public int minimumRemainingCells() {
+    int need = 0;
+    for (int f = 0; f < numFlows; f++) {
+      if (!complete[f]) {
+        int a = ends[f * 2];
+        int b = ends[f * 2 + 1];
+        need += Math.abs(rowOf(a) - rowOf(b)) + Math.abs(colOf(a) - colOf(b)) - 1;
+      }
+    }
+    return need;
+  }
+
+  /**
+   * Checks the admissible coverage bounds: the free cells must be enough to
+   * bridge every Manhattan gap, and since the grid is bipartite a flow whose
+   * ends are d apart always needs d - 1 cells plus an even detour, so the
+   * free cells must match the gaps in parity.
+   */
+  public boolean satisfiesCoverageBounds() {
+    int need = minimumRemainingCells();
+    return need <= freeCells && ((freeCells - need) & 1) == 0;
+  }
+
+  private boolean isAdjacent(int a, int b) {
+    int diff = a - b;
+    return diff == 1 || diff == -1 || diff == stride || diff == -stride;
+  }
+
+  /**
+   * Copies the board into a row-major grid of flow indices, with
+   * {@link #EMPTY} for unfilled cells.
+   */
+  public int[][] toGrid() {
+    int[][] grid = new int[rows][cols];
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        grid[r][c] = cells[index(r, c)];
+      }
+    }
+    return grid;
+  }
+}
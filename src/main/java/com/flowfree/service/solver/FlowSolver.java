@@ -0,0 +1,614 @@
+package com.flowfree.service.solver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Depth-first solver that grows flows from their endpoints.
+ *
+ * At every node it first applies forced moves to a fixpoint with a
+ * {@link Propagator}, then looks at the live end of every unfinished flow
+ * and branches on the one with the fewest legal moves. Moves that leave a free
+ * cell without two open neighbours are rejected on the spot, and so are
+ * boards whose free cells have split into regions no flow can fill or where
+ * two flows need the same one-cell corridor. The same
+ * search either stops at the first solution or keeps counting up to a
+ * limit. With a {@link TranspositionTable} attached, subtrees proven to hold
+ * no solution are recorded by state hash and skipped when the same partial
+ * board is reached again through a different move order. Progress, prune
+ * counts and stop requests go through an optional {@link SearchMonitor}.
+ *
+ * The search runs on an explicit stack of frames, one per branching level,
+ * rather than on the call stack, so board size is bounded by memory and not
+ * by thread stack depth. Since a frame is just a few numbers, the whole
+ * search state can also be written to a checkpoint file at intervals and
+ * when the monitor stops the search; a later run, in another process or on
+ * another machine, picks it up with {@link #restoreCheckpoint()} and
+ * {@link #resume()} where it left off.
+ */
+public class FlowSolver {
+  // Dead subtrees smaller than this are cheaper to re-search than to store
+  private static final int MIN_RECORDED_WORK = 4;
+  // Outcomes of entering a node
+  private static final int DEAD = 0;
+  private static final int PUSHED = 1;
+  private static final int STOP = 2;
+  private static final int CHECKPOINT_MAGIC = 0x464C4350;
+  private static final int CHECKPOINT_VERSION = 1;
+  // Loop iterations between looks at the clock for a due checkpoint
+  private static final int CHECKPOINT_POLL = 1024;
+
+  private final FlowBoard board;
+  private final TranspositionTable table;
+  private final SearchStats stats;
+  private final CorridorAnalysis analysis;
+  private final RegionPruner regions;
+  private final CorridorPruner corridors;
+  private final Propagator propagator;
+  private final int[] moves;
+  private final List<int[][]> witnesses = new ArrayList<>();
+  private long solutions;
+  private long limit;
+  private boolean aborted;
+
+  // Per frame: the node's hash, counters and mark on entry for recording it as dead, then
+  // the end branched on, the mark after propagation and the move cursor
+  private final long[] frameHash;
+  private final long[] frameNodes;
+  private final long[] frameSolutions;
+  private final int[] frameEntry;
+  private final int[] frameEnd;
+  private final int[] frameMark;
+  private final int[] frameNext;
+  private final int[] frameCount;
+  private int depth;
+  private int rootMark;
+
+  private Path checkpointFile;
+  private long checkpointNanos;
+  private long lastCheckpoint;
+  private int untilPoll;
+
+  public FlowSolver(FlowBoard board) {
+    this(board, null);
+  }
+
+  /**
+   * Creates a solver that reports to a monitor and gives up when it says so.
+   *
+   * @param board   The board to solve in place
+   * @param monitor Monitor polled during the search, or null to never stop
+   *                early
+   */
+  public FlowSolver(FlowBoard board, SearchMonitor monitor) {
+    this(board, monitor, null);
+  }
+
+  /**
+   * Creates a solver that records and skips dead states in a shared table.
+   *
+   * @param board   The board to solve in place
+   * @param monitor Monitor polled during the search, or null to never stop
+   *                early
+   * @param table   Table of dead states, or null to search without one
+   */
+  public FlowSolver(FlowBoard board, SearchMonitor monitor, TranspositionTable table) {
+    this.board = board;
+    this.table = table;
+    this.stats = new SearchStats(monitor);
+    this.analysis = new CorridorAnalysis(board.getRows(), board.getCols());
+    this.regions = new RegionPruner(board, analysis);
+    this.corridors = new CorridorPruner(board, analysis);
+    this.propagator = new Propagator(board, this, stats);
+    // Each filled cell adds one level to the search, with up to 4 moves per level
+    int levels = board.getFreeCells() + 1;
+    this.moves = new int[4 * levels];
+    this.frameHash = new long[levels];
+    this.frameNodes = new long[levels];
+    this.frameSolutions = new long[levels];
+    this.frameEntry = new int[levels];
+    this.frameEnd = new int[levels];
+    this.frameMark = new int[levels];
+    this.frameNext = new int[levels];
+    this.frameCount = new int[levels];
+  }
+
+  /**
+   * Makes the search save its state to a file every so often and when its
+   * monitor stops it. The file is replaced atomically on every save and
+   * deleted once a search finishes.
+   *
+   * @param file           Checkpoint file, or null to stop checkpointing
+   * @param intervalMillis Time between saves
+   */
+  public void setCheckpoint(Path file, long intervalMillis) {
+    this.checkpointFile = file;
+    this.checkpointNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+  }
+
+  /**
+   * Searches for a solution that connects every flow and covers every cell.
+   *
+   * @return True if a solution was found
+   */
+  public boolean solve() {
+    return countSolutions(1) > 0;
+  }
+
+  /**
+   * Counts solutions, stopping as soon as {@code limit} have been found.
+   * The board is restored to its starting state afterwards.
+   *
+   * @param limit Number of solutions after which to stop
+   * @return Number of solutions found, at most {@code limit}
+   */
+  public long countSolutions(long limit) {
+    this.limit = limit;
+    stats.reset();
+    solutions = 0;
+    aborted = false;
+    witnesses.clear();
+    depth = 0;
+    rootMark = board.mark();
+    if (limit > 0) {
+      if (board.hasDeadCell()) {
+        stats.prune(PruneRule.DEAD_END);
+      } else if (enter() == PUSHED) {
+        run();
+      }
+    }
+    return finish();
+  }
+
+  /**
+   * Continues a search loaded by {@link #restoreCheckpoint()} with the
+   * limit it was started with. Counts, witnesses and statistics include
+   * the work done before the checkpoint.
+   *
+   * @return Number of solutions found, at most the limit
+   */
+  public long resume() {
+    aborted = false;
+    run();
+    return finish();
+  }
+
+  private long finish() {
+    depth = 0;
+    board.undo(rootMark);
+    if (checkpointFile != null && !aborted) {
+      try {
+        Files.deleteIfExists(checkpointFile);
+      } catch (IOException e) {
+        // A stale checkpoint is only rejected or redone later; the result stands
+      }
+    }
+    stats.report();
+    return solutions;
+  }
+
+  /**
+   * Runs the search until the stack is empty or it is told to stop.
+   */
+  private void run() {
+    lastCheckpoint = System.nanoTime();
+    untilPoll = CHECKPOINT_POLL;
+    while (depth > 0) {
+      int d = depth - 1;
+      board.undo(frameMark[d]);
+      if (checkpointFile != null && --untilPoll == 0) {
+        untilPoll = CHECKPOINT_POLL;
+        if (System.nanoTime() - lastCheckpoint >= checkpointNanos) {
+          saveCheckpoint();
+        }
+      }
+      if (frameNext[d] == frameCount[d]) {
+        depth--;
+        leave(frameHash[d], frameNodes[d], frameSolutions[d], frameEntry[d]);
+        continue;
+      }
+      int move = moves[d * 4 + frameNext[d]++];
+      if (tryMove(frameEnd[d], move) && enter() == STOP) {
+        if (aborted && checkpointFile != null) {
+          // The node being entered did no work yet, so its move is tried again on resume
+          frameNext[d]--;
+          board.undo(frameMark[d]);
+          saveCheckpoint();
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Expands the node of the current board: propagates it and, unless that
+   * settles it, pushes a frame for branching on its most constrained end.
+   */
+  private int enter() {
+    if (aborted || stats.expand(depth)) {
+      aborted = true;
+      return STOP;
+    }
+    if (board.allFlowsComplete()) {
+      return recordSolution() ? STOP : DEAD;
+    }
+
+    long hash = board.getHash();
+    if (table != null && table.isDead(hash)) {
+      stats.prune(PruneRule.TRANSPOSITION);
+      return DEAD;
+    }
+    long nodesBefore = stats.getNodes();
+    long solutionsBefore = solutions;
+    int entry = board.mark();
+    if (!propagator.propagate()) {
+      return leave(hash, nodesBefore, solutionsBefore, entry);
+    }
+    if (board.allFlowsComplete()) {
+      if (recordSolution()) {
+        board.undo(entry);
+        return STOP;
+      }
+      return leave(hash, nodesBefore, solutionsBefore, entry);
+    }
+    int end = selectEnd();
+    if (end < 0) {
+      stats.prune(PruneRule.NO_MOVES);
+      return leave(hash, nodesBefore, solutionsBefore, entry);
+    }
+    if (!regionsAreFillable()) {
+      return leave(hash, nodesBefore, solutionsBefore, entry);
+    }
+    frameHash[depth] = hash;
+    frameNodes[depth] = nodesBefore;
+    frameSolutions[depth] = solutionsBefore;
+    frameEntry[depth] = entry;
+    frameEnd[depth] = end;
+    frameMark[depth] = board.mark();
+    frameNext[depth] = 0;
+    frameCount[depth] = collectOrderedMoves(end, moves, depth * 4);
+    depth++;
+    return PUSHED;
+  }
+
+  /**
+   * Leaves a node whose subtree is exhausted, recording it as dead if it
+   * held no solution and took enough work to be worth remembering.
+   */
+  private int leave(long hash, long nodesBefore, long solutionsBefore, int entry) {
+    board.undo(entry);
+    long work = stats.getNodes() - nodesBefore;
+    if (table != null && solutions == solutionsBefore && work >= MIN_RECORDED_WORK) {
+      table.recordDead(hash, work);
+    }
+    return DEAD;
+  }
+
+  /**
+   * Gets the first solution found by the last search as a grid of flow
+   * indices, or null if there was none.
+   */
+  public int[][] getSolution() {
+    return witnesses.isEmpty() ? null : witnesses.get(0);
+  }
+
+  /**
+   * Gets the first solutions found by the last search, at most
+   * {@link SolutionCount#MAX_WITNESSES} of them.
+   */
+  public List<int[][]> getWitnesses() {
+    return witnesses;
+  }
+
+  /**
+   * Gets the number of search nodes expanded by the last search.
+   */
+  public long getNodeCount() {
+    return stats.getNodes();
+  }
+
+  /**
+   * Gets how often the last search pruned a state by the given rule.
+   */
+  public long getPruneCount(PruneRule rule) {
+    return stats.getPrunes(rule);
+  }
+
+  /**
+   * Checks whether the last search was cut short by its monitor, in which
+   * case a false result from {@link #solve()} proves nothing.
+   */
+  public boolean wasAborted() {
+    return aborted;
+  }
+
+  /**
+   * Counts the board as a solution if every cell is covered.
+   *
+   * @return True once the limit is reached
+   */
+  private boolean recordSolution() {
+    if (board.getFreeCells() != 0) {
+      return false;
+    }
+    if (witnesses.size() < SolutionCount.MAX_WITNESSES) {
+      witnesses.add(board.toGrid());
+    }
+    return ++solutions >= limit;
+  }
+
+  /**
+   * Applies forced moves to a fixpoint. The moves stay applied whatever the
+   * outcome; callers undo them through the board.
+   *
+   * @return False if propagation proved the board dead
+   */
+  boolean propagate() {
+    return propagator.propagate();
+  }
+
+  /**
+   * Picks the live end with the fewest legal moves.
+   *
+   * @return The end index, or -1 if some live end cannot move at all
+   */
+  int selectEnd() {
+    int best = -1;
+    int bestCount = Integer.MAX_VALUE;
+    for (int f = 0; f < board.getNumFlows(); f++) {
+      if (board.isComplete(f)) {
+        continue;
+      }
+      for (int end = f * 2; end <= f * 2 + 1; end++) {
+        int count = board.countMoves(end);
+        if (count == 0) {
+          return -1;
+        }
+        if (count < bestCount) {
+          best = end;
+          bestCount = count;
+          if (count == 1) {
+            return best;
+          }
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Checks that every free region can still be filled and every unfinished
+   * flow can still be joined without sharing a corridor cell, counting the
+   * prune if not.
+   */
+  boolean regionsAreFillable() {
+    analysis.analyze(board.getBits().getFree());
+    PruneRule violation = regions.check();
+    if (violation == null) {
+      violation = corridors.check();
+    }
+    if (violation != null) {
+      stats.prune(violation);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Writes the legal moves of an end into {@code out}, ordered so cells
+   * hugging walls and other flows come first; they are the ones most likely
+   * to be forced later.
+   *
+   * @return Number of moves written
+   */
+  int collectOrderedMoves(int end, int[] out, int base) {
+    int count = board.collectMoves(end, out, base);
+    for (int i = base + 1; i < base + count; i++) {
+      int cell = out[i];
+      int key = board.countOpenNeighbors(cell);
+      int j = i - 1;
+      while (j >= base && board.countOpenNeighbors(out[j]) > key) {
+        out[j + 1] = out[j];
+        j--;
+      }
+      out[j + 1] = cell;
+    }
+    return count;
+  }
+
+  /**
+   * Extends an end and checks the cells around the move for dead ends. The
+   * move stays applied either way; callers undo it through the board.
+   *
+   * @return False if the move leaves the board unsolvable
+   */
+  boolean tryMove(int end, int cell) {
+    int from = board.getEnd(end);
+    board.extend(end, cell);
+    if (board.hasDeadEndAround(from) || board.hasDeadEndAround(cell)
+        || board.isComplete(end >> 1) && board.hasDeadEndAround(board.getEnd(end ^ 1))) {
+      stats.prune(PruneRule.DEAD_END);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Writes the search state to the checkpoint file. The board is stored as
+   * its original endpoints plus every move made since, frames as the
+   * numbers they hold; the dead-state table is not saved and simply refills
+   * after a restore. A failed save is skipped, keeping the previous file.
+   */
+  private void saveCheckpoint() {
+    lastCheckpoint = System.nanoTime();
+    Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeInt(CHECKPOINT_VERSION);
+        writeInts(out, geometry());
+        writeInts(out, board.getMovesSince(0));
+        out.writeInt(rootMark);
+        out.writeLong(limit);
+        out.writeLong(solutions);
+        out.writeLong(stats.getNodes());
+        for (PruneRule rule : PruneRule.values()) {
+          out.writeLong(stats.getPrunes(rule));
+        }
+        out.writeInt(witnesses.size());
+        for (int[][] witness : witnesses) {
+          for (int[] row : witness) {
+            writeInts(out, row);
+          }
+        }
+        out.writeInt(depth);
+        for (int d = 0; d < depth; d++) {
+          out.writeLong(frameHash[d]);
+          out.writeLong(frameNodes[d]);
+          out.writeLong(frameSolutions[d]);
+          out.writeInt(frameEntry[d]);
+          out.writeInt(frameEnd[d]);
+          out.writeInt(frameMark[d]);
+          out.writeInt(frameNext[d]);
+          writeInts(out, Arrays.copyOfRange(moves, d * 4, d * 4 + frameCount[d]));
+        }
+      }
+      Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // Keep searching; the previous checkpoint, if any, is still intact
+    }
+  }
+
+  /**
+   * Loads the search state saved in the checkpoint file, after which
+   * {@link #resume()} continues the search. The board must be in the state
+   * it was in when the checkpointed search started.
+   *
+   * @return False if there is no checkpoint file
+   * @throws IOException If the file cannot be read or was saved for
+   *                     another board
+   */
+  public boolean restoreCheckpoint() throws IOException {
+    if (checkpointFile == null) {
+      throw new IllegalStateException("No checkpoint file set");
+    }
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(checkpointFile)))) {
+      if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+        throw new IOException("Not a checkpoint: " + checkpointFile);
+      }
+      if (!Arrays.equals(readInts(in), geometry())) {
+        throw new IOException("Checkpoint is for another board: " + checkpointFile);
+      }
+      int[] path = readInts(in);
+      int savedRoot = in.readInt();
+      int[] prefix = board.getMovesSince(0);
+      if (savedRoot != board.mark() || prefix.length > path.length
+          || !Arrays.equals(prefix, Arrays.copyOf(path, prefix.length))) {
+        throw new IOException("Checkpoint starts from another board state: " + checkpointFile);
+      }
+      rootMark = savedRoot;
+      try {
+        board.replay(Arrays.copyOfRange(path, prefix.length, path.length));
+      } catch (IllegalArgumentException e) {
+        board.undo(rootMark);
+        throw new IOException("Corrupt checkpoint: " + checkpointFile, e);
+      }
+      limit = in.readLong();
+      solutions = in.readLong();
+      long nodes = in.readLong();
+      long[] prunes = new long[PruneRule.values().length];
+      for (int i = 0; i < prunes.length; i++) {
+        prunes[i] = in.readLong();
+      }
+      stats.reset();
+      stats.restore(nodes, prunes);
+      witnesses.clear();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        int[][] witness = new int[board.getRows()][];
+        for (int r = 0; r < witness.length; r++) {
+          witness[r] = readInts(in);
+        }
+        witnesses.add(witness);
+      }
+      depth = in.readInt();
+      if (depth < 0 || depth > frameEnd.length) {
+        throw new IOException("Corrupt checkpoint: " + checkpointFile);
+      }
+      for (int d = 0; d < depth; d++) {
+        frameHash[d] = in.readLong();
+        frameNodes[d] = in.readLong();
+        frameSolutions[d] = in.readLong();
+        frameEntry[d] = in.readInt();
+        frameEnd[d] = in.readInt();
+        frameMark[d] = in.readInt();
+        frameNext[d] = in.readInt();
+        int[] frameMoves = readInts(in);
+        if (frameMoves.length > 4) {
+          throw new IOException("Corrupt checkpoint: " + checkpointFile);
+        }
+        frameCount[d] = frameMoves.length;
+        System.arraycopy(frameMoves, 0, moves, d * 4, frameMoves.length);
+      }
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Describes the board independently of any moves: its size and the
+   * cells its flows start from.
+   */
+  private int[] geometry() {
+    FlowBoard origin = board.copyAt(0);
+    int[] geometry = new int[3 + 2 * board.getNumFlows()];
+    geometry[0] = board.getRows();
+    geometry[1] = board.getCols();
+    geometry[2] = board.getNumFlows();
+    for (int end = 0; end < 2 * board.getNumFlows(); end++) {
+      geometry[3 + end] = origin.getEnd(end);
+    }
+    return geometry;
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+    out.writeInt(values.length);
+    for (int value : values) {
+      out.writeInt(value);
+    }
+  }
+
+  private static int[] readInts(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > 1 << 24) {
+      throw new IOException("Bad length " + length);
+    }
+    int[] values = new int[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = in.readInt();
+    }
+    return values;
+  }
+
+  /**
+   * Gets the counters shared with searches that reuse this solver's rules.
+   */
+  SearchStats getStats() {
+    return stats;
+  }
+}
@@ -0,0 +1,414 @@
+package com.flowfree.service.solver;
+
+import com.flowfree.model.Puzzle;
+
+import java.util.Arrays;
+
+/**
+ * Exact solution counter that sweeps the board cell by cell.
+ *
+ * Like {@link FlowBoard}, a solution is a coloring of every cell in which
+ * each flow's cells form an induced path: an endpoint has exactly one
+ * neighbour of its own flow, every other cell exactly two. Cells are colored
+ * in row-major order along the shorter side of the board, and all partial
+ * colorings are merged by their frontier, the last cell colored in each
+ * column. For every frontier cell the state keeps its flow, how many more
+ * same-flow neighbours it still needs and, while it needs any, which
+ * component of its flow it belongs to; each state carries the number of
+ * partial colorings that reach it. Since the cells behind the frontier no
+ * longer constrain anything, the number of states, and with it the running
+ * time, is exponential only in the width of the board, whatever its length.
+ *
+ * Counts saturate at {@link Long#MAX_VALUE}.
+ */
+public final class FrontierCounter {
+  private static final int NONE = 0;
+
+  private final int height;
+  private final int width;
+  private final int numFlows;
+  // Flow of each endpoint cell in sweep order, or -1
+  private final int[] endpointFlow;
+  // Sweep index of the first endpoint of every flow
+  private final int[] firstEndpoint;
+  private final SearchMonitor monitor;
+
+  // State packing: flow + 1, remaining need and component label of every column
+  private final int colorBits;
+  private final int labelBits;
+  private final int fieldBits;
+  private final int perWord;
+  private final int words;
+
+  private long statesExpanded;
+  private int peakStates;
+  private boolean aborted;
+
+  /**
+   * Creates a counter from flat endpoint coordinates.
+   *
+   * @param endpoints Four ints per flow: startRow, startCol, endRow, endCol
+   */
+  public FrontierCounter(int rows, int cols, int[] endpoints) {
+    this(rows, cols, endpoints, null);
+  }
+
+  /**
+   * Creates a counter that gives up once the monitor says so.
+   *
+   * @param endpoints Four ints per flow: startRow, startCol, endRow, endCol
+   * @param monitor   Monitor to poll and report to, or null
+   */
+  public FrontierCounter(int rows, int cols, int[] endpoints, SearchMonitor monitor) {
+    if (rows <= 0 || cols <= 0) {
+      throw new IllegalArgumentException("Board must have at least one cell");
+    }
+    this.numFlows = endpoints.length / 4;
+    if (numFlows > 62) {
+      throw new IllegalArgumentException("At most 62 flows are supported, got " + numFlows);
+    }
+    // Sweep along the longer side so the frontier spans the shorter one
+    boolean transpose = cols > rows;
+    this.height = transpose ? cols : rows;
+    this.width = transpose ? rows : cols;
+    this.monitor = monitor;
+    this.endpointFlow = new int[height * width];
+    this.firstEndpoint = new int[numFlows];
+    Arrays.fill(endpointFlow, -1);
+    for (int f = 0; f < numFlows; f++) {
+      int a = sweepIndex(transpose, endpoints[f * 4], endpoints[f * 4 + 1]);
+      int b = sweepIndex(transpose, endpoints[f * 4 + 2], endpoints[f * 4 + 3]);
+      if (endpointFlow[a] >= 0 || endpointFlow[b] >= 0 || a == b) {
+        throw new IllegalArgumentException("Endpoints of flow " + f + " overlap another endpoint");
+      }
+      endpointFlow[a] = f;
+      endpointFlow[b] = f;
+      firstEndpoint[f] = Math.min(a, b);
+    }
+
+    this.colorBits = 32 - Integer.numberOfLeadingZeros(numFlows);
+    this.labelBits = 32 - Integer.numberOfLeadingZeros(width);
+    this.fieldBits = colorBits + 2 + labelBits;
+    this.perWord = 64 / fieldBits;
+    this.words = (width + perWord - 1) / perWord;
+  }
+
+  /**
+   * Creates a counter for a puzzle. Flow indices follow the order of
+   * {@link Puzzle#getEndpoints()}.
+   */
+  public static FrontierCounter fromPuzzle(Puzzle puzzle, SearchMonitor monitor) {
+    int[] endpoints = new int[puzzle.getEndpoints().size() * 4];
+    int i = 0;
+    for (Puzzle.Endpoint endpoint : puzzle.getEndpoints()) {
+      endpoints[i++] = endpoint.startRow;
+      endpoints[i++] = endpoint.startCol;
+      endpoints[i++] = endpoint.endRow;
+      endpoints[i++] = endpoint.endCol;
+    }
+    return new FrontierCounter(puzzle.getRows(), puzzle.getCols(), endpoints, monitor);
+  }
+
+  private int sweepIndex(boolean transpose, int row, int col) {
+    return transpose ? col * width + row : row * width + col;
+  }
+
+  /**
+   * Counts every solution.
+   *
+   * @return The number of solutions, or -1 if the monitor stopped the sweep
+   */
+  public long count() {
+    statesExpanded = 0;
+    peakStates = 1;
+    aborted = false;
+    StateMap current = new StateMap(words);
+    StateMap next = new StateMap(words);
+    // Above the first row every column holds a cell of no flow that needs nothing
+    current.add(new long[words], 1);
+
+    int[] color = new int[width];
+    int[] need = new int[width];
+    int[] label = new int[width];
+    int[] nextColor = new int[width];
+    int[] nextNeed = new int[width];
+    int[] nextLabel = new int[width];
+    int[] relabel = new int[width + 2];
+    long[] key = new long[words];
+
+    for (int r = 0; r < height; r++) {
+      for (int c = 0; c < width; c++) {
+        int index = r * width + c;
+        int downs = r < height - 1 ? 1 : 0;
+        int future = (c < width - 1 ? 1 : 0) + downs;
+        int fixed = endpointFlow[index];
+        next.clear();
+        for (int slot = 0; slot < current.capacity; slot++) {
+          long ways = current.counts[slot];
+          if (ways == 0) {
+            continue;
+          }
+          if ((++statesExpanded & 0xFFF) == 0 && stopped()) {
+            return -1;
+          }
+          decode(current.keys, slot * words, color, need, label);
+          long live = 0;
+          for (int j = 0; j < width; j++) {
+            if (need[j] > 0) {
+              live |= 1L << color[j];
+            }
+          }
+
+          int upColor = color[c];
+          int upNeed = need[c];
+          int leftColor = c > 0 ? color[c - 1] : NONE;
+          int leftNeed = c > 0 ? need[c - 1] : 0;
+          int from = fixed >= 0 ? fixed : 0;
+          int to = fixed >= 0 ? fixed : numFlows - 1;
+          for (int f = from; f <= to; f++) {
+            int code = f + 1;
+            boolean joinUp = upColor == code;
+            boolean joinLeft = leftColor == code;
+            // The cell above leaves the frontier and must get exactly what it still needs
+            if (upNeed != (joinUp ? 1 : 0)) {
+              continue;
+            }
+            int leftAfter = leftNeed - (joinLeft ? 1 : 0);
+            if (leftAfter < 0 || leftAfter > downs) {
+              continue;
+            }
+            int cellNeed = (fixed >= 0 ? 1 : 2) - (joinUp ? 1 : 0) - (joinLeft ? 1 : 0);
+            if (cellNeed < 0 || cellNeed > future) {
+              continue;
+            }
+            if (!joinUp && !joinLeft && firstEndpoint[f] < index && (live & 1L << code) == 0) {
+              // The flow is already complete, so any new piece of it would be stray
+              continue;
+            }
+            if (joinUp && joinLeft && label[c] == label[c - 1]) {
+              // Closing a loop
+              continue;
+            }
+
+            System.arraycopy(color, 0, nextColor, 0, width);
+            System.arraycopy(need, 0, nextNeed, 0, width);
+            System.arraycopy(label, 0, nextLabel, 0, width);
+            int cellLabel;
+            if (joinUp && joinLeft) {
+              cellLabel = label[c - 1];
+              for (int j = 0; j < width; j++) {
+                if (nextLabel[j] == label[c]) {
+                  nextLabel[j] = cellLabel;
+                }
+              }
+            } else if (joinUp) {
+              cellLabel = label[c];
+            } else if (joinLeft) {
+              cellLabel = label[c - 1];
+            } else {
+              cellLabel = width + 1;
+            }
+            nextColor[c] = code;
+            nextNeed[c] = cellNeed;
+            nextLabel[c] = cellNeed > 0 ? cellLabel : 0;
+            if (c > 0) {
+              nextNeed[c - 1] = leftAfter;
+              if (leftAfter == 0) {
+                nextLabel[c - 1] = 0;
+              }
+            }
+            normalize(nextLabel, relabel);
+            encode(nextColor, nextNeed, nextLabel, key);
+            next.add(key, ways);
+          }
+        }
+        StateMap swap = current;
+        current = next;
+        next = swap;
+        peakStates = Math.max(peakStates, current.size);
+        if (monitor != null) {
+          monitor.addNodes(current.size);
+        }
+        if (current.size == 0) {
+          return 0;
+        }
+        if (stopped()) {
+          return -1;
+        }
+      }
+    }
+
+    // Every cell of the last row needs nothing more, so every state left is complete
+    long total = 0;
+    for (int slot = 0; slot < current.capacity; slot++) {
+      total = saturatedAdd(total, current.counts[slot]);
+    }
+    return total;
+  }
+
+  /**
+   * Checks whether the puzzle has any solution.
+   */
+  public boolean isSolvable() {
+    return count() > 0;
+  }
+
+  /**
+   * Checks whether the last sweep was cut short by the monitor.
+   */
+  public boolean wasAborted() {
+    return aborted;
+  }
+
+  /**
+   * Gets the number of frontier states the last sweep expanded.
+   */
+  public long getStatesExpanded() {
+    return statesExpanded;
+  }
+
+  /**
+   * Gets the largest number of distinct frontier states held at once.
+   */
+  public int getPeakStates() {
+    return peakStates;
+  }
+
+  /**
+   * Gets the number of columns the frontier spans.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  private boolean stopped() {
+    if (monitor != null && monitor.shouldStop()) {
+      aborted = true;
+    }
+    return aborted;
+  }
+
+  /**
+   * Renumbers component labels in order of first appearance, so equal
+   * frontiers get equal keys.
+   */
+  private static void normalize(int[] label, int[] relabel) {
+    Arrays.fill(relabel, 0);
+    int nextLabel = 1;
+    for (int j = 0; j < label.length; j++) {
+      int l = label[j];
+      if (l == 0) {
+        continue;
+      }
+      if (relabel[l] == 0) {
+        relabel[l] = nextLabel++;
+      }
+      label[j] = relabel[l];
+    }
+  }
+
+  private void encode(int[] color, int[] need, int[] label, long[] key) {
+    Arrays.fill(key, 0);
+    for (int j = 0; j < width; j++) {
+      long field = color[j] | (long) need[j] << colorBits | (long) label[j] << (colorBits + 2);
+      key[j / perWord] |= field << (j % perWord * fieldBits);
+    }
+  }
+
+  private void decode(long[] keys, int base, int[] color, int[] need, int[] label) {
+    long fieldMask = (1L << fieldBits) - 1;
+    for (int j = 0; j < width; j++) {
+      long field = keys[base + j / perWord] >>> (j % perWord * fieldBits) & fieldMask;
+      color[j] = (int) (field & ((1 << colorBits) - 1));
+      need[j] = (int) (field >>> colorBits & 3);
+      label[j] = (int) (field >>> (colorBits + 2));
+    }
+  }
+
+  private static long saturatedAdd(long a, long b) {
+    long sum = a + b;
+    return sum < 0 ? Long.MAX_VALUE : sum;
+  }
+
+  /**
+   * Open-addressed map from packed frontier states to counts. Keys of
+   * {@code words} longs live side by side in one array; a count of zero
+   * marks an empty slot.
+   */
+  private static final class StateMap {
+    private final int words;
+    long[] keys;
+    long[] counts;
+    int capacity;
+    int size;
+
+    StateMap(int words) {
+      this.words = words;
+      this.capacity = 16;
+      this.keys = new long[capacity * words];
+      this.counts = new long[capacity];
+    }
+
+    void clear() {
+      if (size > 0) {
+        Arrays.fill(counts, 0);
+        size = 0;
+      }
+    }
+
+    void add(long[] key, long ways) {
+      if (size * 2 >= capacity) {
+        grow();
+      }
+      int slot = find(keys, counts, capacity, key, 0);
+      if (counts[slot] == 0) {
+        System.arraycopy(key, 0, keys, slot * words, words);
+        counts[slot] = ways;
+        size++;
+      } else {
+        counts[slot] = saturatedAdd(counts[slot], ways);
+      }
+    }
+
+    /**
+     * Finds the slot holding a key, or the empty slot it would go into.
+     */
+    private int find(long[] table, long[] tableCounts, int tableCapacity, long[] key, int base) {
+      long h = 0;
+      for (int w = 0; w < words; w++) {
+        h = (h ^ key[base + w]) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+      }
+      int slot = (int) h & (tableCapacity - 1);
+      while (tableCounts[slot] != 0 && !matches(table, slot * words, key, base)) {
+        slot = (slot + 1) & (tableCapacity - 1);
+      }
+      return slot;
+    }
+
+    private boolean matches(long[] table, int at, long[] key, int base) {
+      for (int w = 0; w < words; w++) {
+        if (table[at + w] != key[base + w]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void grow() {
+      int newCapacity = capacity * 2;
+      long[] newKeys = new long[newCapacity * words];
+      long[] newCounts = new long[newCapacity];
+      for (int slot = 0; slot < capacity; slot++) {
+        if (counts[slot] != 0) {
+          int target = find(newKeys, newCounts, newCapacity, keys, slot * words);
+          System.arraycopy(keys, slot * words, newKeys, target * words, words);
+          newCounts[target] = counts[slot];
+        }
+      }
+      keys = newKeys;
+      counts = newCounts;
+      capacity = newCapacity;
+    }
+  }
+}
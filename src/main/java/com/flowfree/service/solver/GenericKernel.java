@@ -0,0 +1,95 @@
+package com.flowfree.service.solver;
+
+/**
+ * Board kernel for any size, looping over directions and rows where the
+ * generated kernels have them written out.
+ */
+final class GenericKernel implements BoardKernel {
+  private static final int[] OFFSETS = { -BitBoard.STRIDE, 1, BitBoard.STRIDE, -1 };
+
+  private final int rows;
+  private final int size;
+
+  GenericKernel(int rows) {
+    this.rows = rows;
+    this.size = (rows + 2) * BitBoard.STRIDE;
+  }
+
+  @Override
+  public int collectMoves(int[] cells, int flow, int from, int other, int[] out, int pos) {
+    int count = 0;
+    for (int d = 0; d < 4; d++) {
+      int n = from + OFFSETS[d];
+      if (canExtend(cells, flow, from, other, n)) {
+        out[pos + count++] = n;
+      }
+    }
+    return count;
+  }
+
+  private static boolean canExtend(int[] cells, int flow, int from, int other, int cell) {
+    if (cells[cell] != FlowBoard.EMPTY) {
+      return false;
+    }
+    for (int d = 0; d < 4; d++) {
+      int n = cell + OFFSETS[d];
+      if (cells[n] == flow && n != from && n != other) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int squeezedNeighbor(int[] cells, int[] patterns, int cell) {
+    for (int d = 0; d < 4; d++) {
+      int n = cell + OFFSETS[d];
+      if (cells[n] == FlowBoard.EMPTY && LocalPatterns.countOpen(patterns[n]) == 2) {
+        return n;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int otherOpenNeighbor(int[] patterns, int cell, int exclude) {
+    for (int d = 0; d < 4; d++) {
+      int n = cell + OFFSETS[d];
+      if (n != exclude && LocalPatterns.isOpen(LocalPatterns.classOf(patterns[cell], 2 * d))) {
+        return n;
+      }
+    }
+    return exclude;
+  }
+
+  @Override
+  public boolean hasDeadEndAround(int[] cells, int[] patterns, int cell) {
+    for (int d = 0; d < 4; d++) {
+      int n = cell + OFFSETS[d];
+      if (cells[n] == FlowBoard.EMPTY && LocalPatterns.isWalledIn(patterns[n])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void reclassify(int[] patterns, int cell, int diff) {
+    for (int d = 0; d < 8; d++) {
+      int center = cell - LocalPatterns.STEPS[d];
+      if (center >= 0 && center < size) {
+        patterns[center] ^= diff << LocalPatterns.shift(d);
+      }
+    }
+  }
+
+  @Override
+  public boolean hasDeadCell(long[] free, long[] open) {
+    for (int w = 1; w <= rows; w++) {
+      if ((free[w] & ~BitBoard.twoOrMore(open[w - 1], open[w], open[w + 1])) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,122 @@
+package com.flowfree.service.solver;
+
+/**
+ * Table-driven checks for illegal or dead local configurations.
+ *
+ * The 3x3 neighbourhood of a cell is packed into a 16-bit code holding two
+ * bits per neighbour, in the order N, NE, E, SE, S, SW, W, NW, each bit pair
+ * one of the classes below. Every rule is evaluated once per possible code
+ * when the class is loaded, so checking a cell afterwards is a single array
+ * lookup. Codes can be built from scratch with encode or kept up
+ * to date incrementally by flipping the bits of one neighbour, as
+ * {@link FlowBoard} does after every move.
+ */
+public final class LocalPatterns {
+  /** A free cell. */
+  public static final int EMPTY = 0;
+  /** A cell of the same color as the centre. */
+  public static final int SAME = 1;
+  /** A wall, or a cell of another flow that can no longer grow. */
+  public static final int BLOCKED = 2;
+  /** The growing end of an unfinished flow. */
+  public static final int OPEN_END = 3;
+
+  /** Offsets of the eight neighbours in {@link BitBoard} cell indices. */
+  static final int[] STEPS = {
+      -BitBoard.STRIDE, -BitBoard.STRIDE + 1, 1, BitBoard.STRIDE + 1,
+      BitBoard.STRIDE, BitBoard.STRIDE - 1, -1, -BitBoard.STRIDE - 1 };
+
+  private static final boolean[] SAME_COLOR_BLOCK = new boolean[1 << 16];
+  private static final byte[] OPEN_COUNT = new byte[1 << 16];
+
+  static {
+    for (int code = 0; code < 1 << 16; code++) {
+      // A 2x2 block is two orthogonal neighbours plus the diagonal between them
+      boolean block = false;
+      for (int d = 0; d < 8; d += 2) {
+        block |= classOf(code, d) == SAME && classOf(code, d + 1) == SAME
+            && classOf(code, (d + 2) & 7) == SAME;
+      }
+      SAME_COLOR_BLOCK[code] = block;
+
+      int open = 0;
+      for (int d = 0; d < 8; d += 2) {
+        if (isOpen(classOf(code, d))) {
+          open++;
+        }
+      }
+      OPEN_COUNT[code] = (byte) open;
+    }
+  }
+
+  // Prevent instantiation
+  private LocalPatterns() {
+  }
+
+  /**
+   * Gets the class of the neighbour in the given direction, 0 being north
+   * and counting clockwise.
+   */
+  public static int classOf(int code, int direction) {
+    return code >>> (direction * 2) & 3;
+  }
+
+  /**
+   * Checks whether a path could still use a neighbour of the given class.
+   */
+  public static boolean isOpen(int cls) {
+    return cls == EMPTY || cls == OPEN_END;
+  }
+
+  /**
+   * Gets the bit position of the neighbour in the given direction.
+   */
+  public static int shift(int direction) {
+    return direction * 2;
+  }
+
+  /**
+   * Checks whether a filled centre completes a 2x2 block of its own color,
+   * which no valid path ever contains.
+   */
+  public static boolean formsBlock(int code) {
+    return SAME_COLOR_BLOCK[code];
+  }
+
+  /**
+   * Counts the orthogonal neighbours a path could still use: free cells and
+   * open ends.
+   */
+  public static int countOpen(int code) {
+    return OPEN_COUNT[code];
+  }
+
+  /**
+   * Checks whether a free centre is walled in: a path needs a way in and a
+   * way out, so a free cell with fewer than two open neighbours can never
+   * be filled. This covers a U-turn closing around a cell as well as a
+   * corner cell left with a single free neighbour.
+   */
+  public static boolean isWalledIn(int code) {
+    return OPEN_COUNT[code] < 2;
+  }
+
+  /**
+   * Encodes the neighbourhood of a bitboard cell as seen by the given
+   * color: its own cells are SAME, free cells EMPTY and everything else
+   * BLOCKED.
+   */
+  public static int encode(BitBoard board, int cell, int color) {
+    long[] own = board.getColor(color);
+    long[] free = board.getFree();
+    int code = 0;
+    for (int d = 0; d < 8; d++) {
+      int n = cell + STEPS[d];
+      // Only the north-west neighbour of the first cell falls before the mask
+      int c = n < 0 ? BLOCKED
+          : BitBoard.test(own, n) ? SAME : BitBoard.test(free, n) ? EMPTY : BLOCKED;
+      code |= c << shift(d);
+    }
+    return code;
+  }
+}
@@ -0,0 +1,164 @@
+package com.flowfree.service.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the path-extension search on a {@link ForkJoinPool}.
+ *
+ * The top of the search tree is expanded into one task per branch until a
+ * fixed number of real branching points has been passed; forced moves are
+ * followed inline and do not count. Below that each task runs an ordinary
+ * {@link FlowSolver} on its own board copy, and idle workers steal queued
+ * subtrees. The first task to find a solution stops a shared
+ * {@link SearchMonitor} and cancels every task still waiting in the queue;
+ * running ones notice within a few hundred nodes. An optional {@link TranspositionTable} is
+ * shared by all workers, so a dead state found by one is skipped by all.
+ */
+public class ParallelFlowSolver {
+  public static final int DEFAULT_SPLIT_DEPTH = 6;
+
+  private final ForkJoinPool pool;
+  private final int splitDepth;
+  private final TranspositionTable table;
+
+  public ParallelFlowSolver(ForkJoinPool pool) {
+    this(pool, DEFAULT_SPLIT_DEPTH, null);
+  }
+
+  /**
+   * @param pool       Pool to run the search on
+   * @param splitDepth Number of branching levels expanded into separate tasks
+   * @param table      Dead-state table shared by all workers, or null
+   */
+  public ParallelFlowSolver(ForkJoinPool pool, int splitDepth, TranspositionTable table) {
+    this.pool = pool;
+    this.splitDepth = splitDepth;
+    this.table = table;
+  }
+
+  /**
+   * Searches for a solution. The board itself is not modified.
+   *
+   * @return Solution grid of flow indices, or null if none exists
+   */
+  public int[][] solve(FlowBoard board) {
+    return solve(board, null);
+  }
+
+  /**
+   * Searches for a solution, reporting to a monitor and giving up when it
+   * says so. The board itself is not modified.
+   *
+   * @param monitor Monitor polled by every worker, or null to never stop
+   *                early
+   * @return Solution grid of flow indices, or null if none exists or the
+   *         search was stopped first
+   */
+  public int[][] solve(FlowBoard board, SearchMonitor monitor) {
+    if (board.hasDeadCell()) {
+      return null;
+    }
+    // Finding a solution stops the workers without stopping the caller's monitor
+    Search search = new Search((monitor != null ? monitor : new SearchMonitor()).child(), table);
+    pool.invoke(new SplitTask(search, board.copy(), splitDepth));
+    return search.solution.get();
+  }
+
+  /**
+   * State shared by all tasks of one solve call.
+   */
+  private static final class Search {
+    final AtomicReference<int[][]> solution = new AtomicReference<>();
+    final Queue<ForkJoinTask<?>> tasks = new ConcurrentLinkedQueue<>();
+    final SearchMonitor monitor;
+    final TranspositionTable table;
+
+    Search(SearchMonitor monitor, TranspositionTable table) {
+      this.monitor = monitor;
+      this.table = table;
+    }
+
+    void found(int[][] grid) {
+      if (solution.compareAndSet(null, grid)) {
+        monitor.stop();
+        for (ForkJoinTask<?> task : tasks) {
+          task.cancel(false);
+        }
+      }
+    }
+  }
+
+  private static final class SplitTask extends RecursiveAction {
+    private final Search search;
+    private final FlowBoard board;
+    private final int splitsLeft;
+
+    SplitTask(Search search, FlowBoard board, int splitsLeft) {
+      this.search = search;
+      this.board = board;
+      this.splitsLeft = splitsLeft;
+    }
+
+    @Override
+    protected void compute() {
+      if (search.monitor.shouldStop()) {
+        return;
+      }
+      FlowSolver solver = new FlowSolver(board, search.monitor, search.table);
+      if (splitsLeft == 0) {
+        if (solver.solve()) {
+          search.found(solver.getSolution());
+        }
+        return;
+      }
+
+      // Apply forced moves inline so only real branching points are split
+      if (!solver.propagate()) {
+        return;
+      }
+      if (board.allFlowsComplete()) {
+        if (board.getFreeCells() == 0) {
+          search.found(board.toGrid());
+        }
+        return;
+      }
+      int end = solver.selectEnd();
+      if (end < 0 || !solver.regionsAreFillable()) {
+        return;
+      }
+      int[] moves = new int[4];
+      int count = solver.collectOrderedMoves(end, moves, 0);
+
+      // Try each move on this task's own board and copy only the ones that survive
+      List<SplitTask> children = new ArrayList<>(count);
+      int mark = board.mark();
+      for (int i = 0; i < count; i++) {
+        if (solver.tryMove(end, moves[i])) {
+          children.add(new SplitTask(search, board.copy(), splitsLeft - 1));
+        }
+        board.undo(mark);
+      }
+      search.tasks.addAll(children);
+      if (search.monitor.isStopped()) {
+        return;
+      }
+      // Cancelled siblings must not surface as exceptions, so join quietly
+      for (int i = children.size() - 1; i > 0; i--) {
+        children.get(i).fork();
+      }
+      if (!children.isEmpty()) {
+        children.get(0).compute();
+      }
+      for (int i = 1; i < children.size(); i++) {
+        children.get(i).quietlyJoin();
+      }
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.flowfree.service.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Races several strategies on the same board and keeps the first
+ * definitive answer.
+ *
+ * Every strategy runs on its own thread with a child of the caller's
+ * monitor, so a deadline or cancellation of the caller reaches all of them
+ * while each can still be stopped alone. As soon as one strategy proves the
+ * board solved or unsolvable, the others are stopped and notice within a
+ * few hundred nodes. The result carries the name of the strategy that won,
+ * and wins are counted per board shape so the mix can be tuned to the
+ * boards actually being solved. If no strategy settles the board, the
+ * result is TIMED_OUT.
+ */
+public class PortfolioSolver implements SolverStrategy {
+  // Daemon threads shared by every standard portfolio; idle ones expire after a minute
+  private static final ExecutorService STANDARD_THREADS = Executors.newCachedThreadPool(task -> {
+    Thread thread = new Thread(task, "portfolio-solver");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final List<SolverStrategy> strategies;
+  private final Executor executor;
+  private final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> wins = new ConcurrentHashMap<>();
+
+  /**
+   * @param executor   Executor to run the strategies on; it needs a thread
+   *                   per strategy for them to actually race
+   * @param strategies Strategies to race
+   */
+  public PortfolioSolver(Executor executor, List<SolverStrategy> strategies) {
+    if (strategies.isEmpty()) {
+      throw new IllegalArgumentException("Portfolio needs at least one strategy");
+    }
+    this.executor = executor;
+    this.strategies = Collections.unmodifiableList(new ArrayList<>(strategies));
+  }
+
+  /**
+   * Creates a portfolio of every built-in strategy, each on its own daemon
+   * thread from a cached pool shared by all such portfolios, with the
+   * parallel search split across the given pool.
+   */
+  public static PortfolioSolver standard(ForkJoinPool pool) {
+    List<SolverStrategy> strategies = Arrays.asList(
+        SolverStrategies.depthFirst(null),
+        SolverStrategies.limitedDiscrepancy(null),
+        SolverStrategies.sat(),
+        SolverStrategies.parallel(pool, null));
+    return new PortfolioSolver(STANDARD_THREADS, strategies);
+  }
+
+  /**
+   * Gets the key under which wins on a board are counted: its size and
+   * number of flows, e.g. {@code 7x7/6}.
+   */
+  public static String shapeOf(FlowBoard board) {
+    return board.getRows() + "x" + board.getCols() + "/" + board.getNumFlows();
+  }
+
+  @Override
+  public String getName() {
+    return "portfolio";
+  }
+
+  public List<SolverStrategy> getStrategies() {
+    return strategies;
+  }
+
+  @Override
+  public SolveResult solve(FlowBoard board, SearchMonitor caller) {
+    SearchMonitor monitor = caller != null ? caller : new SearchMonitor();
+    CompletableFuture<SolveResult> first = new CompletableFuture<>();
+    AtomicInteger running = new AtomicInteger(strategies.size());
+    AtomicBoolean decided = new AtomicBoolean();
+    AtomicBoolean gaveUp = new AtomicBoolean();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<SearchMonitor> monitors = new ArrayList<>();
+    for (int i = 0; i < strategies.size(); i++) {
+      monitors.add(monitor.child());
+    }
+
+    for (int i = 0; i < strategies.size(); i++) {
+      SolverStrategy strategy = strategies.get(i);
+      SearchMonitor child = monitors.get(i);
+      CompletableFuture.supplyAsync(() -> strategy.solve(board, child), executor)
+          .whenComplete((result, error) -> {
+            if (error != null) {
+              failure.compareAndSet(null, error);
+            } else if (result.isDefinitive()) {
+              // Count the win before the caller can see the result
+              if (decided.compareAndSet(false, true)) {
+                for (SearchMonitor other : monitors) {
+                  other.stop();
+                }
+                recordWin(board, result.getStrategy());
+                first.complete(result);
+              }
+            } else {
+              gaveUp.set(true);
+            }
+            if (running.decrementAndGet() == 0 && !decided.get()) {
+              if (gaveUp.get()) {
+                first.complete(new SolveResult(SolveStatus.TIMED_OUT, null, getName(),
+                    monitor.getProgress()));
+              } else {
+                first.completeExceptionally(failure.get());
+              }
+            }
+          });
+    }
+    return first.join();
+  }
+
+  private void recordWin(FlowBoard board, String strategy) {
+    wins.computeIfAbsent(shapeOf(board), shape -> new ConcurrentHashMap<>())
+        .computeIfAbsent(strategy, name -> new LongAdder())
+        .increment();
+  }
+
+  /**
+   * Gets how often each strategy won on boards of a shape.
+   *
+   * @param shape Shape key as built by {@link #shapeOf(FlowBoard)}
+   * @return Wins by strategy name, empty if no board of the shape was solved
+   */
+  public Map<String, Long> getWins(String shape) {
+    Map<String, Long> counts = new TreeMap<>();
+    Map<String, LongAdder> byStrategy = wins.get(shape);
+    if (byStrategy != null) {
+      byStrategy.forEach((name, count) -> counts.put(name, count.sum()));
+    }
+    return counts;
+  }
+
+  /**
+   * Gets the wins of every shape seen so far, by shape and strategy.
+   */
+  public Map<String, Map<String, Long>> getWins() {
+    Map<String, Map<String, Long>> all = new TreeMap<>();
+    for (String shape : wins.keySet()) {
+      all.put(shape, getWins(shape));
+    }
+    return all;
+  }
+}
@@ -0,0 +1,86 @@
+package com.flowfree.service.solver;
+
+/**
+ * Applies forced moves to a board until none is left.
+ *
+ * Two rules force a move. A live end with exactly one legal move must take
+ * it. A free cell whose only two open neighbours are a live end and one
+ * other cell must be passed through between them, so it belongs to that
+ * end's flow and the end grows into it. The same squeeze between the ends
+ * of two different flows, or a squeezed cell the flow may not enter, proves
+ * the board dead. Every move goes through {@link FlowBoard#extend(int, int)},
+ * so it lands on the board's undo trail and a single
+ * {@link FlowBoard#undo(int)} by the caller backtracks the whole
+ * propagation.
+ */
+final class Propagator {
+  private final FlowBoard board;
+  private final FlowSolver rules;
+  private final SearchStats stats;
+  private final int[] moves = new int[4];
+
+  Propagator(FlowBoard board, FlowSolver rules, SearchStats stats) {
+    this.board = board;
+    this.rules = rules;
+    this.stats = stats;
+  }
+
+  /**
+   * Runs the rules to a fixpoint in place. Moves stay applied whatever the
+   * outcome; callers undo them through the board.
+   *
+   * @return False if the board was proven dead
+   */
+  boolean propagate() {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int end = 0; end < board.getNumFlows() * 2; end++) {
+        if (board.isComplete(end >> 1)) {
+          continue;
+        }
+        int forced = forcedMove(end);
+        if (forced == FlowBoard.WALL) {
+          return false;
+        }
+        if (forced != FlowBoard.EMPTY) {
+          if (!rules.tryMove(end, forced)) {
+            return false;
+          }
+          changed = true;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Looks for a move the given end is forced to make.
+   *
+   * @return The cell to grow into, {@link FlowBoard#EMPTY} if nothing is
+   *         forced, or {@link FlowBoard#WALL} if the board is dead
+   */
+  private int forcedMove(int end) {
+    int count = board.collectMoves(end, moves, 0);
+    if (count == 0) {
+      stats.prune(PruneRule.NO_MOVES);
+      return FlowBoard.WALL;
+    }
+    if (count == 1) {
+      return moves[0];
+    }
+
+    int head = board.getEnd(end);
+    int cell = board.squeezedNeighbor(head);
+    if (cell < 0) {
+      return FlowBoard.EMPTY;
+    }
+    int other = board.otherOpenNeighbor(cell, head);
+    if (board.get(other) != FlowBoard.EMPTY && board.get(other) != end >> 1
+        || !board.canExtend(end, cell)) {
+      stats.prune(PruneRule.FORCED_CONFLICT);
+      return FlowBoard.WALL;
+    }
+    return cell;
+  }
+}
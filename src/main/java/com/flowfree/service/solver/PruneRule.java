@@ -0,0 +1,25 @@
+package com.flowfree.service.solver;
+
+/**
+ * Reasons the search can reject a partial board, used to count prunes.
+ */
+public enum PruneRule {
+  /** A free cell is left with fewer than two open neighbours. */
+  DEAD_END,
+  /** A live flow end has no legal move. */
+  NO_MOVES,
+  /** A free cell squeezed against a live end cannot join that end's flow. */
+  FORCED_CONFLICT,
+  /** A free region is not touched by both ends of any unfinished flow. */
+  STRANDED_REGION,
+  /** The two ends of an unfinished flow touch no common free region. */
+  SPLIT_FLOW,
+  /** Two flows can only be joined through the same one-cell corridor. */
+  BOTTLENECK,
+  /** The free cells cannot cover the Manhattan gaps, or their parity is off. */
+  COVERAGE_BOUND,
+  /** The state was already proven dead and found in the transposition table. */
+  TRANSPOSITION,
+  /** The SAT backend ran into a conflict and learned a clause from it. */
+  SAT_CONFLICT
+}
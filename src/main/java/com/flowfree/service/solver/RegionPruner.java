@@ -0,0 +1,75 @@
+package com.flowfree.service.solver;
+
+/**
+ * Rejects partial boards whose free cells have split into regions that can
+ * no longer be filled.
+ *
+ * Whatever an unfinished flow still adds is a path of free cells joining its
+ * two ends, so it lies inside a single free region and both ends must touch
+ * that region. A region that is not touched by both ends of any unfinished
+ * flow can never be covered, and a flow whose ends touch no common region
+ * can never be joined. Regions are read from the component labels of a
+ * {@link CorridorAnalysis} of the current board, which is recomputed from
+ * scratch at every node rather than maintained incrementally: moves only
+ * ever split regions, which a union-find cannot undo.
+ */
+final class RegionPruner {
+  private final FlowBoard board;
+  private final CorridorAnalysis analysis;
+  private final boolean[] served;
+
+  /**
+   * @param analysis Analysis that the caller keeps up to date with the board
+   */
+  RegionPruner(FlowBoard board, CorridorAnalysis analysis) {
+    this.board = board;
+    this.analysis = analysis;
+    this.served = new boolean[board.getFreeCells() + 1];
+  }
+
+  /**
+   * Checks the current board against the last analysis.
+   *
+   * @return The violated rule, or null if every region can still be filled
+   *         and every flow can still be joined
+   */
+  PruneRule check() {
+    int regions = analysis.getComponentCount();
+    for (int i = 1; i <= regions; i++) {
+      served[i] = false;
+    }
+    for (int f = 0; f < board.getNumFlows(); f++) {
+      if (board.isComplete(f)) {
+        continue;
+      }
+      int a = board.getEnd(f * 2);
+      int b = board.getEnd(f * 2 + 1);
+      boolean joinable = false;
+      for (int d = 0; d < 4; d++) {
+        int region = analysis.componentOf(a + board.offset(d));
+        if (region != 0 && touches(b, region)) {
+          served[region] = true;
+          joinable = true;
+        }
+      }
+      if (!joinable) {
+        return PruneRule.SPLIT_FLOW;
+      }
+    }
+    for (int i = 1; i <= regions; i++) {
+      if (!served[i]) {
+        return PruneRule.STRANDED_REGION;
+      }
+    }
+    return null;
+  }
+
+  private boolean touches(int cell, int region) {
+    for (int d = 0; d < 4; d++) {
+      if (analysis.componentOf(cell + board.offset(d)) == region) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,362 @@
+package com.flowfree.service.solver;
+
+import java.util.Arrays;
+
+/**
+ * Solves a board by encoding it as CNF for the embedded {@link CdclSolver}.
+ *
+ * Only the free cells of the board get variables, so a partly played board
+ * is encoded as the problem that is left. Every free cell gets one color
+ * variable per unfinished flow and one type variable per way a path can
+ * pass through it: straight up-down or left-right, or one of the four
+ * bends. Each cell takes exactly one color and exactly one type. A type
+ * forces the two neighbours it points at to share the cell's color and the
+ * two it does not point at to differ, which gives every free cell degree
+ * two within its color and keeps flows induced paths, the same rule
+ * {@link FlowBoard} enforces. Each live end of an unfinished flow must have
+ * exactly one free neighbour of its color. Walls, finished flows and path
+ * cells behind an end are never pointed at.
+ *
+ * These local clauses still admit closed loops of a color away from its
+ * endpoints. Instead of encoding global connectivity up front, every model
+ * is checked by following the type variables from the flow ends; a loop
+ * that is not reached gets a clause forbidding that exact set of cell
+ * types, and the solver continues with everything it has learned. Loops
+ * are rare and each one needs only a single clause, so a handful of rounds
+ * is usually enough.
+ */
+public class SatFlowSolver {
+  // Directions each type points at, using FlowBoard directions (up, right, down, left)
+  private static final int[][] TYPE_DIRECTIONS = {
+      { 0, 2 }, { 1, 3 }, { 0, 1 }, { 1, 2 }, { 2, 3 }, { 3, 0 } };
+  private static final int NUM_TYPES = TYPE_DIRECTIONS.length;
+
+  private final FlowBoard board;
+  private final SearchMonitor monitor;
+  private final CdclSolver sat;
+  // Free cells in row-major order and each board cell's position among them, -1 if filled
+  private final int[] freeCells;
+  private final int[] slot;
+  // Unfinished flows and each flow's position among them, -1 if finished
+  private final int[] colors;
+  private final int[] colorOf;
+  private final int[] colorVars;
+  private final int[] typeVars;
+  private int clauses;
+  private int cycleCuts;
+  private int[][] solution;
+  private boolean aborted;
+
+  public SatFlowSolver(FlowBoard board) {
+    this(board, null);
+  }
+
+  /**
+   * @param board   The board to solve; it is only read
+   * @param monitor Monitor polled during the search, or null to never stop
+   *                early
+   */
+  public SatFlowSolver(FlowBoard board, SearchMonitor monitor) {
+    this.board = board;
+    this.monitor = monitor;
+    this.sat = new CdclSolver(monitor);
+    this.slot = new int[board.getCapacity()];
+    this.freeCells = new int[board.getFreeCells()];
+    int count = 0;
+    for (int r = 0; r < board.getRows(); r++) {
+      for (int c = 0; c < board.getCols(); c++) {
+        int cell = board.index(r, c);
+        slot[cell] = -1;
+        if (board.get(cell) == FlowBoard.EMPTY) {
+          slot[cell] = count;
+          freeCells[count++] = cell;
+        }
+      }
+    }
+    int flows = board.getNumFlows();
+    this.colorOf = new int[flows];
+    int unfinished = 0;
+    for (int f = 0; f < flows; f++) {
+      colorOf[f] = board.isComplete(f) ? -1 : unfinished++;
+    }
+    this.colors = new int[unfinished];
+    for (int f = 0; f < flows; f++) {
+      if (colorOf[f] >= 0) {
+        colors[colorOf[f]] = f;
+      }
+    }
+    this.colorVars = new int[count * unfinished];
+    this.typeVars = new int[count * NUM_TYPES];
+    encode();
+  }
+
+  public int getVariableCount() {
+    return sat.getNumVariables();
+  }
+
+  public int getClauseCount() {
+    return clauses;
+  }
+
+  /**
+   * Gets the number of clauses added to rule out loops found in models.
+   */
+  public int getCycleCuts() {
+    return cycleCuts;
+  }
+
+  public CdclSolver getSatSolver() {
+    return sat;
+  }
+
+  /**
+   * Searches for a solution, cutting loops out of models until a model
+   * without any is found.
+   *
+   * @return True if a solution was found
+   */
+  public boolean solve() {
+    solution = null;
+    aborted = false;
+    while (true) {
+      CdclSolver.Result result = sat.solve();
+      if (result == CdclSolver.Result.UNKNOWN) {
+        aborted = true;
+        return false;
+      }
+      if (result == CdclSolver.Result.UNSATISFIABLE) {
+        return false;
+      }
+      if (!cutCycles()) {
+        solution = decode();
+        return true;
+      }
+      if (monitor != null && monitor.shouldStop()) {
+        aborted = true;
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Gets the solution as a row-major grid of flow indices.
+   */
+  public int[][] getSolution() {
+    return solution;
+  }
+
+  /**
+   * Checks whether the last solve was stopped by its monitor.
+   */
+  public boolean wasAborted() {
+    return aborted;
+  }
+
+  private int colorVar(int slotIndex, int color) {
+    return colorVars[slotIndex * colors.length + color];
+  }
+
+  private int typeVar(int slotIndex, int type) {
+    return typeVars[slotIndex * NUM_TYPES + type];
+  }
+
+  private void clause(int... literals) {
+    clauses++;
+    sat.addClause(literals);
+  }
+
+  private static int pos(int var) {
+    return CdclSolver.literal(var, true);
+  }
+
+  private static int neg(int var) {
+    return CdclSolver.literal(var, false);
+  }
+
+  private void encode() {
+    int k = colors.length;
+    for (int i = 0; i < colorVars.length; i++) {
+      colorVars[i] = sat.newVariable();
+    }
+    for (int i = 0; i < typeVars.length; i++) {
+      typeVars[i] = sat.newVariable();
+    }
+
+    for (int s = 0; s < freeCells.length; s++) {
+      int cell = freeCells[s];
+      int[] any = new int[k];
+      for (int c = 0; c < k; c++) {
+        any[c] = pos(colorVar(s, c));
+        for (int c2 = c + 1; c2 < k; c2++) {
+          clause(neg(colorVar(s, c)), neg(colorVar(s, c2)));
+        }
+      }
+      clause(any);
+
+      int[] allowed = new int[NUM_TYPES];
+      int numAllowed = 0;
+      for (int t = 0; t < NUM_TYPES; t++) {
+        if (canPoint(cell, TYPE_DIRECTIONS[t][0]) && canPoint(cell, TYPE_DIRECTIONS[t][1])) {
+          allowed[numAllowed++] = pos(typeVar(s, t));
+          encodeType(s, t);
+        } else {
+          clause(neg(typeVar(s, t)));
+        }
+      }
+      for (int a = 0; a < numAllowed; a++) {
+        for (int b = a + 1; b < numAllowed; b++) {
+          clause(allowed[a] ^ 1, allowed[b] ^ 1);
+        }
+      }
+      clause(Arrays.copyOf(allowed, numAllowed));
+    }
+
+    // Every live end continues into exactly one free neighbour of its color
+    for (int color = 0; color < k; color++) {
+      int flow = colors[color];
+      for (int end = flow * 2; end <= flow * 2 + 1; end++) {
+        int head = board.getEnd(end);
+        int[] next = new int[4];
+        int count = 0;
+        for (int d = 0; d < 4; d++) {
+          int n = head + board.offset(d);
+          if (board.get(n) == FlowBoard.EMPTY) {
+            next[count++] = pos(colorVar(slot[n], color));
+          }
+        }
+        for (int a = 0; a < count; a++) {
+          for (int b = a + 1; b < count; b++) {
+            clause(next[a] ^ 1, next[b] ^ 1);
+          }
+        }
+        clause(Arrays.copyOf(next, count));
+      }
+    }
+  }
+
+  /**
+   * Checks whether a path through a free cell may continue to its neighbour
+   * in the given direction: another free cell or a live end.
+   */
+  private boolean canPoint(int cell, int direction) {
+    int n = cell + board.offset(direction);
+    return board.get(n) == FlowBoard.EMPTY || board.isLiveEnd(n);
+  }
+
+  /**
+   * Adds the clauses tying a cell type to the colors around the cell.
+   */
+  private void encodeType(int s, int type) {
+    int cell = freeCells[s];
+    int t = neg(typeVar(s, type));
+    for (int d = 0; d < 4; d++) {
+      boolean linked = d == TYPE_DIRECTIONS[type][0] || d == TYPE_DIRECTIONS[type][1];
+      int n = cell + board.offset(d);
+      int value = board.get(n);
+      if (value == FlowBoard.EMPTY) {
+        for (int c = 0; c < colors.length; c++) {
+          if (linked) {
+            clause(t, neg(colorVar(s, c)), pos(colorVar(slot[n], c)));
+          } else {
+            clause(t, neg(colorVar(s, c)), neg(colorVar(slot[n], c)));
+          }
+        }
+      } else if (value >= 0 && colorOf[value] >= 0) {
+        if (linked) {
+          clause(t, pos(colorVar(s, colorOf[value])));
+        } else {
+          clause(t, neg(colorVar(s, colorOf[value])));
+        }
+      }
+    }
+  }
+
+  /**
+   * Follows every flow through the current model and adds a clause against
+   * each loop of free cells that no flow reaches.
+   *
+   * @return True if any loop was found
+   */
+  private boolean cutCycles() {
+    boolean[] reached = new boolean[freeCells.length];
+    for (int color = 0; color < colors.length; color++) {
+      int head = board.getEnd(colors[color] * 2);
+      int previous = FlowBoard.WALL;
+      int current = head;
+      // The first step leaves the end through its single free neighbour of the color
+      for (int d = 0; d < 4; d++) {
+        int n = head + board.offset(d);
+        if (board.get(n) == FlowBoard.EMPTY && sat.value(colorVar(slot[n], color))) {
+          previous = head;
+          current = n;
+          break;
+        }
+      }
+      while (current != head && board.get(current) == FlowBoard.EMPTY && !reached[slot[current]]) {
+        reached[slot[current]] = true;
+        int next = step(current, previous);
+        previous = current;
+        current = next;
+      }
+    }
+
+    boolean found = false;
+    for (int s = 0; s < freeCells.length; s++) {
+      if (reached[s]) {
+        continue;
+      }
+      found = true;
+      int[] cut = new int[freeCells.length];
+      int size = 0;
+      int start = freeCells[s];
+      int previous = FlowBoard.WALL;
+      int current = start;
+      do {
+        int slotIndex = slot[current];
+        reached[slotIndex] = true;
+        cut[size++] = neg(typeVar(slotIndex, typeOf(slotIndex)));
+        int next = step(current, previous);
+        previous = current;
+        current = next;
+      } while (current != start);
+      clause(Arrays.copyOf(cut, size));
+      cycleCuts++;
+    }
+    return found;
+  }
+
+  /**
+   * Gets the type a free cell takes in the current model.
+   */
+  private int typeOf(int slotIndex) {
+    for (int t = 0; t < NUM_TYPES; t++) {
+      if (sat.value(typeVar(slotIndex, t))) {
+        return t;
+      }
+    }
+    throw new IllegalStateException("Cell without a type in model");
+  }
+
+  /**
+   * Moves along the path through a free cell, away from the cell it was
+   * entered from.
+   */
+  private int step(int cell, int previous) {
+    int[] dirs = TYPE_DIRECTIONS[typeOf(slot[cell])];
+    int a = cell + board.offset(dirs[0]);
+    return a != previous ? a : cell + board.offset(dirs[1]);
+  }
+
+  private int[][] decode() {
+    int[][] grid = board.toGrid();
+    for (int s = 0; s < freeCells.length; s++) {
+      int cell = freeCells[s];
+      for (int c = 0; c < colors.length; c++) {
+        if (sat.value(colorVar(s, c))) {
+          grid[board.rowOf(cell)][board.colOf(cell)] = colors[c];
+        }
+      }
+    }
+    return grid;
+  }
+}
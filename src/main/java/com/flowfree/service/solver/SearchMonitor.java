@@ -0,0 +1,148 @@
+package com.flowfree.service.solver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared control and progress state of one solve.
+ *
+ * Solvers poll {@link #shouldStop()} every few hundred nodes and report
+ * their counters in batches, so a monitor can be read from any thread while
+ * the search runs without slowing the hot loop down. A monitor stops the
+ * search when it is cancelled, when its deadline passes or when a solver
+ * asks it to stop, e.g. because a sibling found the answer. Child monitors
+ * share the counters and deadline of their parent but can be stopped on
+ * their own.
+ */
+public final class SearchMonitor {
+  private final SearchMonitor parent;
+  private final SearchMonitor root;
+  private final long startNanos;
+  private final long deadlineNanos;
+  private final boolean hasDeadline;
+  private final LongAdder nodes;
+  private final LongAdder[] prunes;
+  private final AtomicInteger maxDepth;
+  private volatile boolean stopped;
+  private volatile boolean timedOut;
+  private volatile boolean cancelled;
+
+  /**
+   * Creates a monitor without a deadline.
+   */
+  public SearchMonitor() {
+    this(-1);
+  }
+
+  /**
+   * Creates a monitor whose search times out after the given budget.
+   *
+   * @param budgetMillis Time budget in milliseconds, or a negative value for
+   *                     no deadline
+   */
+  public SearchMonitor(long budgetMillis) {
+    this.parent = null;
+    this.root = this;
+    this.startNanos = System.nanoTime();
+    this.hasDeadline = budgetMillis >= 0;
+    this.deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, budgetMillis));
+    this.nodes = new LongAdder();
+    this.prunes = new LongAdder[PruneRule.values().length];
+    for (int i = 0; i < prunes.length; i++) {
+      prunes[i] = new LongAdder();
+    }
+    this.maxDepth = new AtomicInteger();
+  }
+
+  private SearchMonitor(SearchMonitor parent) {
+    this.parent = parent;
+    this.root = parent.root;
+    this.startNanos = parent.startNanos;
+    this.deadlineNanos = parent.deadlineNanos;
+    this.hasDeadline = parent.hasDeadline;
+    this.nodes = parent.nodes;
+    this.prunes = parent.prunes;
+    this.maxDepth = parent.maxDepth;
+  }
+
+  /**
+   * Creates a monitor that reports into this one and stops with it, but can
+   * also be stopped without affecting this one.
+   */
+  public SearchMonitor child() {
+    return new SearchMonitor(this);
+  }
+
+  /**
+   * Checks whether the search should give up, marking the monitor as timed
+   * out once the deadline has passed.
+   */
+  public boolean shouldStop() {
+    if (stopped) {
+      return true;
+    }
+    if (parent != null && parent.shouldStop()) {
+      stopped = true;
+      return true;
+    }
+    if (hasDeadline && System.nanoTime() - deadlineNanos > 0) {
+      root.timedOut = true;
+      stopped = true;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Asks every solver using this monitor or one of its children to stop.
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  /**
+   * Stops the search and marks it as cancelled by the caller.
+   */
+  public void cancel() {
+    root.cancelled = true;
+    stop();
+  }
+
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  public boolean isTimedOut() {
+    return root.timedOut;
+  }
+
+  public boolean isCancelled() {
+    return root.cancelled;
+  }
+
+  void addNodes(long count) {
+    nodes.add(count);
+  }
+
+  void addPrunes(PruneRule rule, long count) {
+    prunes[rule.ordinal()].add(count);
+  }
+
+  void recordDepth(int depth) {
+    if (depth > maxDepth.get()) {
+      maxDepth.accumulateAndGet(depth, Math::max);
+    }
+  }
+
+  /**
+   * Takes a snapshot of the progress counters.
+   */
+  public SolveProgress getProgress() {
+    long[] pruneCounts = new long[prunes.length];
+    for (int i = 0; i < prunes.length; i++) {
+      pruneCounts[i] = prunes[i].sum();
+    }
+    return new SolveProgress(nodes.sum(), System.nanoTime() - startNanos, maxDepth.get(), pruneCounts);
+  }
+}
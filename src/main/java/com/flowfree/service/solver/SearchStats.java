@@ -0,0 +1,100 @@
+package com.flowfree.service.solver;
+
+/**
+ * Counters kept by a single-threaded search and reported to a
+ * {@link SearchMonitor} in batches.
+ *
+ * Counting into plain fields keeps the per-node cost at an increment; every
+ * few hundred nodes the deltas are pushed to the shared monitor and its
+ * stop condition is polled.
+ */
+final class SearchStats {
+  // How many nodes to expand between reports to the monitor
+  private static final int REPORT_INTERVAL = 256;
+
+  private final SearchMonitor monitor;
+  private final long[] prunes = new long[PruneRule.values().length];
+  private final long[] reportedPrunes = new long[prunes.length];
+  private long nodes;
+  private long reportedNodes;
+  private int maxDepth;
+  private boolean stopped;
+
+  SearchStats(SearchMonitor monitor) {
+    this.monitor = monitor;
+  }
+
+  /**
+   * Reports what is left and clears the counters for a new search.
+   */
+  void reset() {
+    report();
+    nodes = 0;
+    reportedNodes = 0;
+    maxDepth = 0;
+    stopped = false;
+    for (int i = 0; i < prunes.length; i++) {
+      prunes[i] = 0;
+      reportedPrunes[i] = 0;
+    }
+  }
+
+  /**
+   * Counts an expanded node.
+   *
+   * @return True once the monitor has asked the search to stop
+   */
+  boolean expand(int depth) {
+    if (depth > maxDepth) {
+      maxDepth = depth;
+    }
+    if (++nodes % REPORT_INTERVAL == 0 && monitor != null) {
+      report();
+      stopped = monitor.shouldStop();
+    }
+    return stopped;
+  }
+
+  void prune(PruneRule rule) {
+    prunes[rule.ordinal()]++;
+  }
+
+  /**
+   * Pushes the counts gathered since the last report to the monitor.
+   */
+  void report() {
+    if (monitor == null) {
+      return;
+    }
+    monitor.addNodes(nodes - reportedNodes);
+    reportedNodes = nodes;
+    for (int i = 0; i < prunes.length; i++) {
+      if (prunes[i] != reportedPrunes[i]) {
+        monitor.addPrunes(PruneRule.values()[i], prunes[i] - reportedPrunes[i]);
+        reportedPrunes[i] = prunes[i];
+      }
+    }
+    monitor.recordDepth(maxDepth);
+  }
+
+  /**
+   * Sets the counters to those of an earlier run being continued. The
+   * monitor only hears about work done from here on.
+   */
+  void restore(long nodes, long[] prunes) {
+    this.nodes = nodes;
+    this.reportedNodes = nodes;
+    for (int i = 0; i < prunes.length; i++) {
+      this.prunes[i] = prunes[i];
+      this.reportedPrunes[i] = prunes[i];
+    }
+  }
+
+  long getNodes() {
+    return nodes;
+  }
+
+  long getPrunes(PruneRule rule) {
+    return prunes[rule.ordinal()];
+  }
+}
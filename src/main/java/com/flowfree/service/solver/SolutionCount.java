@@ -0,0 +1,96 @@
+package com.flowfree.service.solver;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of counting the solutions of a puzzle up to a limit.
+ */
+public final class SolutionCount {
+  /**
+   * Number of solutions kept as examples; two are enough to show that a
+   * puzzle is ambiguous and where.
+   */
+  public static final int MAX_WITNESSES = 2;
+
+  private final long count;
+  private final long limit;
+  private final long nodes;
+  private final List<int[][]> witnesses;
+  private final boolean timedOut;
+
+  public SolutionCount(long count, long limit, long nodes, List<int[][]> witnesses) {
+    this(count, limit, nodes, witnesses, false);
+  }
+
+  /**
+   * @param timedOut Whether the count was cut short by its time budget
+   */
+  public SolutionCount(long count, long limit, long nodes, List<int[][]> witnesses,
+      boolean timedOut) {
+    this.count = count;
+    this.limit = limit;
+    this.nodes = nodes;
+    this.witnesses = Collections.unmodifiableList(witnesses);
+    this.timedOut = timedOut;
+  }
+
+  /**
+   * Gets the number of solutions found, which never exceeds the limit.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  public long getLimit() {
+    return limit;
+  }
+
+  /**
+   * Checks whether the search stopped at the limit, in which case the real
+   * number of solutions may be higher.
+   */
+  public boolean isLimitReached() {
+    return count >= limit;
+  }
+
+  public boolean isSolvable() {
+    return count > 0;
+  }
+
+  /**
+   * Checks whether the puzzle was proven to have exactly one solution. This
+   * needs a limit of at least two.
+   */
+  public boolean isUnique() {
+    return count == 1 && limit > 1 && !timedOut;
+  }
+
+  /**
+   * Checks whether the time budget ran out before the count was settled, in
+   * which case the count is only a lower bound.
+   */
+  public boolean isTimedOut() {
+    return timedOut;
+  }
+
+  /**
+   * Gets the number of search nodes expanded while counting.
+   */
+  public long getNodes() {
+    return nodes;
+  }
+
+  /**
+   * Gets the first solutions found, at most {@link #MAX_WITNESSES}.
+   */
+  public List<int[][]> getWitnesses() {
+    return witnesses;
+  }
+
+  @Override
+  public String toString() {
+    return (isLimitReached() || timedOut ? ">=" : "") + count + " solutions in " + nodes + " nodes"
+        + (timedOut ? " (timed out)" : "");
+  }
+}
@@ -0,0 +1,224 @@
+package com.flowfree.service.solver;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Enumerates every solution of a board lazily, one per
+ * {@link #tryAdvance(Consumer)}.
+ *
+ * The search is the same as {@link FlowSolver}'s, with propagation and the
+ * same pruning, but it runs on an explicit stack of frames instead of the
+ * call stack, so it can hand out a solution and resume exactly where it
+ * left off. Only the board, one frame per filled cell and the grid being
+ * handed out are held at any time, so memory stays flat however many
+ * solutions there are. {@link #trySplit()} gives away the later half of
+ * the untried moves at the shallowest branching point, i.e. the largest
+ * subtrees still waiting, together with a copy of the board at that point,
+ * which lets parallel streams spread the search over the common pool.
+ *
+ * Solutions are grids of flow indices. With a {@link SearchMonitor}, the
+ * enumeration simply ends when the monitor stops; callers that need to tell
+ * a complete enumeration from an interrupted one check the monitor.
+ */
+public final class SolutionSpliterator implements Spliterator<int[][]> {
+  // Outcomes of entering a node
+  private static final int DEAD = 0;
+  private static final int PUSHED = 1;
+  private static final int SOLUTION = 2;
+
+  private final FlowBoard board;
+  private final SearchMonitor monitor;
+  private final FlowSolver rules;
+  private final SearchStats stats;
+  // Per frame: the end branched on, the mark after propagation and the move cursor
+  private final int[] frameEnd;
+  private final int[] frameMark;
+  private final int[] frameNext;
+  private final int[] frameCount;
+  private final int[] moves;
+  private final int rootMark;
+  private int depth;
+  private boolean started;
+  private boolean stopped;
+  private int[][] pending;
+  // Unknown up front; halved on every split so parallel streams stop splitting in time
+  private long estimate = Long.MAX_VALUE;
+
+  /**
+   * Creates an enumeration of the solutions of a board.
+   *
+   * @param board   The board to enumerate; it is searched in place and
+   *                restored once the enumeration is exhausted
+   * @param monitor Monitor polled during the search, or null to never stop
+   *                early
+   */
+  public SolutionSpliterator(FlowBoard board, SearchMonitor monitor) {
+    this.board = board;
+    this.monitor = monitor;
+    this.rules = new FlowSolver(board, monitor);
+    this.stats = rules.getStats();
+    int levels = board.getFreeCells() + 1;
+    this.frameEnd = new int[levels];
+    this.frameMark = new int[levels];
+    this.frameNext = new int[levels];
+    this.frameCount = new int[levels];
+    this.moves = new int[4 * levels];
+    this.rootMark = board.mark();
+  }
+
+  /**
+   * Creates the part split off at a branching point: a single frame holding
+   * the moves handed over.
+   */
+  private SolutionSpliterator(FlowBoard board, SearchMonitor monitor, int end, int[] given,
+      int from, int count) {
+    this(board, monitor);
+    started = true;
+    frameEnd[0] = end;
+    frameMark[0] = board.mark();
+    frameNext[0] = 0;
+    frameCount[0] = count;
+    System.arraycopy(given, from, moves, 0, count);
+    depth = 1;
+  }
+
+  /**
+   * Streams every solution of a board. The board itself is not modified.
+   *
+   * @param monitor  Monitor polled during the search, or null to never stop
+   *                 early
+   * @param parallel Whether to split the search across the common pool
+   */
+  public static Stream<int[][]> stream(FlowBoard board, SearchMonitor monitor, boolean parallel) {
+    return StreamSupport.stream(new SolutionSpliterator(board.copy(), monitor), parallel);
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super int[][]> action) {
+    int[][] solution = next();
+    if (solution == null) {
+      return false;
+    }
+    action.accept(solution);
+    return true;
+  }
+
+  /**
+   * Runs the search up to the next solution.
+   *
+   * @return The solution, or null once the search is exhausted or stopped
+   */
+  private int[][] next() {
+    if (pending != null) {
+      int[][] solution = pending;
+      pending = null;
+      return solution;
+    }
+    if (!started) {
+      int[][] solution = start();
+      if (solution != null) {
+        return solution;
+      }
+    }
+    while (depth > 0 && !stopped) {
+      int d = depth - 1;
+      board.undo(frameMark[d]);
+      if (frameNext[d] == frameCount[d]) {
+        depth--;
+        continue;
+      }
+      int move = moves[d * 4 + frameNext[d]++];
+      if (rules.tryMove(frameEnd[d], move) && enter() == SOLUTION) {
+        return board.toGrid();
+      }
+    }
+    return finish();
+  }
+
+  /**
+   * Enters the root of the search.
+   *
+   * @return The board as a grid if propagation alone solves it, else null
+   */
+  private int[][] start() {
+    started = true;
+    if (board.hasDeadCell()) {
+      stats.prune(PruneRule.DEAD_END);
+      return finish();
+    }
+    return enter() == SOLUTION ? board.toGrid() : null;
+  }
+
+  /**
+   * Propagates the current board and pushes a frame for its branching
+   * point.
+   */
+  private int enter() {
+    if (stats.expand(depth)) {
+      stopped = true;
+      return DEAD;
+    }
+    if (!rules.propagate()) {
+      return DEAD;
+    }
+    if (board.allFlowsComplete()) {
+      return board.getFreeCells() == 0 ? SOLUTION : DEAD;
+    }
+    int end = rules.selectEnd();
+    if (end < 0) {
+      stats.prune(PruneRule.NO_MOVES);
+      return DEAD;
+    }
+    if (!rules.regionsAreFillable()) {
+      return DEAD;
+    }
+    frameEnd[depth] = end;
+    frameMark[depth] = board.mark();
+    frameNext[depth] = 0;
+    frameCount[depth] = rules.collectOrderedMoves(end, moves, depth * 4);
+    depth++;
+    return PUSHED;
+  }
+
+  private int[][] finish() {
+    depth = 0;
+    board.undo(rootMark);
+    stats.report();
+    return null;
+  }
+
+  @Override
+  public Spliterator<int[][]> trySplit() {
+    if (!started) {
+      // Enter the root first so there is a branching point to split at
+      pending = start();
+    }
+    for (int d = 0; d < depth; d++) {
+      int left = frameCount[d] - frameNext[d];
+      if (left > 0) {
+        int given = (left + 1) / 2;
+        frameCount[d] -= given;
+        FlowBoard copy = board.copyAt(frameMark[d]);
+        SolutionSpliterator split = new SolutionSpliterator(copy, monitor, frameEnd[d], moves,
+            d * 4 + frameCount[d], given);
+        estimate >>>= 1;
+        split.estimate = estimate;
+        return split;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public long estimateSize() {
+    return depth == 0 && started && pending == null ? 0 : estimate;
+  }
+
+  @Override
+  public int characteristics() {
+    return NONNULL | DISTINCT;
+  }
+}
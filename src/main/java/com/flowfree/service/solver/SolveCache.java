@@ -0,0 +1,424 @@
+package com.flowfree.service.solver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of solve results in a memory-mapped file.
+ *
+ * The file is an open-addressed hash table of fixed-size slots keyed by
+ * {@link CanonicalLayout#getHash()}, so a puzzle is found again whatever
+ * rotation, reflection or flow order it comes in. A slot holds whether the
+ * puzzle is solvable, its solution count (exact or a lower bound) and, for
+ * boards of up to {@link #MAX_SOLUTION_CELLS} cells and 16 flows, one
+ * solution packed at four bits per cell in canonical form. Probing is limited to a short window, and once
+ * the window is full the slot used least recently is overwritten, so the
+ * file never grows beyond its capacity.
+ *
+ * Every slot carries a checksum, and a slot that fails it reads as empty:
+ * several processes can share one file without locking, at worst losing an
+ * update. A slot is copied out of the file once and checked and decoded
+ * from that copy, and an update is built in the copy and written back
+ * whole with the checksum of its own bytes, so neither a read racing a
+ * write nor two racing writes can pass off a mix of two entries. Within a process, {@link #open(Path, int)} hands out one shared
+ * instance per file.
+ */
+public final class SolveCache implements Closeable {
+  /** Largest board whose solution is stored along with the result. */
+  public static final int MAX_SOLUTION_CELLS = 448;
+  /** System property naming the file used by {@link #openDefault()}. */
+  public static final String FILE_PROPERTY = "flowfree.solveCache";
+  public static final int DEFAULT_CAPACITY = 1 << 14;
+
+  private static final Logger LOGGER = Logger.getLogger(SolveCache.class.getName());
+  private static final Map<Path, SolveCache> OPEN = new HashMap<>();
+
+  private static final int MAGIC = 0x464C4F57;
+  private static final int VERSION = 2;
+  private static final int HEADER_BYTES = 64;
+  private static final int SLOT_BYTES = 256;
+  private static final int PROBE_LIMIT = 8;
+  private static final int MAX_SOLUTION_FLOWS = 16;
+
+  // Header layout
+  private static final int H_MAGIC = 0;
+  private static final int H_VERSION = 4;
+  private static final int H_CAPACITY = 8;
+  private static final int H_CLOCK = 16;
+
+  // Slot layout
+  private static final int S_KEY = 0;
+  private static final int S_CHECK = 8;
+  private static final int S_ROWS = 16;
+  private static final int S_COLS = 17;
+  private static final int S_FLOWS = 18;
+  private static final int S_FLAGS = 19;
+  private static final int S_STAMP = 20;
+  private static final int S_COUNT = 24;
+  private static final int S_SOLUTION = 32;
+
+  private static final int F_SOLVABLE_KNOWN = 1;
+  private static final int F_SOLVABLE = 2;
+  private static final int F_COUNT_EXACT = 4;
+  private static final int F_HAS_SOLUTION = 8;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  // Private copy of the slot being read or written
+  private final ByteBuffer copy = ByteBuffer.allocate(SLOT_BYTES);
+  private int users;
+
+  private SolveCache(Path file, int requestedCapacity) throws IOException {
+    this.file = file;
+    int slots = Integer.highestOneBit(Math.max(PROBE_LIMIT, requestedCapacity));
+    long size = HEADER_BYTES + (long) slots * SLOT_BYTES;
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    boolean fresh = channel.size() != size;
+    if (fresh) {
+      channel.truncate(0);
+    }
+    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    if (fresh || buffer.getInt(H_MAGIC) != MAGIC || buffer.getInt(H_VERSION) != VERSION
+        || buffer.getInt(H_CAPACITY) != slots) {
+      for (long i = 0; i < size; i += Long.BYTES) {
+        buffer.putLong((int) i, 0);
+      }
+      buffer.putInt(H_MAGIC, MAGIC);
+      buffer.putInt(H_VERSION, VERSION);
+      buffer.putInt(H_CAPACITY, slots);
+    }
+    this.capacity = slots;
+  }
+
+  /**
+   * Opens or creates a cache file. A file of another capacity or format is
+   * wiped. Opening the same file again in this process returns the same
+   * instance, which stays open until every opener has closed it.
+   *
+   * @param capacity Number of entries, rounded down to a power of two
+   */
+  public static SolveCache open(Path file, int capacity) throws IOException {
+    Path key = file.toAbsolutePath().normalize();
+    synchronized (OPEN) {
+      SolveCache cache = OPEN.get(key);
+      if (cache == null) {
+        cache = new SolveCache(key, capacity);
+        OPEN.put(key, cache);
+      }
+      cache.users++;
+      return cache;
+    }
+  }
+
+  /**
+   * Opens the cache file named by the {@value #FILE_PROPERTY} system
+   * property, or {@code flowfree-solve-cache.bin} in the temporary
+   * directory.
+   *
+   * @return The cache, or null if the file cannot be mapped
+   */
+  public static SolveCache openDefault() {
+    String name = System.getProperty(FILE_PROPERTY);
+    Path file = name != null
+        ? Paths.get(name)
+        : Paths.get(System.getProperty("java.io.tmpdir"), "flowfree-solve-cache.bin");
+    try {
+      return open(file, DEFAULT_CAPACITY);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Solve cache unavailable at " + file, e);
+      return null;
+    }
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * Gets the number of entries the cache can hold.
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Cached facts about one puzzle.
+   */
+  public static final class Entry {
+    private final SolveStatus status;
+    private final long count;
+    private final boolean countExact;
+    private final int[][] solution;
+
+    Entry(SolveStatus status, long count, boolean countExact, int[][] solution) {
+      this.status = status;
+      this.count = count;
+      this.countExact = countExact;
+      this.solution = solution;
+    }
+
+    /**
+     * Gets SOLVED or UNSOLVABLE, or null if only a count of zero that was
+     * cut short is known.
+     */
+    public SolveStatus getStatus() {
+      return status;
+    }
+
+    /**
+     * Gets the number of solutions counted, exact or a lower bound.
+     */
+    public long getCount() {
+      return count;
+    }
+
+    public boolean isCountExact() {
+      return countExact;
+    }
+
+    /**
+     * Gets a solution as flow indices of the puzzle looked up, or null if
+     * none was stored.
+     */
+    public int[][] getSolution() {
+      return solution;
+    }
+  }
+
+  /**
+   * Looks a puzzle up.
+   *
+   * @return The cached entry, or null if the puzzle is not cached
+   */
+  public synchronized Entry lookup(CanonicalLayout layout) {
+    int slot = find(layout);
+    if (slot < 0) {
+      return null;
+    }
+    // The stamp is outside the checksum, so a hit writes nothing else
+    buffer.putInt(slot + S_STAMP, tick());
+    return read(layout);
+  }
+
+  /**
+   * Records the outcome of a solve.
+   *
+   * @param solution Solution as flow indices, or null if there is none
+   */
+  public void recordSolve(CanonicalLayout layout, int[][] solution) {
+    record(layout, solution != null, solution != null ? 1 : 0, solution == null, solution);
+  }
+
+  /**
+   * Records the outcome of a count.
+   *
+   * @param count    Number of solutions found
+   * @param exact    Whether the count is complete rather than cut short by
+   *                 a limit or a time budget
+   * @param solution One of the solutions as flow indices, or null
+   */
+  public void recordCount(CanonicalLayout layout, long count, boolean exact, int[][] solution) {
+    if (count == 0 && !exact) {
+      return;
+    }
+    record(layout, count > 0, count, exact, solution);
+  }
+
+  private synchronized void record(CanonicalLayout layout, boolean solvable, long count,
+      boolean exact, int[][] solution) {
+    int slot = find(layout);
+    int flags = F_SOLVABLE_KNOWN | (solvable ? F_SOLVABLE : 0) | (exact ? F_COUNT_EXACT : 0);
+    if (slot >= 0) {
+      // Keep what the old entry knew better: an exact count or a larger lower bound
+      int oldFlags = copy.get(S_FLAGS);
+      long oldCount = copy.getLong(S_COUNT);
+      if ((oldFlags & F_COUNT_EXACT) != 0 && !exact || !exact && oldCount > count) {
+        count = oldCount;
+        flags = flags & ~F_COUNT_EXACT | oldFlags & F_COUNT_EXACT;
+      }
+      if (solution == null && (oldFlags & F_HAS_SOLUTION) != 0) {
+        flags |= F_HAS_SOLUTION;
+      }
+    } else {
+      slot = victim(layout.getHash());
+      for (int i = 0; i < SLOT_BYTES; i += Long.BYTES) {
+        copy.putLong(i, 0);
+      }
+      copy.putLong(S_KEY, layout.getHash());
+    }
+    copy.put(S_ROWS, (byte) layout.getCanonicalRows());
+    copy.put(S_COLS, (byte) layout.getCanonicalCols());
+    copy.put(S_FLOWS, (byte) layout.getNumFlows());
+    copy.putLong(S_COUNT, count);
+    if (solution != null && fitsSolution(layout)) {
+      writeSolution(layout.toCanonical(solution));
+      flags |= F_HAS_SOLUTION;
+    }
+    copy.put(S_FLAGS, (byte) flags);
+    copy.putInt(S_STAMP, tick());
+    copy.putLong(S_CHECK, checksum());
+    for (int i = 0; i < SLOT_BYTES; i += Long.BYTES) {
+      buffer.putLong(slot + i, copy.getLong(i));
+    }
+  }
+
+  /**
+   * Finds the slot holding a layout, leaving a checked copy of it in
+   * {@link #copy}.
+   *
+   * @return Byte offset of the slot, or -1
+   */
+  private int find(CanonicalLayout layout) {
+    long key = layout.getHash();
+    int home = (int) (key ^ key >>> 32) & (capacity - 1);
+    for (int i = 0; i < PROBE_LIMIT; i++) {
+      int slot = offset((home + i) & (capacity - 1));
+      if (buffer.getLong(slot + S_KEY) == key && load(slot)
+          && copy.getLong(S_KEY) == key
+          && copy.get(S_ROWS) == (byte) layout.getCanonicalRows()
+          && copy.get(S_COLS) == (byte) layout.getCanonicalCols()
+          && copy.get(S_FLOWS) == (byte) layout.getNumFlows()) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Copies a slot into {@link #copy}.
+   *
+   * @return Whether the copy passes its checksum
+   */
+  private boolean load(int slot) {
+    for (int i = 0; i < SLOT_BYTES; i += Long.BYTES) {
+      copy.putLong(i, buffer.getLong(slot + i));
+    }
+    return copy.getLong(S_CHECK) == checksum();
+  }
+
+  /**
+   * Picks the slot a new key goes into: an empty or corrupt slot in its
+   * probe window if there is one, else the least recently used.
+   */
+  private int victim(long key) {
+    int home = (int) (key ^ key >>> 32) & (capacity - 1);
+    int clock = buffer.getInt(H_CLOCK);
+    int best = -1;
+    int bestAge = -1;
+    for (int i = 0; i < PROBE_LIMIT; i++) {
+      int slot = offset((home + i) & (capacity - 1));
+      if (buffer.getLong(slot + S_KEY) == 0 || !load(slot)) {
+        return slot;
+      }
+      int age = clock - buffer.getInt(slot + S_STAMP);
+      if (age > bestAge) {
+        best = slot;
+        bestAge = age;
+      }
+    }
+    return best;
+  }
+
+  private Entry read(CanonicalLayout layout) {
+    int flags = copy.get(S_FLAGS);
+    SolveStatus status = (flags & F_SOLVABLE_KNOWN) == 0 ? null
+        : (flags & F_SOLVABLE) != 0 ? SolveStatus.SOLVED : SolveStatus.UNSOLVABLE;
+    int[][] solution = null;
+    if ((flags & F_HAS_SOLUTION) != 0) {
+      solution = layout.fromCanonical(readSolution(layout));
+    }
+    return new Entry(status, copy.getLong(S_COUNT), (flags & F_COUNT_EXACT) != 0, solution);
+  }
+
+  private static boolean fitsSolution(CanonicalLayout layout) {
+    return layout.getCanonicalRows() * layout.getCanonicalCols() <= MAX_SOLUTION_CELLS
+        && layout.getNumFlows() <= MAX_SOLUTION_FLOWS && layout.getCanonicalRows() < 256
+        && layout.getCanonicalCols() < 256;
+  }
+
+  private void writeSolution(int[][] canonical) {
+    int cols = canonical[0].length;
+    int cells = canonical.length * cols;
+    for (int i = 0; i < cells; i += 2) {
+      int low = canonical[i / cols][i % cols] & 0xF;
+      int high = i + 1 < cells ? canonical[(i + 1) / cols][(i + 1) % cols] & 0xF : 0;
+      copy.put(S_SOLUTION + i / 2, (byte) (high << 4 | low));
+    }
+  }
+
+  private int[][] readSolution(CanonicalLayout layout) {
+    int rows = layout.getCanonicalRows();
+    int cols = layout.getCanonicalCols();
+    int[][] canonical = new int[rows][cols];
+    for (int i = 0; i < rows * cols; i++) {
+      int packed = copy.get(S_SOLUTION + i / 2);
+      canonical[i / cols][i % cols] = (i & 1) == 0 ? packed & 0xF : packed >> 4 & 0xF;
+    }
+    return canonical;
+  }
+
+  /**
+   * Hashes the key and every byte of {@link #copy} after the checksum
+   * field but the stamp.
+   */
+  private long checksum() {
+    long h = copy.getLong(S_KEY) * 0x9E3779B97F4A7C15L;
+    for (int i = S_ROWS; i < SLOT_BYTES; i += Long.BYTES) {
+      long word = copy.getLong(i);
+      if (i == S_ROWS) {
+        // The stamp changes on every hit and is not worth protecting; the
+        // buffer is big-endian, so it is the low half of the word
+        word &= ~0xFFFFFFFFL;
+      }
+      h = (h ^ word) * 0xBF58476D1CE4E5B9L;
+      h ^= h >>> 29;
+    }
+    return h == 0 ? 1 : h;
+  }
+
+  private int tick() {
+    int clock = buffer.getInt(H_CLOCK) + 1;
+    buffer.putInt(H_CLOCK, clock);
+    return clock;
+  }
+
+  private static int offset(int index) {
+    return HEADER_BYTES + index * SLOT_BYTES;
+  }
+
+  /**
+   * Flushes the mapped file to disk.
+   */
+  public synchronized void force() {
+    buffer.force();
+  }
+
+  /**
+   * Releases this opener's use of the cache, closing the file once every
+   * opener has done so.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (OPEN) {
+      if (--users > 0) {
+        return;
+      }
+      OPEN.remove(file);
+    }
+    force();
+    channel.close();
+  }
+}
@@ -0,0 +1,84 @@
+package com.flowfree.service.solver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.UnaryOperator;
+
+/**
+ * Handle to a solve running in the background.
+ *
+ * The result arrives through a {@link CompletableFuture}; progress can be
+ * read at any time, and cancelling either the handle or its future stops
+ * the search cooperatively within a few hundred nodes.
+ */
+public final class SolveHandle {
+  private final CompletableFuture<SolveResult> future;
+  private final SearchMonitor monitor;
+
+  private SolveHandle(CompletableFuture<SolveResult> future, SearchMonitor monitor) {
+    this.future = future;
+    this.monitor = monitor;
+    future.whenComplete((result, error) -> {
+      if (future.isCancelled()) {
+        monitor.cancel();
+      }
+    });
+  }
+
+  /**
+   * Starts solving a board in the background.
+   *
+   * @param board        The board to solve; it is not modified
+   * @param strategy     Strategy to solve with
+   * @param budgetMillis Time after which the solve gives up with TIMED_OUT,
+   *                     or a negative value for no limit
+   * @param executor     Executor to run the solve on
+   */
+  public static SolveHandle start(FlowBoard board, SolverStrategy strategy, long budgetMillis,
+      Executor executor) {
+    SearchMonitor monitor = new SearchMonitor(budgetMillis);
+    CompletableFuture<SolveResult> future = CompletableFuture.supplyAsync(
+        () -> strategy.solve(board, monitor), executor);
+    return new SolveHandle(future, monitor);
+  }
+
+  /**
+   * Returns a handle on the same solve whose result is transformed once it
+   * arrives.
+   */
+  public SolveHandle map(UnaryOperator<SolveResult> mapper) {
+    return new SolveHandle(future.thenApply(mapper), monitor);
+  }
+
+  public CompletableFuture<SolveResult> getFuture() {
+    return future;
+  }
+
+  /**
+   * Gets a snapshot of the live progress counters.
+   */
+  public SolveProgress getProgress() {
+    return monitor.getProgress();
+  }
+
+  /**
+   * Stops the search and cancels the future.
+   *
+   * @return True if the future was cancelled before it completed
+   */
+  public boolean cancel() {
+    monitor.cancel();
+    return future.cancel(false);
+  }
+
+  public boolean isDone() {
+    return future.isDone();
+  }
+
+  /**
+   * Waits for the result.
+   */
+  public SolveResult join() {
+    return future.join();
+  }
+}
@@ -0,0 +1,68 @@
+package com.flowfree.service.solver;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the counters of a running or finished solve.
+ */
+public final class SolveProgress {
+  private final long nodes;
+  private final long elapsedNanos;
+  private final int maxDepth;
+  private final long[] prunes;
+
+  SolveProgress(long nodes, long elapsedNanos, int maxDepth, long[] prunes) {
+    this.nodes = nodes;
+    this.elapsedNanos = elapsedNanos;
+    this.maxDepth = maxDepth;
+    this.prunes = prunes;
+  }
+
+  /**
+   * Gets the number of search nodes expanded so far.
+   */
+  public long getNodes() {
+    return nodes;
+  }
+
+  public long getElapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+  }
+
+  /**
+   * Gets the average expansion rate since the solve started.
+   */
+  public double getNodesPerSecond() {
+    return elapsedNanos > 0 ? nodes * 1e9 / elapsedNanos : 0;
+  }
+
+  /**
+   * Gets the deepest level of the search tree reached.
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public long getPrunes(PruneRule rule) {
+    return prunes[rule.ordinal()];
+  }
+
+  /**
+   * Gets the prune counts of every rule.
+   */
+  public Map<PruneRule, Long> getPruneCounts() {
+    Map<PruneRule, Long> counts = new EnumMap<>(PruneRule.class);
+    for (PruneRule rule : PruneRule.values()) {
+      counts.put(rule, prunes[rule.ordinal()]);
+    }
+    return counts;
+  }
+
+  @Override
+  public String toString() {
+    return nodes + " nodes in " + getElapsedMillis() + "ms (" + Math.round(getNodesPerSecond())
+        + "/s), max depth " + maxDepth + ", prunes " + getPruneCounts();
+  }
+}
@@ -0,0 +1,61 @@
+package com.flowfree.service.solver;
+
+/**
+ * Result of a solve: its status, the solution if one was found, and the
+ * final progress counters.
+ */
+public final class SolveResult {
+  private final SolveStatus status;
+  private final int[][] solution;
+  private final String strategy;
+  private final SolveProgress progress;
+
+  public SolveResult(SolveStatus status, int[][] solution, String strategy, SolveProgress progress) {
+    this.status = status;
+    this.solution = solution;
+    this.strategy = strategy;
+    this.progress = progress;
+  }
+
+  public SolveStatus getStatus() {
+    return status;
+  }
+
+  /**
+   * Gets the solution grid, or null unless the status is SOLVED.
+   */
+  public int[][] getSolution() {
+    return solution;
+  }
+
+  /**
+   * Gets the name of the strategy that produced this result.
+   */
+  public String getStrategy() {
+    return strategy;
+  }
+
+  public SolveProgress getProgress() {
+    return progress;
+  }
+
+  /**
+   * Checks whether the result settles the puzzle one way or the other.
+   */
+  public boolean isDefinitive() {
+    return status != SolveStatus.TIMED_OUT;
+  }
+
+  /**
+   * Returns a copy of this result carrying a different solution grid, e.g.
+   * one translated from flow indices to color indices.
+   */
+  public SolveResult withSolution(int[][] solution) {
+    return new SolveResult(status, solution, strategy, progress);
+  }
+
+  @Override
+  public String toString() {
+    return status + " by " + strategy + ": " + progress;
+  }
+}
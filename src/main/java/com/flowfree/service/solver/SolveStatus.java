@@ -0,0 +1,13 @@
+package com.flowfree.service.solver;
+
+/**
+ * Outcome of a solve.
+ */
+public enum SolveStatus {
+  /** A solution was found. */
+  SOLVED,
+  /** The search was exhausted without finding a solution. */
+  UNSOLVABLE,
+  /** The search was stopped before it could decide either way. */
+  TIMED_OUT
+}
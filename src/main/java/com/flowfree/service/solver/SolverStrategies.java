@@ -0,0 +1,103 @@
+package com.flowfree.service.solver;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Factory methods for the built-in {@link SolverStrategy} implementations.
+ */
+public final class SolverStrategies {
+  // Prevent instantiation
+  private SolverStrategies() {
+  }
+
+  /**
+   * Most-constrained-first depth-first search on the calling thread.
+   *
+   * @param table Dead-state table to use, or null
+   */
+  public static SolverStrategy depthFirst(TranspositionTable table) {
+    return new SolverStrategy() {
+      @Override
+      public String getName() {
+        return "dfs";
+      }
+
+      @Override
+      public SolveResult solve(FlowBoard board, SearchMonitor monitor) {
+        FlowSolver solver = new FlowSolver(board.copy(), monitor, table);
+        boolean solved = solver.solve();
+        return result(getName(), solved, solver.wasAborted(), solver.getSolution(), monitor);
+      }
+    };
+  }
+
+  /**
+   * Depth-first search split across a fork-join pool.
+   *
+   * @param pool  Pool to run the search on
+   * @param table Dead-state table shared by the workers, or null
+   */
+  public static SolverStrategy parallel(ForkJoinPool pool, TranspositionTable table) {
+    ParallelFlowSolver solver = new ParallelFlowSolver(pool, ParallelFlowSolver.DEFAULT_SPLIT_DEPTH, table);
+    return new SolverStrategy() {
+      @Override
+      public String getName() {
+        return "parallel-dfs";
+      }
+
+      @Override
+      public SolveResult solve(FlowBoard board, SearchMonitor monitor) {
+        int[][] solution = solver.solve(board, monitor);
+        return result(getName(), solution != null, monitor.isStopped(), solution, monitor);
+      }
+    };
+  }
+
+  /**
+   * Iterative limited-discrepancy search with constant memory.
+   *
+   * @param table Dead-state table kept across iterations, or null
+   */
+  public static SolverStrategy limitedDiscrepancy(TranspositionTable table) {
+    return new SolverStrategy() {
+      @Override
+      public String getName() {
+        return "lds";
+      }
+
+      @Override
+      public SolveResult solve(FlowBoard board, SearchMonitor monitor) {
+        DiscrepancySolver solver = new DiscrepancySolver(board.copy(), monitor, table);
+        boolean solved = solver.solve();
+        return result(getName(), solved, solver.wasAborted(), solver.getSolution(), monitor);
+      }
+    };
+  }
+
+  /**
+   * CNF encoding handed to the embedded CDCL SAT solver, see
+   * {@link SatFlowSolver}.
+   */
+  public static SolverStrategy sat() {
+    return new SolverStrategy() {
+      @Override
+      public String getName() {
+        return "sat";
+      }
+
+      @Override
+      public SolveResult solve(FlowBoard board, SearchMonitor monitor) {
+        SatFlowSolver solver = new SatFlowSolver(board, monitor);
+        boolean solved = solver.solve();
+        return result(getName(), solved, solver.wasAborted(), solver.getSolution(), monitor);
+      }
+    };
+  }
+
+  static SolveResult result(String name, boolean solved, boolean aborted, int[][] solution,
+      SearchMonitor monitor) {
+    SolveStatus status = solved ? SolveStatus.SOLVED
+        : aborted ? SolveStatus.TIMED_OUT : SolveStatus.UNSOLVABLE;
+    return new SolveResult(status, solved ? solution : null, name, monitor.getProgress());
+  }
+}
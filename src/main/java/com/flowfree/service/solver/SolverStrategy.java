@@ -0,0 +1,20 @@
+package com.flowfree.service.solver;
+
+/**
+ * A way of solving a board that can be timed, cancelled and compared
+ * against other strategies.
+ */
+public interface SolverStrategy {
+  /**
+   * Gets a short name identifying the strategy in results and statistics.
+   */
+  String getName();
+
+  /**
+   * Solves a board on the calling thread, polling the monitor for stop
+   * requests and reporting progress to it. The board is not modified.
+   *
+   * @return Result whose solution, if any, is a grid of flow indices
+   */
+  SolveResult solve(FlowBoard board, SearchMonitor monitor);
+}
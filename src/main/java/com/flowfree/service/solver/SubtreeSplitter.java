@@ -0,0 +1,68 @@
+package com.flowfree.service.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts the search tree of one board into independent subtrees that can be
+ * solved separately, e.g. by other processes.
+ *
+ * The top of the tree is expanded the same way {@link ParallelFlowSolver}
+ * does it: forced moves are followed inline and only real branching points
+ * count towards the depth, and branches the pruning rules reject are
+ * dropped on the spot. Each subtree is described by the moves leading to
+ * it from the board as given, so it can be rebuilt anywhere with
+ * {@link FlowBoard#replay(int[])}. Together the subtrees hold every
+ * solution of the board; an empty list proves it has none.
+ */
+public final class SubtreeSplitter {
+  // Prevent instantiation
+  private SubtreeSplitter() {
+  }
+
+  /**
+   * Splits a board's search tree. The board itself is not modified.
+   *
+   * @param board Board to split
+   * @param depth Number of branching levels to expand
+   * @return Move lists leading to the roots of the subtrees, in search order
+   */
+  public static List<int[]> split(FlowBoard board, int depth) {
+    List<int[]> roots = new ArrayList<>();
+    FlowBoard copy = board.copy();
+    if (!copy.hasDeadCell()) {
+      expand(copy, new FlowSolver(copy), depth, roots);
+    }
+    return roots;
+  }
+
+  private static void expand(FlowBoard board, FlowSolver rules, int depth, List<int[]> roots) {
+    int mark = board.mark();
+    if (depth == 0 || board.allFlowsComplete()) {
+      roots.add(board.getMovesSince(0));
+      return;
+    }
+    if (!rules.propagate() || board.allFlowsComplete() && board.getFreeCells() != 0) {
+      board.undo(mark);
+      return;
+    }
+    int end = board.allFlowsComplete() ? -1 : rules.selectEnd();
+    if (end < 0 || !rules.regionsAreFillable()) {
+      if (board.isSolved()) {
+        roots.add(board.getMovesSince(0));
+      }
+      board.undo(mark);
+      return;
+    }
+    int[] moves = new int[4];
+    int count = rules.collectOrderedMoves(end, moves, 0);
+    int branched = board.mark();
+    for (int i = 0; i < count; i++) {
+      if (rules.tryMove(end, moves[i])) {
+        expand(board, rules, depth - 1, roots);
+      }
+      board.undo(branched);
+    }
+    board.undo(mark);
+  }
+}
@@ -0,0 +1,106 @@
+package com.flowfree.service.solver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, lock-free table of search states already proven dead.
+ *
+ * Entries live in buckets of four. Each entry is two longs: the work it took
+ * to prove the state dead (in search nodes) and the state hash XORed with
+ * that work. A reader only accepts an entry whose two halves agree, so a
+ * torn write from a racing thread reads as a miss instead of a false hit and
+ * no locking is needed. When a bucket is full the entry that was cheapest
+ * to prove is replaced, keeping the expensive refutations around longest.
+ *
+ * States are identified by their full 64-bit Zobrist hash; a collision
+ * could wrongly prune a live state, which is accepted as vanishingly rare.
+ */
+public final class TranspositionTable {
+  private static final int BUCKET_SIZE = 4;
+  private static final int ENTRY_BYTES = 16;
+
+  private final AtomicLongArray entries;
+  private final int bucketBits;
+
+  /**
+   * Creates a table that uses at most the given number of bytes.
+   *
+   * @param budgetBytes Memory budget; rounded down to a power-of-two
+   *                    number of buckets
+   */
+  public TranspositionTable(long budgetBytes) {
+    long buckets = Math.max(1, budgetBytes / (ENTRY_BYTES * BUCKET_SIZE));
+    // Two longs per entry must still fit in one int-indexed array
+    buckets = Math.min(Long.highestOneBit(buckets), 1L << 27);
+    this.bucketBits = Long.numberOfTrailingZeros(buckets);
+    this.entries = new AtomicLongArray((int) buckets * BUCKET_SIZE * 2);
+  }
+
+  /**
+   * Gets the number of entries the table can hold.
+   */
+  public int getCapacity() {
+    return entries.length() / 2;
+  }
+
+  /**
+   * Gets the memory used by the entries in bytes.
+   */
+  public long getSizeBytes() {
+    return (long) entries.length() * Long.BYTES;
+  }
+
+  /**
+   * Checks whether a state was recorded as dead.
+   */
+  public boolean isDead(long hash) {
+    int base = bucketOf(hash);
+    for (int i = base; i < base + BUCKET_SIZE * 2; i += 2) {
+      long work = entries.get(i);
+      if (work != 0 && (entries.get(i + 1) ^ work) == hash) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Records that a state has no solution.
+   *
+   * @param hash Zobrist hash of the state
+   * @param work Search nodes it took to prove it, used for replacement
+   */
+  public void recordDead(long hash, long work) {
+    work = Math.max(1, work);
+    int base = bucketOf(hash);
+    int victim = base;
+    long victimWork = Long.MAX_VALUE;
+    for (int i = base; i < base + BUCKET_SIZE * 2; i += 2) {
+      long existing = entries.get(i);
+      if (existing == 0 || (entries.get(i + 1) ^ existing) == hash) {
+        victim = i;
+        break;
+      }
+      if (existing < victimWork) {
+        victim = i;
+        victimWork = existing;
+      }
+    }
+    entries.set(victim, work);
+    entries.set(victim + 1, hash ^ work);
+  }
+
+  /**
+   * Forgets every recorded state.
+   */
+  public void clear() {
+    for (int i = 0; i < entries.length(); i++) {
+      entries.set(i, 0);
+    }
+  }
+
+  private int bucketOf(long hash) {
+    int bucket = bucketBits == 0 ? 0 : (int) (hash >>> (64 - bucketBits));
+    return bucket * BUCKET_SIZE * 2;
+  }
+}
@@ -0,0 +1,39 @@
+package com.flowfree.service.solver;
+
+/**
+ * Zobrist keys for solver states.
+ *
+ * A state hash is the XOR of one key per (cell, flow) assignment, one key per
+ * (flow end, cell) position and a key for the board dimensions, so a single
+ * move updates it with three XORs and undoing the move applies the same
+ * three again. Keys are derived from their inputs with the SplitMix64
+ * finalizer rather than read from a random table, which makes them identical
+ * in every solver instance and lets a transposition table be shared between
+ * threads and between puzzles.
+ */
+final class Zobrist {
+  private static final long CELL_SALT = 0x3C6EF372FE94F82BL;
+  private static final long END_SALT = 0xA54FF53A5F1D36F1L;
+  private static final long BOARD_SALT = 0x510E527FADE682D1L;
+
+  private Zobrist() {
+  }
+
+  static long cellKey(int cell, int flow) {
+    return mix(((long) flow << 32 | cell) ^ CELL_SALT);
+  }
+
+  static long endKey(int end, int cell) {
+    return mix(((long) end << 32 | cell) ^ END_SALT);
+  }
+
+  static long boardKey(int rows, int cols) {
+    return mix(((long) rows << 32 | cols) ^ BOARD_SALT);
+  }
+
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
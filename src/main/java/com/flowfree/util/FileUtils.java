@@ -1,5 +1,107 @@
 package com.flowfree.util;
 
+import com.flowfree.model.Color;
+import com.flowfree.model.Puzzle;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes puzzle catalogs.
+ *
+ * A catalog is a text file with one puzzle per line: its name, rows and
+ * columns, then one field per flow holding the color and the start and end
+ * coordinates, all separated by '|'. Blank lines and lines starting with
+ * '#' are ignored.
+ *
+ * <pre>
+ * Classic|5|5|Red 0 0 4 1|Green 0 2 3 1|...
+ * </pre>
+ */
 public class FileUtils {
+  private static final String SEPARATOR = "|";
+
+  // Prevent instantiation
+  private FileUtils() {
+  }
+
+  /**
+   * Reads every puzzle of a catalog file.
+   *
+   * @throws IOException if the file cannot be read or a line is malformed
+   */
+  public static List<Puzzle> readPuzzles(Path file) throws IOException {
+    List<Puzzle> puzzles = new ArrayList<>();
+    int lineNumber = 0;
+    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+      lineNumber++;
+      String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+      try {
+        puzzles.add(parsePuzzle(trimmed));
+      } catch (IllegalArgumentException e) {
+        throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+      }
+    }
+    return puzzles;
+  }
+
+  /**
+   * Writes puzzles to a catalog file, replacing its contents.
+   */
+  public static void writePuzzles(Path file, List<Puzzle> puzzles) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (Puzzle puzzle : puzzles) {
+      lines.add(formatPuzzle(puzzle));
+    }
+    Files.write(file, lines, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Parses one catalog line.
+   *
+   * @throws IllegalArgumentException if the line is malformed
+   */
+  public static Puzzle parsePuzzle(String line) {
+    String[] fields = line.split("\\|");
+    if (fields.length < 3) {
+      throw new IllegalArgumentException("Expected name, rows and columns");
+    }
+    try {
+      Puzzle puzzle = new Puzzle(fields[0].trim(), Integer.parseInt(fields[1].trim()),
+          Integer.parseInt(fields[2].trim()));
+      for (int i = 3; i < fields.length; i++) {
+        String[] parts = fields[i].trim().split("\\s+");
+        if (parts.length != 5) {
+          throw new IllegalArgumentException("Expected color and four coordinates in '" + fields[i] + "'");
+        }
+        puzzle.addEndpoint(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+            Color.fromString(parts[0]), Integer.parseInt(parts[3]), Integer.parseInt(parts[4]));
+      }
+      return puzzle;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Bad number: " + e.getMessage(), e);
+    }
+  }
 
+  /**
+   * Formats a puzzle as one catalog line.
+   */
+  public static String formatPuzzle(Puzzle puzzle) {
+    StringBuilder line = new StringBuilder();
+    line.append(puzzle.getName()).append(SEPARATOR).append(puzzle.getRows())
+        .append(SEPARATOR).append(puzzle.getCols());
+    for (Puzzle.Endpoint endpoint : puzzle.getEndpoints()) {
+      line.append(SEPARATOR).append(endpoint.color.getName())
+          .append(' ').append(endpoint.startRow).append(' ').append(endpoint.startCol)
+          .append(' ').append(endpoint.endRow).append(' ').append(endpoint.endCol);
+    }
+    return line.toString();
+  }
 }
@@ -0,0 +1,39 @@
+package com.flowfree.controller;
+
+import com.flowfree.model.Color;
+import com.flowfree.model.Grid;
+import com.flowfree.view.GameBoard;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for drawing paths through the controller.
+ */
+public class GameControllerTest extends TestCase {
+
+  public void testPathMayRunAlongsideItself() {
+    Grid grid = new Grid(3, 3);
+    grid.addEndpoint(0, 0, Color.RED);
+    grid.addEndpoint(1, 0, Color.RED);
+    grid.addEndpoint(2, 0, Color.GREEN);
+    grid.addEndpoint(2, 2, Color.GREEN);
+    GameController controller = new GameController(grid, new GameBoard(grid));
+
+    // Red winds round the top two rows, closing a 2x2 block at (1,1)
+    controller.handleCellClick(0, 0);
+    controller.handleCellDrag(0, 1);
+    controller.handleCellDrag(0, 2);
+    controller.handleCellDrag(1, 2);
+    controller.handleCellDrag(1, 1);
+    controller.handleCellDrag(1, 0);
+    controller.handleCellRelease(1, 0);
+    assertEquals(Color.RED, grid.getCell(1, 1).getColor());
+
+    controller.handleCellClick(2, 0);
+    controller.handleCellDrag(2, 1);
+    controller.handleCellDrag(2, 2);
+    controller.handleCellRelease(2, 2);
+
+    assertTrue(controller.getGameStateService().isPuzzleCompleted());
+  }
+}
@@ -0,0 +1,52 @@
+package com.flowfree.service;
+
+import java.util.SplittableRandom;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the board-covering path generator.
+ */
+public class BackbiteGeneratorTest extends TestCase {
+  public void testLargeBoardsSplitIntoSimplePaths() {
+    int size = 100;
+    BackbiteGenerator generator = BackbiteGenerator.random(size, size, new SplittableRandom(1));
+
+    int[] path = generator.path();
+    boolean[] seen = new boolean[size * size];
+    for (int i = 0; i < path.length; i++) {
+      assertFalse(seen[path[i]]);
+      seen[path[i]] = true;
+      if (i > 0) {
+        int step = Math.abs(path[i] - path[i - 1]);
+        assertTrue(step == size || step == 1 && path[i] / size == path[i - 1] / size);
+      }
+    }
+
+    // Every flow must be a path that touches itself only along its links
+    int[][] board = generator.board(2000);
+    int flows = 0;
+    for (int[] row : board) {
+      for (int flow : row) {
+        flows = Math.max(flows, flow + 1);
+      }
+    }
+    assertTrue(flows >= 2000);
+    int[] ends = new int[flows];
+    for (int r = 0; r < size; r++) {
+      for (int c = 0; c < size; c++) {
+        int same = 0;
+        int flow = board[r][c];
+        same += r > 0 && board[r - 1][c] == flow ? 1 : 0;
+        same += r < size - 1 && board[r + 1][c] == flow ? 1 : 0;
+        same += c > 0 && board[r][c - 1] == flow ? 1 : 0;
+        same += c < size - 1 && board[r][c + 1] == flow ? 1 : 0;
+        assertTrue(same == 1 || same == 2);
+        ends[flow] += same == 1 ? 1 : 0;
+      }
+    }
+    for (int count : ends) {
+      assertEquals(2, count);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package com.flowfree.service;
+
+import com.flowfree.model.Color;
+import com.flowfree.model.Puzzle;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for puzzle generation.
+ */
+public class PuzzleGeneratorTest extends TestCase {
+  private final PuzzleGenerator generator = new PuzzleGenerator();
+
+  public void testBatchIsReproducibleAcrossPoolSizes() {
+    ForkJoinPool single = new ForkJoinPool(1);
+    ForkJoinPool wide = new ForkJoinPool(4);
+    try {
+      List<Puzzle> first = generator.generate(40, 6, 5, 42L, single);
+      List<Puzzle> second = generator.generate(40, 6, 5, 42L, wide);
+
+      assertEquals(40, first.size());
+      for (int i = 0; i < first.size(); i++) {
+        assertEquals("Puzzle " + (i + 1), first.get(i).getName());
+        assertTrue(Arrays.deepEquals(first.get(i).getSolution(), second.get(i).getSolution()));
+        assertEquals(first.get(i).getEndpoints().size(), second.get(i).getEndpoints().size());
+      }
+      assertFalse(Arrays.deepEquals(first.get(0).getSolution(),
+          generator.generate(1, 6, 5, 43L, single).get(0).getSolution()));
+    } finally {
+      single.shutdown();
+      wide.shutdown();
+    }
+  }
+
+  public void testLayoutsCarryValidSolutions() {
+    SolutionVerifier verifier = new SolutionVerifier();
+    for (Puzzle puzzle : generator.generate(40, 7, 7, 7L)) {
+      assertTrue(verifier.verify(puzzle, puzzle.getSolution()));
+    }
+  }
+
+  public void testRearrangedFlowsStaySimplePaths() {
+    SolutionVerifier verifier = new SolutionVerifier();
+    for (Puzzle puzzle : generator.generate(10, 7, 7, 11L)) {
+      Puzzle rearranged = generator.rearrangeFlows(puzzle, 10000);
+      assertEquals(puzzle.getEndpoints().size(), rearranged.getEndpoints().size());
+      assertTrue(verifier.verify(rearranged, rearranged.getSolution()));
+    }
+  }
+
+  public void testAnnealingLandsInDifficultyBand() {
+    SolutionVerifier verifier = new SolutionVerifier();
+    RearrangementGoal goal = RearrangementGoal.difficulty(0.2, 0.25);
+    int landed = 0;
+    for (Puzzle puzzle : generator.generate(5, 7, 7, 3L)) {
+      Puzzle rearranged = generator.rearrangeFlows(puzzle, goal, 200000);
+      assertTrue(verifier.verify(rearranged, rearranged.getSolution()));
+      if (goal.accepts(PuzzleGenerator.estimateDifficulty(rearranged))) {
+        landed++;
+      }
+    }
+    assertTrue(landed >= 4);
+  }
+
+  public void testAnnealingIsReproducibleAcrossPoolSizes() {
+    RearrangementGoal goal = new RearrangementGoal(0.5, 0.1, 0.2, 0.25);
+    ForkJoinPool single = new ForkJoinPool(1);
+    ForkJoinPool wide = new ForkJoinPool(4);
+    try {
+      for (Puzzle puzzle : generator.generate(3, 7, 7, 5L)) {
+        Puzzle first = generator.rearrangeFlows(puzzle, goal, 20000, 9L, single);
+        Puzzle second = generator.rearrangeFlows(puzzle, goal, 20000, 9L, wide);
+        assertTrue(Arrays.deepEquals(first.getSolution(), second.getSolution()));
+        assertEquals(first.getEndpoints().size(), second.getEndpoints().size());
+      }
+    } finally {
+      single.shutdown();
+      wide.shutdown();
+    }
+  }
+
+  public void testRebuildTurnsBrokenSolutionsIntoValidOnes() {
+    SolutionVerifier verifier = new SolutionVerifier();
+    SplittableRandom random = new SplittableRandom(5);
+    int rebuilt = 0;
+    for (int i = 0; i < 40; i++) {
+      // Blotches of four colors, which branch and fall apart
+      int[][] grid = new int[6][6];
+      for (int r = 0; r < 6; r++) {
+        for (int c = 0; c < 6; c++) {
+          grid[r][c] = r > 0 && random.nextBoolean() ? grid[r - 1][c] : random.nextInt(4);
+        }
+      }
+      Puzzle broken = new Puzzle("Broken", 6, 6);
+      for (int f = 0; f < 4; f++) {
+        broken.addEndpoint(0, f, Color.values()[f], 5, f);
+      }
+      broken.setSolution(grid);
+
+      Puzzle puzzle = PuzzleRepairer.rebuild(broken, random);
+      if (puzzle != null) {
+        rebuilt++;
+        assertTrue(puzzle.getEndpoints().size() <= Color.values().length);
+        assertTrue(verifier.verify(puzzle, puzzle.getSolution()));
+      }
+    }
+    assertTrue(rebuilt > 0);
+  }
+
+  public void testUniqueModeOnlyEmitsProvenPuzzles() {
+    SolutionValidator validator = new SolutionValidator();
+    SolutionVerifier verifier = new SolutionVerifier();
+    for (int i = 0; i < 5; i++) {
+      Puzzle puzzle = generator.generateUniquePuzzle("Unique", 6, 5);
+      assertNotNull(puzzle);
+      assertTrue(validator.countSolutions(puzzle, 2).isUnique());
+      assertTrue(verifier.verify(puzzle, puzzle.getSolution()));
+    }
+
+    GenerationStats stats = generator.getGenerationStats();
+    assertEquals(5, stats.getAccepted());
+    assertTrue(stats.getAttempts() >= stats.getCandidates());
+    assertTrue(stats.getAcceptanceRate() > 0 && stats.getAcceptanceRate() <= 1);
+    assertTrue(stats.getMillisPerAccepted() >= 0);
+  }
+}
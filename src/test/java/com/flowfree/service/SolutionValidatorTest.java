@@ -0,0 +1,342 @@
+package com.flowfree.service;
+
+import com.flowfree.model.Color;
+import com.flowfree.model.Puzzle;
+import com.flowfree.service.solver.CanonicalLayout;
+import com.flowfree.service.solver.PortfolioSolver;
+import com.flowfree.service.solver.SolutionCount;
+import com.flowfree.service.solver.SolveCache;
+import com.flowfree.service.solver.SolveResult;
+import com.flowfree.service.solver.SolveStatus;
+import com.flowfree.service.solver.SolverStrategies;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the puzzle solver.
+ */
+public class SolutionValidatorTest extends TestCase {
+  private final SolutionValidator validator = new SolutionValidator();
+
+  /**
+   * The first 5x5 level of the original game.
+   */
+  static Puzzle classicPuzzle() {
+    Puzzle puzzle = new Puzzle("Classic", 5, 5);
+    puzzle.addEndpoint(0, 0, Color.RED, 4, 1);
+    puzzle.addEndpoint(0, 2, Color.GREEN, 3, 1);
+    puzzle.addEndpoint(0, 4, Color.YELLOW, 3, 3);
+    puzzle.addEndpoint(1, 2, Color.BLUE, 4, 2);
+    puzzle.addEndpoint(1, 4, Color.ORANGE, 4, 3);
+    return puzzle;
+  }
+
+  public void testSolvesClassicPuzzle() {
+    Puzzle puzzle = classicPuzzle();
+    int[][] solution = validator.solve(puzzle);
+
+    assertNotNull(solution);
+    for (int r = 0; r < 5; r++) {
+      for (int c = 0; c < 5; c++) {
+        assertTrue("cell " + r + "," + c + " is empty", solution[r][c] >= 0);
+      }
+    }
+    for (Puzzle.Endpoint endpoint : puzzle.getEndpoints()) {
+      assertEquals(endpoint.color.ordinal(), solution[endpoint.startRow][endpoint.startCol]);
+      assertEquals(endpoint.color.ordinal(), solution[endpoint.endRow][endpoint.endCol]);
+    }
+  }
+
+  public void testParallelModeAgreesWithSequential() {
+    SolutionValidator parallel = SolutionValidator.parallel();
+
+    assertNotNull(parallel.solve(classicPuzzle()));
+    Puzzle crossing = new Puzzle("Crossing", 2, 2);
+    crossing.addEndpoint(0, 0, Color.RED, 1, 1);
+    crossing.addEndpoint(0, 1, Color.GREEN, 1, 0);
+    assertFalse(parallel.hasSolution(crossing));
+  }
+
+  public void testCountsSolutionsUpToLimit() {
+    SolutionCount all = validator.countSolutions(classicPuzzle(), 10);
+    assertEquals(1, all.getCount());
+    assertTrue(all.isUnique());
+    assertFalse(all.isLimitReached());
+    assertEquals(1, all.getWitnesses().size());
+
+    SolutionCount capped = validator.countSolutions(classicPuzzle(), 1);
+    assertEquals(1, capped.getCount());
+    assertTrue(capped.isLimitReached());
+    assertFalse(capped.isUnique());
+    assertTrue(capped.getNodes() > 0);
+  }
+
+  public void testDetectsAmbiguousPuzzle() {
+    // Red and blue can swap between the left column and the outer ring
+    Puzzle puzzle = new Puzzle("Ambiguous", 4, 4);
+    puzzle.addEndpoint(2, 1, Color.RED, 0, 0);
+    puzzle.addEndpoint(1, 2, Color.GREEN, 2, 2);
+    puzzle.addEndpoint(3, 0, Color.BLUE, 1, 1);
+
+    SolutionCount count = validator.countSolutions(puzzle, 2);
+    assertFalse(validator.hasUniqueSolution(puzzle));
+    assertEquals(2, count.getCount());
+    assertEquals(2, count.getWitnesses().size());
+  }
+
+  public void testStreamsEverySolution() {
+    // Two copies of the ambiguous puzzle side by side give four solutions
+    Puzzle puzzle = new Puzzle("Twins", 4, 8);
+    puzzle.addEndpoint(2, 1, Color.RED, 0, 0);
+    puzzle.addEndpoint(1, 2, Color.GREEN, 2, 2);
+    puzzle.addEndpoint(3, 0, Color.BLUE, 1, 1);
+    puzzle.addEndpoint(2, 5, Color.YELLOW, 0, 4);
+    puzzle.addEndpoint(1, 6, Color.ORANGE, 2, 6);
+    puzzle.addEndpoint(3, 4, Color.PURPLE, 1, 5);
+
+    assertEquals(4, validator.streamSolutions(puzzle, false).count());
+    Set<String> distinct = validator.streamSolutions(puzzle, true)
+        .map(Arrays::deepToString)
+        .collect(Collectors.toSet());
+    assertEquals(4, distinct.size());
+    assertEquals(1, validator.streamSolutions(classicPuzzle(), true).count());
+  }
+
+  public void testFrontierSweepCountsExactly() {
+    SolutionCount classic = validator.countAllSolutions(classicPuzzle(), -1);
+    assertTrue(classic.isUnique());
+
+    // Five copies of the two-solution block of the Twins puzzle stacked into a 20x4 board
+    Puzzle tower = new Puzzle("Tower", 20, 4);
+    Color[] colors = Color.values();
+    for (int block = 0; block < 5; block++) {
+      int top = block * 4;
+      tower.addEndpoint(top + 2, 1, colors[(block * 3) % colors.length], top, 0);
+      tower.addEndpoint(top + 1, 2, colors[(block * 3 + 1) % colors.length], top + 2, 2);
+      tower.addEndpoint(top + 3, 0, colors[(block * 3 + 2) % colors.length], top + 1, 1);
+    }
+    assertEquals(32, validator.countAllSolutions(tower, -1).getCount());
+    assertEquals(32, validator.countSolutions(tower, 100).getCount());
+  }
+
+  public void testCountResumesFromCheckpoint() throws Exception {
+    // Eight copies of the two-solution block of the Twins puzzle
+    Puzzle tiles = new Puzzle("Tiles", 8, 16);
+    Color[] colors = Color.values();
+    for (int block = 0; block < 8; block++) {
+      int top = block / 4 * 4;
+      int left = block % 4 * 4;
+      tiles.addEndpoint(top + 2, left + 1, colors[(block * 3) % colors.length], top, left);
+      tiles.addEndpoint(top + 1, left + 2, colors[(block * 3 + 1) % colors.length], top + 2, left + 2);
+      tiles.addEndpoint(top + 3, left, colors[(block * 3 + 2) % colors.length], top + 1, left + 1);
+    }
+    Path checkpoint = Files.createTempFile("count", ".ckpt");
+    Files.delete(checkpoint);
+    try {
+      SolutionCount paused = validator.countSolutions(tiles, 1000, 0, checkpoint);
+      assertTrue(paused.isTimedOut());
+      assertTrue(Files.exists(checkpoint));
+
+      SolutionCount resumed = validator.countSolutions(tiles, 1000, -1, checkpoint);
+      assertFalse(resumed.isTimedOut());
+      assertEquals(256, resumed.getCount());
+      assertFalse(Files.exists(checkpoint));
+    } finally {
+      Files.deleteIfExists(checkpoint);
+    }
+  }
+
+  public void testRejectsCrossingFlows() {
+    Puzzle puzzle = new Puzzle("Crossing", 2, 2);
+    puzzle.addEndpoint(0, 0, Color.RED, 1, 1);
+    puzzle.addEndpoint(0, 1, Color.GREEN, 1, 0);
+
+    assertFalse(validator.hasSolution(puzzle));
+  }
+
+  public void testRejectsUncoveredCells() {
+    Puzzle puzzle = new Puzzle("Gap", 3, 3);
+    puzzle.addEndpoint(0, 0, Color.RED, 0, 1);
+
+    assertFalse(validator.hasSolution(puzzle));
+  }
+
+  public void testAsyncSolveReportsStatusAndProgress() {
+    SolveResult result = validator.solveAsync(classicPuzzle(), 10000).join();
+
+    assertEquals(SolveStatus.SOLVED, result.getStatus());
+    assertEquals(Color.BLUE.ordinal(), result.getSolution()[4][2]);
+    assertTrue(result.getProgress().getNodes() > 0);
+  }
+
+  public void testSatBackendSolvesAndRejects() {
+    SolveResult solved = validator.solveAsync(classicPuzzle(), SolverStrategies.sat(), 10000,
+        Runnable::run).join();
+    assertEquals(SolveStatus.SOLVED, solved.getStatus());
+    assertEquals("sat", solved.getStrategy());
+    assertEquals(Color.BLUE.ordinal(), solved.getSolution()[4][2]);
+
+    Puzzle crossing = new Puzzle("Crossing", 2, 2);
+    crossing.addEndpoint(0, 0, Color.RED, 1, 1);
+    crossing.addEndpoint(0, 1, Color.GREEN, 1, 0);
+    SolveResult rejected = validator.solveAsync(crossing, SolverStrategies.sat(), 10000,
+        Runnable::run).join();
+    assertEquals(SolveStatus.UNSOLVABLE, rejected.getStatus());
+  }
+
+  public void testPortfolioReturnsFirstDefinitiveAnswer() {
+    PortfolioSolver portfolio = PortfolioSolver.standard(ForkJoinPool.commonPool());
+
+    SolveResult solved = validator.solveAsync(classicPuzzle(), portfolio, 10000, Runnable::run).join();
+    assertEquals(SolveStatus.SOLVED, solved.getStatus());
+    assertEquals(Color.BLUE.ordinal(), solved.getSolution()[4][2]);
+    Map<String, Long> wins = portfolio.getWins("5x5/5");
+    assertEquals(1L, wins.values().stream().mapToLong(Long::longValue).sum());
+    assertTrue(wins.containsKey(solved.getStrategy()));
+
+    Puzzle crossing = new Puzzle("Crossing", 2, 2);
+    crossing.addEndpoint(0, 0, Color.RED, 1, 1);
+    crossing.addEndpoint(0, 1, Color.GREEN, 1, 0);
+    SolveResult rejected = validator.solveAsync(crossing, portfolio, 10000, Runnable::run).join();
+    assertEquals(SolveStatus.UNSOLVABLE, rejected.getStatus());
+  }
+
+  public void testCacheAnswersMirroredPuzzleAfterReopening() throws Exception {
+    Path file = Files.createTempFile("solve-cache", ".bin");
+    try {
+      try (SolveCache cache = SolveCache.open(file, 64)) {
+        new SolutionValidator(null, 0, cache).countSolutions(classicPuzzle(), 10);
+      }
+
+      // The classic puzzle mirrored along its diagonal and turned half way, with flows reordered and recolored
+      Puzzle mirrored = new Puzzle("Mirrored", 5, 5);
+      mirrored.addEndpoint(2, 0, Color.PINK, 2, 3);
+      mirrored.addEndpoint(0, 3, Color.CYAN, 1, 0);
+      mirrored.addEndpoint(4, 4, Color.RED, 3, 0);
+      mirrored.addEndpoint(3, 1, Color.GREEN, 2, 4);
+      mirrored.addEndpoint(0, 4, Color.BLUE, 1, 1);
+      try (SolveCache cache = SolveCache.open(file, 64)) {
+        SolutionValidator cached = new SolutionValidator(null, 0, cache);
+        SolutionCount count = cached.countSolutions(mirrored, 2);
+        assertTrue(count.isUnique());
+        assertEquals(0, count.getNodes());
+        assertTrue(Arrays.deepEquals(validator.solve(mirrored), count.getWitnesses().get(0)));
+        assertTrue(Arrays.deepEquals(validator.solve(mirrored), cached.solve(mirrored)));
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  public void testCacheMissesSlotWithCorruptHeader() throws Exception {
+    Path file = Files.createTempFile("solve-cache", ".bin");
+    try {
+      CanonicalLayout layout = CanonicalLayout.of(classicPuzzle());
+      try (SolveCache cache = SolveCache.open(file, 64)) {
+        cache.recordCount(layout, 1, true, null);
+      }
+      byte[] bytes = Files.readAllBytes(file);
+      // The slot header follows a 64-byte file header in 256-byte slots; find the one in use
+      int slot = 64;
+      while (ByteBuffer.wrap(bytes, slot, 8).getLong() == 0) {
+        slot += 256;
+      }
+
+      // Rows, cols, flows and flags, then the count; bytes 20-23 hold the stamp
+      int[] header = { 16, 17, 18, 19, 24, 25, 26, 27, 28, 29, 30, 31 };
+      for (int offset : header) {
+        bytes[slot + offset] ^= 2;
+        Files.write(file, bytes);
+        try (SolveCache cache = SolveCache.open(file, 64)) {
+          assertNull("byte " + offset, cache.lookup(layout));
+        }
+        bytes[slot + offset] ^= 2;
+      }
+
+      bytes[slot + 20] ^= 2;
+      Files.write(file, bytes);
+      try (SolveCache cache = SolveCache.open(file, 64)) {
+        assertNotNull(cache.lookup(layout));
+        SolveCache.Entry entry = cache.lookup(layout);
+        assertEquals(SolveStatus.SOLVED, entry.getStatus());
+        assertEquals(1, entry.getCount());
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  public void testCacheNeverMixesRacingWriters() throws Exception {
+    Path file = Files.createTempFile("solve-cache", ".bin");
+    // A second name maps the file again, as another process would
+    Path link = file.resolveSibling(file.getFileName() + ".link");
+    Files.createLink(link, file);
+    try (SolveCache first = SolveCache.open(file, 64); SolveCache second = SolveCache.open(link, 64)) {
+      CanonicalLayout layout = CanonicalLayout.of(classicPuzzle());
+      int[][] low = new int[5][5];
+      int[][] high = new int[5][5];
+      for (int[] row : high) {
+        Arrays.fill(row, 4);
+      }
+      AtomicBoolean done = new AtomicBoolean();
+      Thread[] writers = {
+          new Thread(() -> {
+            while (!done.get()) {
+              first.recordSolve(layout, low);
+            }
+          }),
+          new Thread(() -> {
+            while (!done.get()) {
+              second.recordSolve(layout, high);
+            }
+          }) };
+      for (Thread writer : writers) {
+        writer.start();
+      }
+
+      int hits = 0;
+      try {
+        long end = System.nanoTime() + 500_000_000L;
+        for (int i = 0; System.nanoTime() < end; i++) {
+          SolveCache.Entry entry = (i & 1) == 0 ? first.lookup(layout) : second.lookup(layout);
+          if (entry != null) {
+            hits++;
+            int[][] solution = entry.getSolution();
+            assertTrue(Arrays.deepEquals(low, solution) || Arrays.deepEquals(high, solution));
+          }
+        }
+      } finally {
+        done.set(true);
+        for (Thread writer : writers) {
+          writer.join();
+        }
+      }
+      assertTrue(hits > 0);
+    } finally {
+      Files.delete(link);
+      Files.delete(file);
+    }
+  }
+
+  public void testAsyncSolveTimesOut() {
+    // A single flow cannot fill the board without touching itself, but proving
+    // that takes far longer than a zero budget allows
+    Puzzle puzzle = new Puzzle("Snake", 7, 7);
+    puzzle.addEndpoint(0, 0, Color.RED, 6, 6);
+
+    SolveResult result = validator.solveAsync(puzzle, 0).join();
+
+    assertEquals(SolveStatus.TIMED_OUT, result.getStatus());
+    assertNull(result.getSolution());
+  }
+}
@@ -0,0 +1,102 @@
+package com.flowfree.service;
+
+import com.flowfree.model.Color;
+import com.flowfree.model.Grid;
+import com.flowfree.model.Puzzle;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the solution certificate checks.
+ */
+public class SolutionVerifierTest extends TestCase {
+  private final SolutionVerifier verifier = new SolutionVerifier();
+
+  public void testAcceptsSolvedPuzzle() {
+    Puzzle puzzle = SolutionValidatorTest.classicPuzzle();
+    int[][] solution = new SolutionValidator().solve(puzzle);
+
+    assertTrue(verifier.verify(puzzle, solution));
+    assertEquals(SolutionVerifier.Defect.NONE, verifier.getDefect());
+  }
+
+  public void testRejectsBrokenSolutions() {
+    Puzzle puzzle = SolutionValidatorTest.classicPuzzle();
+    int[][] solution = new SolutionValidator().solve(puzzle);
+
+    int[][] gap = copy(solution);
+    gap[2][2] = -1;
+    assertFalse(verifier.verify(puzzle, gap));
+    assertEquals(SolutionVerifier.Defect.UNCOVERED, verifier.getDefect());
+
+    int[][] recolored = copy(solution);
+    recolored[0][0] = Color.PINK.ordinal();
+    assertFalse(verifier.verify(puzzle, recolored));
+    assertEquals(SolutionVerifier.Defect.ENDPOINT_COLOR, verifier.getDefect());
+
+    assertFalse(verifier.verify(puzzle, new int[4][5]));
+    assertEquals(SolutionVerifier.Defect.SHAPE, verifier.getDefect());
+  }
+
+  public void testRejectsDetachedLoop() {
+    // Three straight flows inside a blue ring that belongs to no flow
+    Puzzle puzzle = new Puzzle("Ring", 5, 5);
+    puzzle.addEndpoint(1, 1, Color.RED, 1, 3);
+    puzzle.addEndpoint(2, 1, Color.GREEN, 2, 3);
+    puzzle.addEndpoint(3, 1, Color.YELLOW, 3, 3);
+    int b = Color.BLUE.ordinal();
+    int r = Color.RED.ordinal();
+    int g = Color.GREEN.ordinal();
+    int y = Color.YELLOW.ordinal();
+    int[][] grid = {
+        { b, b, b, b, b },
+        { b, r, r, r, b },
+        { b, g, g, g, b },
+        { b, y, y, y, b },
+        { b, b, b, b, b } };
+
+    assertFalse(verifier.verify(puzzle, grid));
+    assertEquals(SolutionVerifier.Defect.DETACHED, verifier.getDefect());
+  }
+
+  public void testChecksPlayerBoard() {
+    Grid grid = new Grid(2, 3);
+    grid.addEndpoint(0, 0, Color.RED);
+    grid.addEndpoint(0, 2, Color.RED);
+    grid.addEndpoint(1, 0, Color.GREEN);
+    grid.addEndpoint(1, 2, Color.GREEN);
+    assertFalse(verifier.verify(grid));
+    assertEquals(SolutionVerifier.Defect.UNCOVERED, verifier.getDefect());
+
+    grid.getCell(0, 1).setColor(Color.RED);
+    grid.getCell(1, 1).setColor(Color.GREEN);
+    assertTrue(verifier.verify(grid));
+  }
+
+  public void testAcceptsPlayerPathThatTouchesItself() {
+    // Red winds through the top two rows, running alongside itself, and green fills the bottom
+    Grid grid = new Grid(3, 3);
+    grid.addEndpoint(0, 0, Color.RED);
+    grid.addEndpoint(1, 0, Color.RED);
+    grid.addEndpoint(2, 0, Color.GREEN);
+    grid.addEndpoint(2, 2, Color.GREEN);
+    for (int c = 1; c < 3; c++) {
+      grid.getCell(0, c).setColor(Color.RED);
+      grid.getCell(1, c).setColor(Color.RED);
+    }
+    grid.getCell(2, 1).setColor(Color.BLUE);
+    assertFalse(verifier.verify(grid));
+    assertEquals(SolutionVerifier.Defect.DISCONNECTED, verifier.getDefect());
+
+    grid.getCell(2, 1).setColor(Color.GREEN);
+    assertTrue(verifier.verify(grid));
+  }
+
+  private static int[][] copy(int[][] grid) {
+    int[][] copy = new int[grid.length][];
+    for (int r = 0; r < grid.length; r++) {
+      copy[r] = grid[r].clone();
+    }
+    return copy;
+  }
+}
@@ -0,0 +1,74 @@
+package com.flowfree.service.batch;
+
+import com.flowfree.model.Color;
+import com.flowfree.model.Puzzle;
+import com.flowfree.service.solver.SolveStatus;
+
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for batch solving over local sockets.
+ */
+public class BatchCoordinatorTest extends TestCase {
+  private static Puzzle classicPuzzle() {
+    Puzzle puzzle = new Puzzle("Classic", 5, 5);
+    puzzle.addEndpoint(0, 0, Color.RED, 4, 1);
+    puzzle.addEndpoint(0, 2, Color.GREEN, 3, 1);
+    puzzle.addEndpoint(0, 4, Color.YELLOW, 3, 3);
+    puzzle.addEndpoint(1, 2, Color.BLUE, 4, 2);
+    puzzle.addEndpoint(1, 4, Color.ORANGE, 4, 3);
+    return puzzle;
+  }
+
+  public void testRedispatchesUnitOfDeadWorker() throws Exception {
+    Puzzle crossing = new Puzzle("Crossing", 2, 2);
+    crossing.addEndpoint(0, 0, Color.RED, 1, 1);
+    crossing.addEndpoint(0, 1, Color.GREEN, 1, 0);
+
+    try (BatchCoordinator coordinator = new BatchCoordinator(10000)) {
+      coordinator.addPuzzle(classicPuzzle());
+      coordinator.addPuzzle(crossing);
+      coordinator.addPuzzle(classicPuzzle(), 2);
+      int port = coordinator.start();
+
+      // A worker that takes a unit and dies before answering
+      try (Socket dying = new Socket(InetAddress.getLoopbackAddress(), port)) {
+        assertEquals(BatchProtocol.UNIT, new DataInputStream(dying.getInputStream()).readInt());
+      }
+      Thread worker = new Thread(new BatchWorker(InetAddress.getLoopbackAddress().getHostAddress(), port));
+      worker.start();
+
+      assertTrue(coordinator.await(30, TimeUnit.SECONDS));
+      worker.join(10000);
+      List<BatchResult> results = coordinator.getResults();
+      assertEquals(SolveStatus.SOLVED, results.get(0).getStatus());
+      assertEquals(Color.BLUE.ordinal(), results.get(0).getSolution()[4][2]);
+      assertEquals(SolveStatus.UNSOLVABLE, results.get(1).getStatus());
+      assertEquals(SolveStatus.SOLVED, results.get(2).getStatus());
+      assertEquals(0, results.get(0).getFailedUnits());
+      assertFalse(worker.isAlive());
+    }
+  }
+
+  public void testFinishesAfterEveryWorkerIsKilled() throws Exception {
+    try (BatchCoordinator coordinator = new BatchCoordinator(10000)) {
+      coordinator.addPuzzle(classicPuzzle());
+      coordinator.addPuzzle(classicPuzzle(), 2);
+      coordinator.start();
+      for (Process worker : coordinator.launchWorkers(2)) {
+        worker.destroyForcibly();
+      }
+
+      assertTrue(coordinator.await(60, TimeUnit.SECONDS));
+      for (BatchResult result : coordinator.getResults()) {
+        assertEquals(SolveStatus.SOLVED, result.getStatus());
+      }
+    }
+  }
+}
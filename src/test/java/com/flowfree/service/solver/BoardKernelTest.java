@@ -0,0 +1,136 @@
+package com.flowfree.service.solver;
+
+import com.flowfree.service.BackbiteGenerator;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests checking the generated board kernels against the generic one.
+ */
+public class BoardKernelTest extends TestCase {
+  private static final int BOARDS_PER_SIZE = 4;
+
+  public void testGeneratedKernelsMatchGenericKernel() {
+    SplittableRandom random = new SplittableRandom(20);
+    for (int size = 5; size <= 15; size++) {
+      BoardKernel generated = BoardKernels.forSize(size, size);
+      assertFalse(generated instanceof GenericKernel);
+      for (int i = 0; i < BOARDS_PER_SIZE; i++) {
+        int[] endpoints = endpoints(size, random);
+        FlowBoard fast = new FlowBoard(size, size, endpoints, generated);
+        FlowBoard slow = new FlowBoard(size, size, endpoints, new GenericKernel(size));
+        String board = size + "x" + size + " board " + i;
+
+        // Walk both boards through the same random moves, backing up now and then
+        int[] marks = new int[size * size];
+        int depth = 0;
+        for (int step = 0; step < 4 * size * size; step++) {
+          assertSameScans(board + ", step " + step, fast, slow);
+          int[] moves = moves(slow);
+          if (moves.length == 0 || depth > 0 && random.nextInt(4) == 0) {
+            if (depth == 0) {
+              break;
+            }
+            depth--;
+            fast.undo(marks[depth]);
+            slow.undo(marks[depth]);
+            continue;
+          }
+          int move = random.nextInt(moves.length / 2) * 2;
+          int mark = slow.mark();
+          assertEquals(mark, fast.mark());
+          marks[depth++] = mark;
+          fast.extend(moves[move], moves[move + 1]);
+          slow.extend(moves[move], moves[move + 1]);
+        }
+        while (depth > 0) {
+          depth--;
+          fast.undo(marks[depth]);
+          slow.undo(marks[depth]);
+        }
+
+        SolverStrategy strategy = SolverStrategies.depthFirst(null);
+        SolveResult fastResult = strategy.solve(fast, new SearchMonitor());
+        SolveResult slowResult = strategy.solve(slow, new SearchMonitor());
+        assertEquals(board, SolveStatus.SOLVED, slowResult.getStatus());
+        assertEquals(board, slowResult.getStatus(), fastResult.getStatus());
+        assertEquals(board, slowResult.getProgress().getNodes(), fastResult.getProgress().getNodes());
+        assertTrue(board, Arrays.deepEquals(slowResult.getSolution(), fastResult.getSolution()));
+      }
+    }
+  }
+
+  /**
+   * Lays out the endpoints of a random puzzle with about one flow per six
+   * cells.
+   */
+  private static int[] endpoints(int size, SplittableRandom random) {
+    BackbiteGenerator generator = BackbiteGenerator.random(size, size, random);
+    int[] flowOf = generator.cut(size * size / 6);
+    int[] path = generator.path();
+    int flows = 0;
+    for (int flow : flowOf) {
+      flows = Math.max(flows, flow + 1);
+    }
+    int[] endpoints = new int[flows * 4];
+    for (int i = 0; i < path.length; i++) {
+      int flow = flowOf[path[i]];
+      if (i == 0 || flowOf[path[i - 1]] != flow) {
+        endpoints[flow * 4] = path[i] / size;
+        endpoints[flow * 4 + 1] = path[i] % size;
+      }
+      if (i == path.length - 1 || flowOf[path[i + 1]] != flow) {
+        endpoints[flow * 4 + 2] = path[i] / size;
+        endpoints[flow * 4 + 3] = path[i] % size;
+      }
+    }
+    return endpoints;
+  }
+
+  /**
+   * Lists every legal move of a board as pairs of end and cell.
+   */
+  private static int[] moves(FlowBoard board) {
+    int[] out = new int[4];
+    int[] moves = new int[board.getNumFlows() * 2 * 4 * 2];
+    int count = 0;
+    for (int end = 0; end < board.getNumFlows() * 2; end++) {
+      if (board.isComplete(end >> 1)) {
+        continue;
+      }
+      int found = board.collectMoves(end, out, 0);
+      for (int i = 0; i < found; i++) {
+        moves[count++] = end;
+        moves[count++] = out[i];
+      }
+    }
+    return Arrays.copyOf(moves, count);
+  }
+
+  private static void assertSameScans(String where, FlowBoard fast, FlowBoard slow) {
+    assertEquals(where, slow.hasDeadCell(), fast.hasDeadCell());
+    int[] fastMoves = new int[4];
+    int[] slowMoves = new int[4];
+    for (int end = 0; end < slow.getNumFlows() * 2; end++) {
+      int found = slow.collectMoves(end, slowMoves, 0);
+      assertEquals(where, found, fast.collectMoves(end, fastMoves, 0));
+      assertTrue(where, Arrays.equals(slowMoves, fastMoves));
+    }
+    for (int r = 0; r < slow.getRows(); r++) {
+      for (int c = 0; c < slow.getCols(); c++) {
+        int cell = slow.index(r, c);
+        String at = where + ", cell (" + r + "," + c + ")";
+        assertEquals(at, slow.getPattern(cell), fast.getPattern(cell));
+        assertEquals(at, slow.hasDeadEndAround(cell), fast.hasDeadEndAround(cell));
+        assertEquals(at, slow.squeezedNeighbor(cell), fast.squeezedNeighbor(cell));
+        for (int d = 0; d < 4; d++) {
+          int exclude = cell + slow.offset(d);
+          assertEquals(at, slow.otherOpenNeighbor(cell, exclude), fast.otherOpenNeighbor(cell, exclude));
+        }
+      }
+    }
+  }
+}
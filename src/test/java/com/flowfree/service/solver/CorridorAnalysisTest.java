@@ -0,0 +1,45 @@
+package com.flowfree.service.solver;
+
+import com.flowfree.model.Color;
+import com.flowfree.model.Grid;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the articulation-point analysis.
+ */
+public class CorridorAnalysisTest extends TestCase {
+
+  public void testFindsSingleCellDoorway() {
+    // Two 3x2 rooms joined only through the middle of column 2, so the
+    // doorway and the cell on either side of it are all cut cells
+    Grid grid = new Grid(3, 5);
+    grid.getCell(0, 2).setColor(Color.RED);
+    grid.getCell(2, 2).setColor(Color.RED);
+
+    CorridorAnalysis analysis = CorridorAnalysis.of(grid);
+
+    assertEquals(1, analysis.getComponentCount());
+    assertEquals(3, analysis.getArticulationCount());
+    assertTrue(analysis.isArticulationPoint(1, 1));
+    assertTrue(analysis.isArticulationPoint(1, 2));
+    assertTrue(analysis.isArticulationPoint(1, 3));
+    assertFalse(analysis.isArticulationPoint(0, 1));
+    int door = BitBoard.index(1, 2);
+    assertTrue(analysis.separates(door, BitBoard.index(0, 0), BitBoard.index(2, 4)));
+    assertFalse(analysis.separates(door, BitBoard.index(0, 0), BitBoard.index(2, 1)));
+  }
+
+  public void testCorridorCellsAreArticulationPoints() {
+    // A 1x4 corridor: both inner cells split it, the ends do not
+    Grid grid = new Grid(1, 4);
+
+    CorridorAnalysis analysis = CorridorAnalysis.of(grid);
+
+    assertEquals(2, analysis.getArticulationCount());
+    assertFalse(analysis.isArticulationPoint(0, 0));
+    assertTrue(analysis.isArticulationPoint(0, 1));
+    assertTrue(analysis.isArticulationPoint(0, 2));
+    assertFalse(analysis.isArticulationPoint(0, 3));
+  }
+}